@@ -47,6 +47,9 @@ public class App {
                 .addServlet(API_PREFIX + "/webdav/*", svc.getDavServlet())
                 .addFilter( "/*", createSparkFilter(API_PREFIX, svc, CONFIG))
                 .port(CONFIG.port);
+        if (svc.getTransactionLogServlet() != null) {
+            serverBuilder.addServlet(API_PREFIX + "/log/*", svc.getTransactionLogServlet());
+        }
         var server = serverBuilder
                 .build();
 
@@ -0,0 +1,80 @@
+package io.fairspace.saturn;
+
+import io.fairspace.saturn.config.*;
+import io.fairspace.saturn.rdf.transactions.*;
+import lombok.extern.log4j.*;
+import org.apache.jena.dboe.base.file.Location;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+import static io.fairspace.saturn.config.ConfigLoader.CONFIG;
+import static org.apache.jena.tdb2.sys.DatabaseConnection.connectCreate;
+
+/**
+ * Restores the dataset as it was after a given transaction or at a given time into a new TDB2 location,
+ * using the configured transaction log and checkpoints. Saturn must not write to the target location.
+ * The restore is parallel and can be interrupted and started again with the same arguments, see {@link Restore}.
+ * <p>
+ * Usage: java -cp saturn.jar io.fairspace.saturn.PointInTimeRestore target-directory transaction-number|timestamp
+ * The transaction number is the number of transactions to restore, e.g. 1234 restores transactions 1 .. 1234.
+ * The timestamp is an ISO-8601 instant, e.g. 2021-03-02T10:00:00Z, and restores all transactions committed at or before it.
+ * The restored dataset doesn't match the original transaction log any more,
+ * so it's meant for inspection or for copying data back rather than for running Saturn on it.
+ */
+@Log4j2
+public class PointInTimeRestore {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: " + PointInTimeRestore.class.getName() + " target-directory transaction-number|timestamp");
+            System.exit(1);
+        }
+        restore(CONFIG.jena, new File(args[0]), args[1]);
+    }
+
+    static void restore(Config.Jena config, File target, String until) throws IOException {
+        if (target.exists() && target.list().length > 0 && !Restore.isRestoreInterrupted(target)) {
+            throw new IllegalArgumentException("The target directory " + target + " is not empty");
+        }
+        target.mkdirs();
+
+        var restoreConfig = new Config.Jena();
+        restoreConfig.datasetPath = target;
+        restoreConfig.restore = config.restore;
+        restoreConfig.checkpoints = config.checkpoints;
+
+        try (var txnLog = openTransactionLog(config)) {
+            var transactions = transactions(txnLog, until);
+            log.info("Restoring {} of {} transactions into {}", transactions, txnLog.size(), target);
+            var dsg = connectCreate(Location.create(target.getAbsolutePath()), config.storeParams).getDatasetGraph();
+            try {
+                Restore.restore(dsg, txnLog, restoreConfig, transactions);
+            } finally {
+                dsg.close();
+            }
+        }
+    }
+
+    private static long transactions(TransactionLog txnLog, String until) throws IOException {
+        if (until.chars().allMatch(Character::isDigit)) {
+            return Long.parseLong(until);
+        }
+        try {
+            return Restore.countTransactionsUntil(txnLog, Instant.parse(until).toEpochMilli());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Neither a transaction number nor a timestamp: " + until);
+        }
+    }
+
+    private static TransactionLog openTransactionLog(Config.Jena config) throws IOException {
+        // Reading detects the format of every transaction, the write format doesn't matter
+        var codec = new FormatDetectingTransactionCodec(new SparqlTransactionCodec());
+        return switch (config.transactionLogStorage) {
+            case FILES -> new LocalTransactionLog(config.transactionLogPath, codec);
+            // Saturn might be running and appending to the log
+            case SEGMENTS -> SegmentedTransactionLog.openReadOnly(config.transactionLogPath, codec);
+        };
+    }
+}
@@ -7,6 +7,7 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
@@ -24,6 +25,7 @@ import java.util.*;
 
 public class Config {
     static final ObjectMapper MAPPER = new ObjectMapper(new YAMLFactory())
+            .configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS, true)
             .registerModule(new SimpleModule()
                     .addSerializer(new StoreParamsSerializer())
                     .addDeserializer(StoreParams.class, new StoreParamsDeserializer()));
@@ -60,6 +62,145 @@ public class Config {
         public File transactionLogPath = new File("data/log");
 
         public boolean bulkTransactions = true;
+
+        public BulkTransactionBatches bulkTransactionBatches = new BulkTransactionBatches();
+
+        public static class BulkTransactionBatches {
+            /**
+             * The maximum number of write tasks committed in a single transaction
+             */
+            public int maxSize = 1000;
+            /**
+             * If positive, no more tasks are added to a transaction after it has been running that long
+             */
+            public long maxDurationMillis = 1000;
+            /**
+             * The number of tasks of every priority added to a batch in one round, see WritePriority
+             */
+            public int interactiveWeight = 8;
+            public int bulkWeight = 2;
+            public int maintenanceWeight = 1;
+        }
+
+        public TransactionLogFormat transactionLogFormat = TransactionLogFormat.SPARQL;
+
+        public TransactionLogStorage transactionLogStorage = TransactionLogStorage.FILES;
+
+        /**
+         * Maintain an index of transactions by time and user, used by the transaction history API
+         */
+        public boolean transactionLogIndex = true;
+
+        public TransactionLogSegments transactionLogSegments = new TransactionLogSegments();
+
+        public TransactionLogCompression transactionLogCompression = new TransactionLogCompression();
+
+        public static class TransactionLogCompression {
+            /**
+             * Compress new transactions (deflate). Compressed and uncompressed transactions can be mixed in a log.
+             */
+            public boolean enabled = false;
+            /**
+             * If positive, completed chapters of a file-based log are compressed that often
+             */
+            public long recompressIntervalMinutes = 0;
+        }
+
+        public static class TransactionLogSegments {
+            public long segmentSize = 64 * 1024 * 1024;
+            /**
+             * The maximum number of commits between two syncs of the transaction log to the storage device
+             */
+            public int syncBatchSize = 1;
+            /**
+             * If positive, pending commits are synced at least that often
+             */
+            public long syncIntervalMillis = 0;
+            /**
+             * If enabled, every commit waits until it's synced, but concurrent commits share a single sync.
+             * Replaces syncBatchSize and syncIntervalMillis.
+             * A write transaction waits for its sync before it's committed to the dataset and writers are serialized,
+             * so enable bulkTransactions to let many write tasks share a sync.
+             */
+            public boolean groupCommit = false;
+            /**
+             * How long a sync waits for a transaction which is being written to join it.
+             * A sync doesn't wait if no other transaction is being written.
+             */
+            public long groupCommitWindowMillis = 2;
+        }
+
+        public Restore restore = new Restore();
+
+        public static class Restore {
+            /**
+             * The number of threads reading and decoding transactions
+             */
+            public int threads = Runtime.getRuntime().availableProcessors();
+            /**
+             * The maximum number of decoded transactions waiting to be applied
+             */
+            public int prefetch = 1000;
+            /**
+             * The number of transactions applied between two intermediate commits
+             */
+            public int commitInterval = 10_000;
+        }
+
+        public Checkpoints checkpoints = new Checkpoints();
+
+        public static class Checkpoints {
+            public File path = new File("data/checkpoints");
+            /**
+             * How often a snapshot of the dataset is stored, checkpoints are disabled if not positive
+             */
+            public long intervalMinutes = 0;
+            /**
+             * The number of the latest checkpoints to keep
+             */
+            public int retain = 2;
+            /**
+             * If set, parts of the transaction log covered by all retained checkpoints are moved there
+             */
+            public File archivePath;
+        }
+
+        public Follower follower = new Follower();
+
+        /**
+         * A follower is a read-only instance that applies the transactions of a primary instance
+         */
+        public static class Follower {
+            public boolean enabled = false;
+            /**
+             * The primary's transaction log endpoint, e.g. http://primary:8090/api/log/
+             */
+            public String primaryUrl;
+            /**
+             * Credentials of an administrator of the primary (basic authentication)
+             */
+            public String username;
+            public String password;
+            /**
+             * Alternatively, the primary's transaction log directory (file storage only), e.g. on a shared volume
+             */
+            public File primaryLogPath;
+            /**
+             * How long to wait before polling the log directory or reconnecting to the primary
+             */
+            public long pollIntervalMillis = 1000;
+        }
+    }
+
+    public enum TransactionLogFormat {
+        /**
+         * Human-readable SPARQL Update statements
+         */
+        SPARQL,
+        /**
+         * Compact binary records with a per-transaction node dictionary
+         */
+        BINARY
     }
 
     public static class Auth {
@@ -100,6 +241,41 @@ public class Config {
         public String url = String.format("jdbc:postgresql://%s:%d/%s", "localhost", 5432, "fairspace");
         public String username = "fairspace";
         public String password = "fairspace";
+        /**
+         * Update the view database in the background instead of in every write transaction
+         */
+        public boolean asyncIndexing = false;
+        /**
+         * Maximal number of transactions applied to the view database at once when indexing asynchronously or catching up on startup
+         */
+        public int indexingBatchSize = 1000;
+        /**
+         * How long queries wait for the last changes of their user to be indexed, 0 disables waiting
+         */
+        public long readYourWritesTimeoutMillis = 5000;
+        /**
+         * Number of copy jobs (rows of a type, values of a column or links of a join) running concurrently during a reindex
+         */
+        public int reindexParallelism = 4;
+        /**
+         * Maximal number of term labels and of term IRIs cached for rendering and filtering views
+         */
+        public long labelCacheSize = 100_000;
+        /**
+         * Maximal number of cached view counts, by view and filters. Any change of the view database invalidates them
+         */
+        public long countCacheSize = 1000;
+    }
+
+    public enum TransactionLogStorage {
+        /**
+         * A file per transaction, organized in volumes and chapters
+         */
+        FILES,
+        /**
+         * Large append-only segment files with an offset index
+         */
+        SEGMENTS
     }
 
     @Override
@@ -2,10 +2,17 @@ package io.fairspace.saturn.config;
 
 import io.fairspace.saturn.rdf.search.FilteredDatasetGraph;
 import io.fairspace.saturn.rdf.transactions.BulkTransactions;
+import io.fairspace.saturn.rdf.transactions.IndexedTransactionLog;
+import io.fairspace.saturn.rdf.transactions.LogFollower;
+import io.fairspace.saturn.rdf.transactions.SegmentedTransactionLog;
 import io.fairspace.saturn.rdf.transactions.SimpleTransactions;
+import io.fairspace.saturn.rdf.transactions.TransactionLogServlet;
 import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.rdf.transactions.TxnLogDatasetGraph;
 import io.fairspace.saturn.services.health.HealthService;
+import io.fairspace.saturn.services.history.TransactionHistoryService;
 import io.fairspace.saturn.services.maintenance.MaintenanceService;
+import io.fairspace.saturn.services.metrics.MetricsService;
 import io.fairspace.saturn.services.metadata.MetadataPermissions;
 import io.fairspace.saturn.services.metadata.MetadataService;
 import io.fairspace.saturn.services.metadata.validation.*;
@@ -29,6 +36,10 @@ import javax.servlet.http.HttpServlet;
 import java.io.File;
 
 import static io.fairspace.saturn.config.ConfigLoader.CONFIG;
+import static io.fairspace.saturn.rdf.SaturnDatasetFactory.LOG_FOLLOWER;
+import static io.fairspace.saturn.rdf.SaturnDatasetFactory.TRANSACTION_INDEX;
+import static io.fairspace.saturn.rdf.SaturnDatasetFactory.TRANSACTION_LOG;
+import static io.fairspace.saturn.rdf.SaturnDatasetFactory.VIEW_INDEXER;
 import static io.fairspace.saturn.vocabulary.Vocabularies.VOCABULARY;
 
 @Log4j2
@@ -51,13 +62,16 @@ public class Services {
     private final BlobStore blobStore;
     private final DavFactory davFactory;
     private final HttpServlet davServlet;
+    private final HttpServlet transactionLogServlet;
     private final DatasetGraph filteredDatasetGraph;
     private final HealthService healthService;
     private final MaintenanceService maintenanceService;
+    private final MetricsService metricsService;
+    private final TransactionHistoryService transactionHistoryService;
 
     public Services(@NonNull Config config, @NonNull ViewsConfig viewsConfig, @NonNull Dataset dataset, ViewStoreClientFactory viewStoreClientFactory) {
         this.config = config;
-        this.transactions = config.jena.bulkTransactions ? new BulkTransactions(dataset) : new SimpleTransactions(dataset);
+        this.transactions = config.jena.bulkTransactions ? new BulkTransactions(dataset, config.jena.bulkTransactionBatches) : new SimpleTransactions(dataset);
 
         userService = new UserService(config.auth, transactions);
         dataset.getContext().set(USER_SERVICE, userService);
@@ -66,6 +80,9 @@ public class Services {
         davFactory = new DavFactory(dataset.getDefaultModel().createResource(CONFIG.publicUrl + "/api/webdav"), blobStore, userService, dataset.getContext());
         dataset.getContext().set(FS_ROOT, davFactory.root);
         davServlet = new WebDAVServlet(davFactory, transactions, blobStore);
+        transactionLogServlet = dataset.asDatasetGraph() instanceof TxnLogDatasetGraph txnLogDsg
+                ? new TransactionLogServlet(txnLogDsg, userService)
+                : null;
 
         metadataPermissions = new MetadataPermissions(userService, VOCABULARY);
         dataset.getContext().set(METADATA_PERMISSIONS, metadataPermissions);
@@ -84,13 +101,32 @@ public class Services {
         filteredDatasetGraph = new FilteredDatasetGraph(dataset.asDatasetGraph(), metadataPermissions);
         var filteredDataset = DatasetImpl.wrap(filteredDatasetGraph);
 
+        var viewIndexer = dataset.getContext().get(VIEW_INDEXER) instanceof AsyncViewIndexer indexer ? indexer : null;
         queryService = viewStoreClientFactory == null
                 ? new SparqlQueryService(config.search, viewsConfig, filteredDataset)
-                : new JdbcQueryService(config.search, viewStoreClientFactory, transactions, davFactory.root);
+                : new JdbcQueryService(config.search, viewStoreClientFactory, transactions, davFactory.root, viewIndexer);
         viewService = new ViewService(config.search, viewsConfig, filteredDataset, viewStoreClientFactory);
 
         searchService = new SearchService(filteredDataset);
 
         healthService = new HealthService(viewStoreClientFactory == null ? null : viewStoreClientFactory.dataSource);
+
+        transactionHistoryService = dataset.getContext().get(TRANSACTION_INDEX) instanceof IndexedTransactionLog indexedTxnLog
+                ? new TransactionHistoryService(userService, indexedTxnLog)
+                : null;
+
+        metricsService = new MetricsService(userService);
+        if (transactions instanceof BulkTransactions bulkTransactions) {
+            metricsService.register("transactions.bulk", bulkTransactions::getStats);
+        }
+        if (dataset.getContext().get(TRANSACTION_LOG) instanceof SegmentedTransactionLog segmentedLog) {
+            metricsService.register("transactionLog.groupCommit", segmentedLog::getGroupCommitStats);
+        }
+        if (dataset.getContext().get(LOG_FOLLOWER) instanceof LogFollower follower) {
+            metricsService.register("replication", follower::getStats);
+        }
+        if (viewIndexer != null) {
+            metricsService.register("views.indexing", viewIndexer::getStats);
+        }
     }
 }
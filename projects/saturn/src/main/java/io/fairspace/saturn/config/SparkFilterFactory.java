@@ -2,19 +2,25 @@ package io.fairspace.saturn.config;
 
 import io.fairspace.saturn.services.features.FeaturesApp;
 import io.fairspace.saturn.services.health.HealthApp;
+import io.fairspace.saturn.services.history.TransactionHistoryApp;
 import io.fairspace.saturn.services.maintenance.MaintenanceApp;
 import io.fairspace.saturn.services.metadata.MetadataApp;
+import io.fairspace.saturn.services.metrics.MetricsApp;
 import io.fairspace.saturn.services.metadata.VocabularyApp;
 import io.fairspace.saturn.services.search.SearchApp;
 import io.fairspace.saturn.services.services.ServicesApp;
 import io.fairspace.saturn.services.users.*;
 import io.fairspace.saturn.services.views.ViewApp;
 
+import spark.servlet.SparkApplication;
+
 import javax.servlet.Filter;
+import java.util.ArrayList;
+import java.util.List;
 
 public class SparkFilterFactory {
     public static Filter createSparkFilter(String apiPathPrefix, Services svc, Config config) {
-        return new SaturnSparkFilter(
+        var apps = new ArrayList<SparkApplication>(List.of(
                 new MetadataApp(apiPathPrefix + "/metadata", svc.getMetadataService()),
                 new ViewApp(apiPathPrefix + "/views", svc.getViewService(), svc.getQueryService()),
                 new SearchApp(apiPathPrefix + "/search", svc.getSearchService(), svc.getQueryService()),
@@ -24,6 +30,11 @@ public class SparkFilterFactory {
                 new FeaturesApp(apiPathPrefix + "/features", config.features),
                 new HealthApp(apiPathPrefix + "/health", svc.getHealthService()),
                 new MaintenanceApp(apiPathPrefix + "/maintenance", svc.getMaintenanceService()),
-                new LogoutApp("/logout", svc.getUserService(), config));
+                new MetricsApp(apiPathPrefix + "/metrics", svc.getMetricsService())));
+        if (svc.getTransactionHistoryService() != null) {
+            apps.add(new TransactionHistoryApp(apiPathPrefix + "/transactions", svc.getTransactionHistoryService()));
+        }
+        apps.add(new LogoutApp("/logout", svc.getUserService(), config));
+        return new SaturnSparkFilter(apps.toArray(SparkApplication[]::new));
     }
 }
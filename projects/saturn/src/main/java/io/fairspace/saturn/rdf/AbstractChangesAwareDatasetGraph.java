@@ -1,10 +1,15 @@
 package io.fairspace.saturn.rdf;
 
 import org.apache.jena.graph.Node;
+import org.apache.jena.query.ReadWrite;
 import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.DatasetGraphMonitor;
+import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.sparql.core.QuadAction;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static java.lang.Integer.toHexString;
 import static java.lang.System.identityHashCode;
 
@@ -14,20 +19,101 @@ import static java.lang.System.identityHashCode;
  * Normally DatasetGraphMonitor reports changes to an external listener.
  * That can be very inconvenient, if you need to implement complex logic involving not only quad operations, but also
  * some other aspect's of the dataset graph;s behavior, e.g. transaction lifecycle.
+ * <p>
+ * Changes made in a write transaction after a savepoint can be undone without aborting the transaction.
+ * The undoing changes are handled as any other changes.
  */
 public abstract class AbstractChangesAwareDatasetGraph extends DatasetGraphMonitor {
 
+    // Changes of the current write transaction made after its first savepoint. Write transactions are sequential.
+    private List<Change> changes;
+
     public AbstractChangesAwareDatasetGraph(DatasetGraph dsg) {
         super(dsg, new DelegatingDatasetChanges(), true);
 
-        ((DelegatingDatasetChanges) getMonitor()).setChangeListener(this::onChange); // delegates handling to itself
+        ((DelegatingDatasetChanges) getMonitor()).setChangeListener(this::handleChange); // delegates handling to itself
+    }
+
+    private void handleChange(QuadAction action, Node graph, Node subject, Node predicate, Node object) {
+        if (changes != null && (action == QuadAction.ADD || action == QuadAction.DELETE)) {
+            changes.add(new Change(action, new Quad(graph, subject, predicate, object)));
+        }
+        onChange(action, graph, subject, predicate, object);
     }
 
     protected void onChange(QuadAction action, Node graph, Node subject, Node predicate, Node object) {
     }
 
+    /**
+     * Marks the current state of a write transaction.
+     * Changes are recorded from the first savepoint until the end of the transaction.
+     *
+     * @return the savepoint to pass to {@link #rollbackTo(int)}
+     */
+    public int savepoint() {
+        if (changes == null) {
+            changes = new ArrayList<>();
+        }
+        return changes.size();
+    }
+
+    /**
+     * Undoes the changes made after the savepoint in the reverse order, keeping the transaction open.
+     */
+    public void rollbackTo(int savepoint) {
+        var recorded = changes;
+        changes = null;
+        try {
+            for (var i = recorded.size() - 1; i >= savepoint; i--) {
+                var change = recorded.remove(i);
+                if (change.action == QuadAction.ADD) {
+                    delete(change.quad);
+                } else {
+                    add(change.quad);
+                }
+            }
+        } finally {
+            changes = recorded;
+        }
+    }
+
+    @Override
+    public void commit() {
+        clearChanges();
+        super.commit();
+    }
+
+    @Override
+    public void abort() {
+        clearChanges();
+        super.abort();
+    }
+
+    @Override
+    public void end() {
+        clearChanges();
+        super.end();
+    }
+
+    // Read transactions of other threads must not clear the writer's changes
+    private void clearChanges() {
+        if (isInTransaction() && transactionMode() == ReadWrite.WRITE) {
+            changes = null;
+        }
+    }
+
     @Override
     public String toString() {
         return getClass().getName() + "@" + toHexString(identityHashCode(this));
     }
+
+    private static class Change {
+        final QuadAction action;
+        final Quad quad;
+
+        Change(QuadAction action, Quad quad) {
+            this.action = action;
+            this.quad = quad;
+        }
+    }
 }
@@ -3,11 +3,14 @@ package io.fairspace.saturn.rdf;
 import io.fairspace.saturn.config.*;
 import io.fairspace.saturn.rdf.transactions.*;
 import io.fairspace.saturn.services.views.*;
+import lombok.*;
 import lombok.extern.log4j.*;
 import org.apache.jena.datatypes.TypeMapper;
 import org.apache.jena.dboe.base.file.Location;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.util.Symbol;
 
 import java.io.File;
 
@@ -17,6 +20,11 @@ import static org.apache.jena.tdb2.sys.DatabaseConnection.connectCreate;
 
 @Log4j2
 public class SaturnDatasetFactory {
+    public static final Symbol TRANSACTION_LOG = Symbol.create("transaction_log");
+    public static final Symbol TRANSACTION_INDEX = Symbol.create("transaction_index");
+    public static final Symbol LOG_FOLLOWER = Symbol.create("log_follower");
+    public static final Symbol VIEW_INDEXER = Symbol.create("view_indexer");
+
     /**
      * Returns a dataset to work with.
      * We're playing Russian dolls here.
@@ -30,25 +38,131 @@ public class SaturnDatasetFactory {
         // Create a TDB2 dataset graph
         var dsg = connectCreate(Location.create(config.datasetPath.getAbsolutePath()), config.storeParams).getDatasetGraph();
 
-        var txnLog = new LocalTransactionLog(config.transactionLogPath, new SparqlTransactionCodec());
+        if (config.follower.enabled) {
+            // A follower has no transaction log of its own to index from
+            if (viewStoreClientFactory != null) {
+                dsg = new TxnIndexDatasetGraph(dsg, viewStoreClientFactory);
+            }
+            return connectFollower(config, dsg);
+        }
+
+        var txnLog = createTransactionLog(config);
 
-        if (viewStoreClientFactory != null) {
-            dsg = new TxnIndexDatasetGraph(dsg, viewStoreClientFactory);
+        var asyncIndexing = viewStoreClientFactory != null && viewStoreClientFactory.viewDatabase.asyncIndexing;
+
+        if (viewStoreClientFactory != null && !asyncIndexing) {
+            dsg = new TxnIndexDatasetGraph(dsg, viewStoreClientFactory, txnLog);
         }
 
         if (restoreNeeded) {
-            restore(dsg, txnLog);
+            // Restored transactions are not indexed asynchronously, as the indexer starts after them
+            restore(asyncIndexing ? new TxnIndexDatasetGraph(dsg, viewStoreClientFactory, txnLog) : dsg, txnLog, config);
         }
 
+        if (viewStoreClientFactory != null && !asyncIndexing) {
+            // Apply transactions which were committed, but didn't reach the view database, e.g. when it was restored from a backup
+            catchUp(dsg, txnLog, viewStoreClientFactory);
+        }
+
+        var indexedTxnLog = config.transactionLogIndex ? createIndex(txnLog, config) : null;
+
         // Add transaction log
-        dsg = new TxnLogDatasetGraph(dsg, txnLog);
+        var txnLogDsg = new TxnLogDatasetGraph(dsg, indexedTxnLog != null ? indexedTxnLog : txnLog);
+        dsg = txnLogDsg;
+
+        dsg.getContext().set(TRANSACTION_LOG, txnLog);
+        if (indexedTxnLog != null) {
+            dsg.getContext().set(TRANSACTION_INDEX, indexedTxnLog);
+        }
+
+        if (asyncIndexing) {
+            var viewIndexer = createViewIndexer(txnLogDsg, viewStoreClientFactory);
+            txnLogDsg.closeOnClose(viewIndexer);
+            dsg.getContext().set(VIEW_INDEXER, viewIndexer);
+        }
+
+        var checkpoints = new Checkpoints(config.checkpoints);
+        checkpoints.schedule(txnLogDsg, txnLogDsg.getTransactionLog());
+        txnLogDsg.closeOnClose(checkpoints);
 
         TypeMapper.getInstance().registerDatatype(MARKDOWN_DATA_TYPE);
 
         return DatasetFactory.wrap(dsg);
     }
 
+    /**
+     * A follower doesn't have a transaction log of its own. It applies the primary's transactions
+     * and rejects all other changes.
+     */
+    @SneakyThrows
+    private static Dataset connectFollower(Config.Jena config, DatasetGraph dsg) {
+        var follower = new LogFollower(dsg, config);
+        follower.start();
+
+        var readOnly = new ReadOnlyDatasetGraph(dsg);
+        readOnly.closeOnClose(follower);
+        readOnly.getContext().set(LOG_FOLLOWER, follower);
+
+        TypeMapper.getInstance().registerDatatype(MARKDOWN_DATA_TYPE);
+
+        return DatasetFactory.wrap(readOnly);
+    }
+
+    @SneakyThrows
+    static TransactionLog createTransactionLog(Config.Jena config) {
+        var codec = createCodec(config);
+        return switch (config.transactionLogStorage) {
+            case FILES -> {
+                var txnLog = new LocalTransactionLog(config.transactionLogPath, codec);
+                txnLog.scheduleCompression(config.transactionLogCompression.recompressIntervalMinutes);
+                yield txnLog;
+            }
+            case SEGMENTS -> {
+                var txnLog = new SegmentedTransactionLog(config.transactionLogPath, codec, config.transactionLogSegments);
+                if (LocalTransactionLog.exists(config.transactionLogPath)
+                        && new LocalTransactionLog(config.transactionLogPath, codec).size() > txnLog.size()) {
+                    txnLog.close();
+                    throw new IllegalStateException("The transaction log in " + config.transactionLogPath
+                            + " has not been fully migrated to segments. Run " + TransactionLogMigration.class.getName());
+                }
+                yield txnLog;
+            }
+        };
+    }
+
+    @SneakyThrows
+    private static IndexedTransactionLog createIndex(TransactionLog txnLog, Config.Jena config) {
+        return new IndexedTransactionLog(txnLog, config.transactionLogPath);
+    }
+
+    @SneakyThrows
+    private static AsyncViewIndexer createViewIndexer(TxnLogDatasetGraph dsg, ViewStoreClientFactory viewStoreClientFactory) {
+        return new AsyncViewIndexer(dsg, viewStoreClientFactory);
+    }
+
+    @SneakyThrows
+    private static void catchUp(DatasetGraph dsg, TransactionLog txnLog, ViewStoreClientFactory viewStoreClientFactory) {
+        ViewIndexCatchUp.catchUp(dsg, txnLog, viewStoreClientFactory);
+    }
+
+    /**
+     * Transactions are written in the configured format and compressed if configured.
+     * Reading detects the format of every transaction, so a log can contain transactions in different formats.
+     */
+    static TransactionCodec createCodec(Config.Jena config) {
+        TransactionCodec writeCodec = switch (config.transactionLogFormat) {
+            case SPARQL -> new SparqlTransactionCodec();
+            case BINARY -> new BinaryTransactionCodec();
+        };
+        if (config.transactionLogCompression.enabled) {
+            writeCodec = new CompressingTransactionCodec(writeCodec);
+        }
+        return new FormatDetectingTransactionCodec(writeCodec);
+    }
+
     protected static boolean isRestoreNeeded(File datasetPath) {
-        return !datasetPath.exists() || datasetPath.list((dir, name) -> name.startsWith("Data-")).length == 0;
+        return !datasetPath.exists()
+                || datasetPath.list((dir, name) -> name.startsWith("Data-")).length == 0
+                || Restore.isRestoreInterrupted(datasetPath);
     }
 }
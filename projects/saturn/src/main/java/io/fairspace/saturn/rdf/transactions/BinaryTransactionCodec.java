@@ -0,0 +1,269 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A compact binary transaction format.
+ * A transaction starts with a magic header followed by a sequence of length-prefixed records:
+ * [record type: 1 byte] [payload length: varint] [payload].
+ * Every distinct node is written only once per transaction (as a NODE record) and referred to by its index afterwards,
+ * so repeating IRIs don't have to be serialized and parsed over and over again.
+ * Unknown record types are skipped, which keeps older readers compatible with future additions.
+ */
+public class BinaryTransactionCodec implements TransactionCodec {
+    static final byte[] MAGIC = {'F', 'S', 'T', 'X'};
+    private static final int VERSION = 1;
+
+    private static final int NODE = 1;
+    private static final int METADATA = 2;
+    private static final int ADD = 3;
+    private static final int DELETE = 4;
+    private static final int COMMITTED = 5;
+    private static final int ABORTED = 6;
+
+    private static final int URI = 1;
+    private static final int BLANK = 2;
+    private static final int LITERAL = 3;
+    private static final int LANG_LITERAL = 4;
+
+    /**
+     * Checks if a transaction starts with the binary format's header.
+     *
+     * @param header the first bytes of a transaction
+     * @return true if the transaction is written in the binary format
+     */
+    static boolean isBinary(byte[] header) {
+        return header.length >= MAGIC.length && Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    @Override
+    public TransactionListener write(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+
+        return new TransactionListener() {
+            private final Map<Node, Integer> dictionary = new HashMap<>();
+            private final RecordBuffer record = new RecordBuffer();
+
+            @Override
+            public void onMetadata(String userId, String userName, long timestamp) throws IOException {
+                writeLong(record, timestamp);
+                writeNullableString(record, userId);
+                writeNullableString(record, userName);
+                record.flushTo(METADATA, out);
+            }
+
+            @Override
+            public void onAdd(Node graph, Node subject, Node predicate, Node object) throws IOException {
+                save(ADD, graph, subject, predicate, object);
+            }
+
+            @Override
+            public void onDelete(Node graph, Node subject, Node predicate, Node object) throws IOException {
+                save(DELETE, graph, subject, predicate, object);
+            }
+
+            private void save(int type, Node graph, Node subject, Node predicate, Node object) throws IOException {
+                var g = id(graph);
+                var s = id(subject);
+                var p = id(predicate);
+                var o = id(object);
+                writeVarInt(record, g);
+                writeVarInt(record, s);
+                writeVarInt(record, p);
+                writeVarInt(record, o);
+                record.flushTo(type, out);
+            }
+
+            private int id(Node node) throws IOException {
+                var id = dictionary.get(node);
+                if (id == null) {
+                    writeNode(record, node);
+                    record.flushTo(NODE, out);
+                    id = dictionary.size();
+                    dictionary.put(node, id);
+                }
+                return id;
+            }
+
+            @Override
+            public void onCommit() throws IOException {
+                record.flushTo(COMMITTED, out);
+                out.flush();
+            }
+
+            @Override
+            public void onAbort() throws IOException {
+                record.flushTo(ABORTED, out);
+                out.flush();
+            }
+        };
+    }
+
+    @Override
+    public void read(InputStream input, TransactionListener listener) throws IOException {
+        var in = new DataInputStream(input);
+        var header = new byte[MAGIC.length];
+        in.readFully(header);
+        if (!isBinary(header)) {
+            throw new IOException("Not a binary transaction");
+        }
+        var version = in.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary transaction format version: " + version);
+        }
+
+        listener.onBegin();
+
+        var nodes = new ArrayList<Node>();
+        int type;
+        while ((type = in.read()) >= 0) {
+            var length = readVarInt(in);
+            switch (type) {
+                case NODE -> nodes.add(readNode(in));
+                case METADATA -> {
+                    var timestamp = in.readLong();
+                    var userId = readNullableString(in);
+                    var userName = readNullableString(in);
+                    listener.onMetadata(userId, userName, timestamp);
+                }
+                case ADD -> listener.onAdd(node(in, nodes), node(in, nodes), node(in, nodes), node(in, nodes));
+                case DELETE -> listener.onDelete(node(in, nodes), node(in, nodes), node(in, nodes), node(in, nodes));
+                case COMMITTED -> listener.onCommit();
+                case ABORTED -> listener.onAbort();
+                default -> in.skipNBytes(length);
+            }
+        }
+    }
+
+    private static Node node(DataInputStream in, List<Node> nodes) throws IOException {
+        var id = readVarInt(in);
+        if (id >= nodes.size()) {
+            throw new IOException("Reference to an undefined node: " + id);
+        }
+        return nodes.get(id);
+    }
+
+    private static void writeNode(OutputStream out, Node node) throws IOException {
+        if (node.isURI()) {
+            out.write(URI);
+            writeString(out, node.getURI());
+        } else if (node.isBlank()) {
+            out.write(BLANK);
+            writeString(out, node.getBlankNodeLabel());
+        } else if (node.isLiteral()) {
+            var lang = node.getLiteralLanguage();
+            if (lang != null && !lang.isEmpty()) {
+                out.write(LANG_LITERAL);
+                writeString(out, node.getLiteralLexicalForm());
+                writeString(out, lang);
+            } else {
+                out.write(LITERAL);
+                writeString(out, node.getLiteralLexicalForm());
+                writeString(out, node.getLiteralDatatypeURI());
+            }
+        } else {
+            throw new IOException("Unsupported node: " + node);
+        }
+    }
+
+    private static Node readNode(DataInputStream in) throws IOException {
+        var kind = in.read();
+        return switch (kind) {
+            case URI -> NodeFactory.createURI(readString(in));
+            case BLANK -> NodeFactory.createBlankNode(readString(in));
+            case LANG_LITERAL -> NodeFactory.createLiteral(readString(in), readString(in));
+            case LITERAL -> {
+                var lexicalForm = readString(in);
+                var datatype = TypeMapper.getInstance().getSafeTypeByName(readString(in));
+                yield NodeFactory.createLiteral(lexicalForm, datatype);
+            }
+            default -> throw new IOException("Unknown node kind: " + kind);
+        };
+    }
+
+    static void writeVarInt(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static int readVarInt(InputStream in) throws IOException {
+        var value = readVarLong(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Value is too large: " + value);
+        }
+        return (int) value;
+    }
+
+    static long readVarLong(InputStream in) throws IOException {
+        var value = 0L;
+        for (var shift = 0; shift < 64; shift += 7) {
+            var b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        for (var shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        var bytes = value.getBytes(UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        var bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeNullableString(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.write(0);
+        } else {
+            out.write(1);
+            writeString(out, value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.read() == 0 ? null : readString(in);
+    }
+
+    /**
+     * A reusable buffer for a single record's payload
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        void flushTo(int type, OutputStream out) throws IOException {
+            out.write(type);
+            writeVarInt(out, count);
+            out.write(buf, 0, count);
+            reset();
+        }
+    }
+}
@@ -1,50 +1,101 @@
 package io.fairspace.saturn.rdf.transactions;
 
 import com.pivovarit.function.ThrowingFunction;
+import io.fairspace.saturn.config.*;
+import io.fairspace.saturn.rdf.*;
+import lombok.Value;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.ReadWrite;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.sparql.JenaTransactionException;
-import org.apache.jena.system.Txn;
 import org.eclipse.jetty.server.Request;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
 import static io.fairspace.saturn.auth.RequestContext.setCurrentRequest;
+import static java.lang.System.nanoTime;
 import static java.lang.Thread.currentThread;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
+/**
+ * Executes write tasks in a single worker thread, committing as many queued tasks as possible in one transaction.
+ * A batch is limited by {@link Config.Jena.BulkTransactionBatches}: no more tasks are started in a transaction
+ * once it contains maxSize tasks or has been running for maxDurationMillis. The remaining tasks go to the next batch.
+ * <p>
+ * If a task fails after other tasks succeeded, its changes are undone using a savepoint
+ * (see {@link AbstractChangesAwareDatasetGraph#savepoint()}) and the batch continues.
+ * Failed tasks report their errors after the batch is committed.
+ * Datasets not supporting savepoints abort the transaction instead,
+ * the tasks executed before the failed one are executed and committed again
+ * and the failed task reports its error. If the commit itself fails, the failing task is unknown,
+ * so the first half of the batch is executed and committed separately, and so on, until a single task is left.
+ * In both cases the tasks that were not committed go back to the front of the queue.
+ * <p>
+ * Tasks are queued in lanes by their {@link WritePriority}. Batches are formed in rounds: every round takes up to
+ * the lane's weight of tasks from every lane, starting with interactive tasks.
+ * So interactive tasks don't wait behind a queue of bulk uploads, while bulk and maintenance tasks can't be starved.
+ */
 public class BulkTransactions extends BaseTransactions {
-    private final LinkedBlockingQueue<Task<?, ?>> queue = new LinkedBlockingQueue<>();
+    private static final long[] BUCKETS = {1, 10, 100, 1000};
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
     private static final AtomicInteger threadCounter = new AtomicInteger();
-    private final Thread worker = new Thread(() -> {
-        while (true) {
-            var tasks = new ArrayList<Task<?, ?>>();
-            try {
-                tasks.add(queue.take());
-            } catch (InterruptedException e) {
-                return;
-            }
-            queue.drainTo(tasks);
 
-            while (!tryExecute(tasks)) ;
+    private final Lock lock = new ReentrantLock();
+    private final Condition submitted = lock.newCondition();
+    private final Map<WritePriority, ArrayDeque<Task<?, ?>>> lanes = new EnumMap<>(WritePriority.class);
+    private final Map<WritePriority, Integer> weights = new EnumMap<>(WritePriority.class);
+    private final Config.Jena.BulkTransactionBatches batches;
+    private final Thread worker = new Thread(this::run, "Batch transaction processor " + threadCounter.incrementAndGet());
 
-            tasks.forEach(Task::completed);  // mark all tasks as committed
-        }
-    }, "Batch transaction processor " + threadCounter.incrementAndGet());
+    private volatile int pendingTasks;
+    private long batchCount;
+    private long maxBatchSize;
+    private final long[] histogram = new long[BUCKETS.length + 1];
+    private long retries;
+    private long bisections;
+    private long failedTasks;
+    private long startedTasks;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private final Map<WritePriority, LaneLatency> latencies = new EnumMap<>(WritePriority.class);
 
     public BulkTransactions(Dataset ds) {
+        this(ds, new Config.Jena.BulkTransactionBatches());
+    }
+
+    public BulkTransactions(Dataset ds, Config.Jena.BulkTransactionBatches batches) {
         super(ds);
+        this.batches = batches;
+        for (var priority : WritePriority.values()) {
+            lanes.put(priority, new ArrayDeque<>());
+            latencies.put(priority, new LaneLatency());
+        }
+        weights.put(WritePriority.INTERACTIVE, Math.max(1, batches.interactiveWeight));
+        weights.put(WritePriority.BULK, Math.max(1, batches.bulkWeight));
+        weights.put(WritePriority.MAINTENANCE, Math.max(1, batches.maintenanceWeight));
 
         worker.start();
     }
 
     @Override
     public <R, E extends Exception> R calculateWrite(ThrowingFunction<? super Model, R, E> job) throws E {
+        return calculateWrite(WritePriority.INTERACTIVE, job);
+    }
+
+    @Override
+    public <R, E extends Exception> R calculateWrite(WritePriority priority, ThrowingFunction<? super Model, R, E> job) throws E {
         try {
             if (ds.isInTransaction()) {
                 if (ds.transactionMode() == ReadWrite.WRITE) {
@@ -53,34 +104,243 @@ public class BulkTransactions extends BaseTransactions {
                 throw new JenaTransactionException("Can't promote to a write transaction");
             }
 
-            var task = new Task<>(getCurrentRequest(), job);
+            var task = new Task<>(priority, getCurrentRequest(), job);
 
-            queue.offer(task);
+            submit(task);
             return task.get();
         } catch (Throwable t) {
             return sneakyThrow(t);
         }
     }
 
-    private boolean tryExecute(List<Task<?, ?>> tasks) {
-        if (tasks.isEmpty()) {
-            return true;
+    private void submit(Task<?, ?> task) {
+        lock.lock();
+        try {
+            lanes.get(task.priority).add(task);
+            submitted.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        var pending = new ArrayDeque<Task<?, ?>>();
+        var maxSize = Math.max(1, batches.maxSize);
+        while (true) {
+            var batch = new ArrayList<Task<?, ?>>();
+            while (!pending.isEmpty() && batch.size() < maxSize) {
+                batch.add(pending.poll());
+            }
+            try {
+                fill(batch, maxSize);
+            } catch (InterruptedException e) {
+                return;
+            }
+            pendingTasks = pending.size() + batch.size();
+
+            var deadline = batches.maxDurationMillis > 0 ? nanoTime() + MILLISECONDS.toNanos(batches.maxDurationMillis) : NO_DEADLINE;
+            var processed = process(batch, deadline);
+
+            // Tasks that were not committed yet keep their place in the queue
+            for (var i = batch.size() - 1; i >= processed; i--) {
+                pending.addFirst(batch.get(i));
+            }
+            pendingTasks = pending.size();
+        }
+    }
+
+    /**
+     * Adds queued tasks to the batch, waiting for a task if the batch is empty.
+     * Lanes are visited in the order of their priority and every visit takes up to the lane's weight of tasks,
+     * so interactive tasks come first, but other lanes still get their share of every batch.
+     */
+    private void fill(List<Task<?, ?>> batch, int maxSize) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (batch.isEmpty() && queuedTasks() == 0) {
+                submitted.await();
+            }
+            var added = true;
+            while (added && batch.size() < maxSize) {
+                added = false;
+                for (var priority : WritePriority.values()) {
+                    var lane = lanes.get(priority);
+                    for (var i = 0; i < weights.get(priority) && !lane.isEmpty() && batch.size() < maxSize; i++) {
+                        batch.add(lane.poll());
+                        added = true;
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int queuedTasks() {
+        return lanes.values().stream().mapToInt(ArrayDeque::size).sum();
+    }
+
+    /**
+     * Commits a prefix of the tasks, marking failed tasks as completed.
+     *
+     * @return the number of processed tasks, the remaining tasks need to be executed again
+     */
+    private int process(List<Task<?, ?>> tasks, long deadline) {
+        var attempt = attempt(tasks, deadline);
+
+        if (attempt.failedTask >= 0) {
+            if (attempt.failedTask > 0) {
+                var processed = process(tasks.subList(0, attempt.failedTask), NO_DEADLINE);
+                if (processed < attempt.failedTask) {
+                    return processed;
+                }
+            }
+            var failed = tasks.get(attempt.failedTask);
+            if (failed.error != null) {
+                recordFailure();
+            }
+            complete(failed);
+            return attempt.failedTask + 1;
         }
 
-        return Txn.calculateWrite(ds, () -> {
-            for (var it = tasks.iterator(); it.hasNext(); ) {
-                var task = it.next();
+        if (attempt.commitError != null) {
+            if (attempt.executed == 1) {
+                tasks.get(0).fail(attempt.commitError);
+                complete(tasks.get(0));
+                recordFailure();
+                return 1;
+            }
+            recordBisection();
+            return process(tasks.subList(0, attempt.executed / 2), NO_DEADLINE);
+        }
+
+        recordBatch(attempt.executed);
+        for (var task : tasks.subList(0, attempt.executed)) {
+            if (task.error != null) {
+                recordFailure();
+            }
+            complete(task);  // committed or rolled back to its savepoint
+        }
+        return attempt.executed;
+    }
+
+    /**
+     * Executes the tasks in a single transaction, until the deadline passes
+     * or one of them fails and it can't be rolled back to a savepoint.
+     */
+    private Attempt attempt(List<Task<?, ?>> tasks, long deadline) {
+        var savepoints = ds.asDatasetGraph() instanceof AbstractChangesAwareDatasetGraph dsg ? dsg : null;
+        var executed = 0;
+        var succeeded = 0;
+        ds.begin(ReadWrite.WRITE);
+        try {
+            for (var task : tasks) {
+                if (executed > 0 && nanoTime() > deadline) {
+                    break;
+                }
+                recordStart(task);
+                executed++;
+                var savepoint = savepoints != null ? savepoints.savepoint() : 0;
                 if (!task.perform(ds.getDefaultModel())) {
-                    ds.abort();
+                    // Undoing the changes only pays off if there are changes to keep
+                    if (savepoints != null && succeeded > 0 && ds.isInTransaction()) {
+                        // The undone changes are logged on behalf of the task's user
+                        setCurrentRequest(task.request);
+                        try {
+                            savepoints.rollbackTo(savepoint);
+                        } finally {
+                            setCurrentRequest(null);
+                        }
+                        continue;
+                    }
+                    if (ds.isInTransaction()) {
+                        ds.abort();
+                    }
+                    return new Attempt(executed, executed - 1, null);
                 }
                 if (!ds.isInTransaction()) {
-                    it.remove();
-                    task.completed(); // task failed, no need to wait for other tasks
-                    return false;
+                    // The task has ended the transaction itself
+                    return new Attempt(executed, executed - 1, null);
                 }
+                succeeded++;
             }
-            return true;
-        });
+            ds.commit();
+            return new Attempt(executed, -1, null);
+        } catch (Throwable e) {
+            return new Attempt(executed, -1, e);
+        } finally {
+            if (ds.isInTransaction()) {
+                ds.abort();
+            }
+            ds.end();
+        }
+    }
+
+    private synchronized void recordStart(Task<?, ?> task) {
+        if (task.attempts++ > 0) {
+            retries++;
+        } else {
+            var wait = nanoTime() - task.created;
+            startedTasks++;
+            totalWaitNanos += wait;
+            maxWaitNanos = Math.max(maxWaitNanos, wait);
+        }
+    }
+
+    private void complete(Task<?, ?> task) {
+        recordLatency(task);
+        task.completed();
+    }
+
+    private synchronized void recordLatency(Task<?, ?> task) {
+        var latency = latencies.get(task.priority);
+        var nanos = nanoTime() - task.created;
+        latency.completed++;
+        latency.totalNanos += nanos;
+        latency.maxNanos = Math.max(latency.maxNanos, nanos);
+    }
+
+    private synchronized void recordBatch(int size) {
+        batchCount++;
+        maxBatchSize = Math.max(maxBatchSize, size);
+        var bucket = 0;
+        while (bucket < BUCKETS.length && size > BUCKETS[bucket]) {
+            bucket++;
+        }
+        histogram[bucket]++;
+    }
+
+    private synchronized void recordFailure() {
+        failedTasks++;
+    }
+
+    private synchronized void recordBisection() {
+        bisections++;
+    }
+
+    public synchronized Stats getStats() {
+        var batchSizes = new LinkedHashMap<String, Long>();
+        for (var i = 0; i < BUCKETS.length; i++) {
+            batchSizes.put("<=" + BUCKETS[i], histogram[i]);
+        }
+        batchSizes.put(">" + BUCKETS[BUCKETS.length - 1], histogram[BUCKETS.length]);
+        var laneStats = new LinkedHashMap<String, LaneStats>();
+        var queued = 0;
+        lock.lock();
+        try {
+            for (var priority : WritePriority.values()) {
+                var latency = latencies.get(priority);
+                laneStats.put(priority.name().toLowerCase(), new LaneStats(lanes.get(priority).size(), latency.completed,
+                        latency.completed == 0 ? 0 : NANOSECONDS.toMillis(latency.totalNanos / latency.completed),
+                        NANOSECONDS.toMillis(latency.maxNanos)));
+            }
+            queued = queuedTasks();
+        } finally {
+            lock.unlock();
+        }
+        return new Stats(queued + pendingTasks, batchCount, maxBatchSize, batchSizes, retries, bisections, failedTasks,
+                startedTasks == 0 ? 0 : NANOSECONDS.toMillis(totalWaitNanos / startedTasks), NANOSECONDS.toMillis(maxWaitNanos),
+                laneStats);
     }
 
     private static <T extends Throwable, R> R sneakyThrow(Throwable t) throws T {
@@ -97,14 +357,74 @@ public class BulkTransactions extends BaseTransactions {
         super.close();
     }
 
+    @Value
+    public static class Stats {
+        /**
+         * Tasks waiting for the worker or being executed
+         */
+        long queueDepth;
+        /**
+         * Committed batches
+         */
+        long batches;
+        long maxBatchSize;
+        Map<String, Long> batchSizes;
+        /**
+         * Executions of tasks that have been executed before, in an aborted transaction
+         */
+        long retries;
+        /**
+         * Batches split in halves after a failed commit
+         */
+        long bisections;
+        long failedTasks;
+        /**
+         * Time between submitting a task and its first execution
+         */
+        long averageWaitMillis;
+        long maxWaitMillis;
+        Map<String, LaneStats> lanes;
+    }
+
+    @Value
+    public static class LaneStats {
+        /**
+         * Tasks waiting to be added to a batch
+         */
+        long queued;
+        long completedTasks;
+        /**
+         * Time between submitting a task and its completion
+         */
+        long averageLatencyMillis;
+        long maxLatencyMillis;
+    }
+
+    private static class LaneLatency {
+        long completed;
+        long totalNanos;
+        long maxNanos;
+    }
+
+    @Value
+    private static class Attempt {
+        int executed;
+        int failedTask;
+        Throwable commitError;
+    }
+
     private static class Task<R, E extends Exception> {
         private final CountDownLatch canBeRead = new CountDownLatch(1);
+        private final long created = nanoTime();
+        private final WritePriority priority;
         private final Request request;
         private final ThrowingFunction<? super Model, R, E> job;
+        private int attempts;
         private R result;
         private Throwable error;
 
-        Task(Request request, ThrowingFunction<? super Model, R, E> job) {
+        Task(WritePriority priority, Request request, ThrowingFunction<? super Model, R, E> job) {
+            this.priority = priority;
             this.request = request;
             this.job = job;
         }
@@ -125,6 +445,11 @@ public class BulkTransactions extends BaseTransactions {
             }
         }
 
+        void fail(Throwable e) {
+            result = null;
+            error = e;
+        }
+
         // Either committed or failed
         void completed() {
             canBeRead.countDown();
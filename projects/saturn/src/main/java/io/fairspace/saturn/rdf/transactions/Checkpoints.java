@@ -0,0 +1,175 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import io.fairspace.saturn.config.*;
+import lombok.extern.log4j.*;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.system.Txn;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static io.fairspace.saturn.rdf.transactions.FileSync.syncDirectory;
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.apache.jena.riot.Lang.RDFTHRIFT;
+
+/**
+ * Periodically stores a consistent snapshot of the dataset, tagged with the number of transactions it covers:
+ * checkpoint-00000000000000001234.rt.gz  a gzipped RDF Thrift dump containing transactions 1 .. 1234
+ * Restoring the dataset loads the latest checkpoint and replays only the transactions after it.
+ * <p>
+ * Only the configured number of the latest checkpoints is retained.
+ * If an archive directory is configured, parts of the transaction log that are fully covered
+ * by the oldest retained checkpoint are moved there.
+ */
+@Log4j2
+public class Checkpoints implements Closeable {
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".rt.gz";
+
+    private final Config.Jena.Checkpoints config;
+    private final File directory;
+    private ScheduledExecutorService scheduler;
+
+    public Checkpoints(Config.Jena.Checkpoints config) {
+        this.config = config;
+        this.directory = config.path;
+    }
+
+    /**
+     * Creates checkpoints every {@link Config.Jena.Checkpoints#intervalMinutes}, if that's positive.
+     */
+    public synchronized void schedule(TxnLogDatasetGraph dsg, TransactionLog txnLog) {
+        if (config.intervalMinutes <= 0 || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "Transaction log checkpoints");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                create(dsg, txnLog);
+            } catch (Exception e) {
+                log.error("Error creating a checkpoint", e);
+            }
+        }, config.intervalMinutes, config.intervalMinutes, MINUTES);
+    }
+
+    /**
+     * Creates a checkpoint unless there were no transactions since the latest one.
+     * The snapshot is tagged with exactly the number of transactions it contains.
+     */
+    public void create(TxnLogDatasetGraph dsg, TransactionLog txnLog) throws IOException {
+        File file;
+        var transactions = dsg.beginRead();
+        try {
+            if (transactions <= latest()) {
+                return;
+            }
+
+            log.info("Creating a checkpoint of {} transactions", transactions);
+            directory.mkdirs();
+            file = file(transactions);
+            var tmp = new File(directory, file.getName() + ".tmp");
+            try (var fileOut = new FileOutputStream(tmp);
+                 var out = new GZIPOutputStream(new BufferedOutputStream(fileOut))) {
+                RDFDataMgr.write(out, dsg, RDFTHRIFT);
+                out.finish();
+                out.flush();
+                fileOut.getChannel().force(true);
+            }
+            move(tmp.toPath(), file.toPath(), ATOMIC_MOVE);
+            // The checkpoint must be durable before the transactions it covers can be archived
+            syncDirectory(directory);
+        } finally {
+            dsg.end();
+        }
+        log.info("Checkpoint {} is created", file);
+
+        applyRetention(txnLog);
+    }
+
+    /**
+     * @return the number of transactions covered by the latest checkpoint, or 0 if there are no checkpoints
+     */
+    public long latest() {
+        var all = list();
+        return all.length == 0 ? 0 : all[all.length - 1];
+    }
+
+    /**
+     * Loads the latest checkpoint into an empty dataset.
+     *
+     * @return the number of transactions covered by the loaded checkpoint, or 0 if there are no checkpoints
+     */
+    public long restore(DatasetGraph dsg) throws IOException {
+        return restore(dsg, Long.MAX_VALUE);
+    }
+
+    /**
+     * Loads the latest checkpoint covering at most the given number of transactions into an empty dataset.
+     *
+     * @return the number of transactions covered by the loaded checkpoint, or 0 if there are no such checkpoints
+     */
+    public long restore(DatasetGraph dsg, long maxTransactions) throws IOException {
+        var transactions = Arrays.stream(list()).filter(t -> t <= maxTransactions).max().orElse(0);
+        if (transactions == 0) {
+            return 0;
+        }
+        var file = file(transactions);
+        log.info("Loading checkpoint {}", file);
+        try (var in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            // Blank nodes keep their labels, so later transactions still refer to them
+            Txn.executeWrite(dsg, () -> RDFParser.source(in)
+                    .lang(RDFTHRIFT)
+                    .labelToNode(LabelToNode.createUseLabelAsGiven())
+                    .parse(dsg));
+        }
+        return transactions;
+    }
+
+    private void applyRetention(TransactionLog txnLog) throws IOException {
+        var all = list();
+        var retain = Math.max(1, config.retain);
+        for (var i = 0; i < all.length - retain; i++) {
+            log.info("Deleting checkpoint {}", file(all[i]));
+            file(all[i]).delete();
+        }
+        if (config.archivePath != null) {
+            txnLog.archive(all[Math.max(0, all.length - retain)], config.archivePath);
+        }
+    }
+
+    private long[] list() {
+        var names = directory.list((dir, name) -> name.startsWith(CHECKPOINT_PREFIX) && name.endsWith(CHECKPOINT_SUFFIX));
+        if (names == null) {
+            return new long[0];
+        }
+        return Arrays.stream(names)
+                .mapToLong(name -> Long.parseLong(name.substring(CHECKPOINT_PREFIX.length(), name.length() - CHECKPOINT_SUFFIX.length())))
+                .sorted()
+                .toArray();
+    }
+
+    private File file(long transactions) {
+        return new File(directory, CHECKPOINT_PREFIX + String.format("%020d", transactions) + CHECKPOINT_SUFFIX);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import org.apache.jena.graph.Node;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses every transaction written by another codec with GZIP (deflate).
+ * The log's records are very repetitive, as the same IRIs occur in almost every change.
+ * {@link FormatDetectingTransactionCodec} recognizes compressed transactions on read.
+ */
+public class CompressingTransactionCodec implements TransactionCodec {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final TransactionCodec codec;
+
+    public CompressingTransactionCodec(TransactionCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public TransactionListener write(OutputStream out) throws IOException {
+        var compressed = new GZIPOutputStream(new NonClosingOutputStream(out), BUFFER_SIZE);
+        var listener = codec.write(compressed);
+        return new TransactionListener() {
+            @Override
+            public void onBegin() throws IOException {
+                listener.onBegin();
+            }
+
+            @Override
+            public void onMetadata(String userId, String userName, long timestamp) throws IOException {
+                listener.onMetadata(userId, userName, timestamp);
+            }
+
+            @Override
+            public void onAdd(Node graph, Node subject, Node predicate, Node object) throws IOException {
+                listener.onAdd(graph, subject, predicate, object);
+            }
+
+            @Override
+            public void onDelete(Node graph, Node subject, Node predicate, Node object) throws IOException {
+                listener.onDelete(graph, subject, predicate, object);
+            }
+
+            @Override
+            public void onCommit() throws IOException {
+                listener.onCommit();
+                compressed.finish();
+                out.flush();
+            }
+
+            @Override
+            public void onAbort() throws IOException {
+                listener.onAbort();
+                compressed.finish();
+                out.flush();
+            }
+        };
+    }
+
+    @Override
+    public void read(InputStream in, TransactionListener listener) throws IOException {
+        codec.read(new GZIPInputStream(in, BUFFER_SIZE), listener);
+    }
+
+    /**
+     * @return true if the header starts with the GZIP magic number
+     */
+    static boolean isCompressed(byte[] header) {
+        return header.length >= 2
+                && (header[0] & 0xFF) == (GZIPInputStream.GZIP_MAGIC & 0xFF)
+                && (header[1] & 0xFF) == (GZIPInputStream.GZIP_MAGIC >> 8);
+    }
+
+    /**
+     * Lets a record's stream stay open after the compressed stream is finished
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A transaction read from the log and kept in memory until it's applied to a dataset.
+ */
+class DecodedTransaction implements TransactionListener {
+    private final List<Quad> quads = new ArrayList<>();
+    private final BitSet deleted = new BitSet();
+    private long timestamp;
+
+    @Override
+    public void onMetadata(String userId, String userName, long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public void onAdd(Node graph, Node subject, Node predicate, Node object) {
+        quads.add(new Quad(graph, subject, predicate, object));
+    }
+
+    @Override
+    public void onDelete(Node graph, Node subject, Node predicate, Node object) {
+        deleted.set(quads.size());
+        quads.add(new Quad(graph, subject, predicate, object));
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Must be called within a write transaction
+     */
+    void applyTo(DatasetGraph dsg) {
+        for (var i = 0; i < quads.size(); i++) {
+            if (deleted.get(i)) {
+                dsg.delete(quads.get(i));
+            } else {
+                dsg.add(quads.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Helpers making files and renames durable on the storage device
+ */
+final class FileSync {
+    private FileSync() {
+    }
+
+    /**
+     * Writes a file and syncs it to the storage device
+     */
+    static void writeDurably(File file, byte[] data) throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), CREATE, WRITE, TRUNCATE_EXISTING)) {
+            var buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Syncs a directory, making the creation, renaming and deletion of its files durable
+     */
+    static void syncDirectory(File directory) throws IOException {
+        try (var channel = FileChannel.open(directory.toPath(), READ)) {
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Writes transactions with the provided codec, but reads transactions in any of the supported formats.
+ * That allows to switch the format of an existing transaction log: old transactions remain readable.
+ * Compressed transactions (see {@link CompressingTransactionCodec}) are decompressed transparently.
+ */
+public class FormatDetectingTransactionCodec implements TransactionCodec {
+    private final TransactionCodec writeCodec;
+    private final SparqlTransactionCodec sparqlCodec = new SparqlTransactionCodec();
+    private final BinaryTransactionCodec binaryCodec = new BinaryTransactionCodec();
+
+    public FormatDetectingTransactionCodec(TransactionCodec writeCodec) {
+        this.writeCodec = writeCodec;
+    }
+
+    @Override
+    public TransactionListener write(OutputStream out) throws IOException {
+        return writeCodec.write(out);
+    }
+
+    @Override
+    public void read(InputStream in, TransactionListener listener) throws IOException {
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in);
+        }
+        in.mark(BinaryTransactionCodec.MAGIC.length);
+        var header = in.readNBytes(BinaryTransactionCodec.MAGIC.length);
+        in.reset();
+
+        if (CompressingTransactionCodec.isCompressed(header)) {
+            read(new GZIPInputStream(in), listener);
+        } else if (BinaryTransactionCodec.isBinary(header)) {
+            binaryCodec.read(in, listener);
+        } else {
+            sparqlCodec.read(in, listener);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import com.pivovarit.function.ThrowingRunnable;
+import lombok.Value;
+import lombok.extern.log4j.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Lets concurrent commits share a single sync of the transaction log to the storage device.
+ * A committing thread registers its commit after writing it and then waits until a sync covers it.
+ * A background thread syncs all registered commits at once. Commits registered while a sync is running
+ * are covered by the next one. Before syncing, it waits at most the configured window for a record
+ * which is being written to be committed, but it doesn't wait if no record is being written.
+ */
+@Log4j2
+public class GroupCommit implements AutoCloseable {
+    private static final int[] BUCKETS = {1, 2, 4, 8, 16, 32, 64};
+
+    private final ThrowingRunnable<IOException> sync;
+    private final long windowNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition commitsWritten = lock.newCondition();
+    private final Condition commitsSynced = lock.newCondition();
+    private final Thread thread;
+    private long writing;
+    private long writtenCount;
+    private long syncedCount;
+    private IOException failure;
+    private boolean closed;
+
+    private long syncs;
+    private long maxCommitsPerSync;
+    private final long[] histogram = new long[BUCKETS.length + 1];
+
+    GroupCommit(ThrowingRunnable<IOException> sync, long windowMillis) {
+        this.sync = sync;
+        this.windowNanos = MILLISECONDS.toNanos(windowMillis);
+        this.thread = new Thread(this::run, "Transaction log group commit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Registers a record which is being written.
+     */
+    void begun() {
+        lock.lock();
+        try {
+            writing++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a written commit.
+     *
+     * @return the commit's sequence number to wait for
+     */
+    long committed() {
+        lock.lock();
+        try {
+            if (writing > 0) {
+                writing--;
+            }
+            commitsWritten.signal();
+            return ++writtenCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers an aborted record.
+     */
+    void aborted() {
+        lock.lock();
+        try {
+            if (writing > 0) {
+                writing--;
+            }
+            commitsWritten.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a commit is synced.
+     */
+    void await(long commit) throws IOException {
+        lock.lock();
+        try {
+            while (syncedCount < commit && failure == null) {
+                commitsSynced.await();
+            }
+            if (failure != null) {
+                throw new IOException("Error syncing the transaction log", failure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the transaction log to be synced");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            long target;
+            lock.lock();
+            try {
+                while (syncedCount == writtenCount && !closed) {
+                    commitsWritten.await();
+                }
+                if (syncedCount == writtenCount) {
+                    return;
+                }
+                // Give records which are being written a chance to join this sync.
+                // A single writer waiting for its own commit is synced immediately.
+                var remaining = windowNanos;
+                while (remaining > 0 && writing > 0 && !closed) {
+                    remaining = commitsWritten.awaitNanos(remaining);
+                }
+                target = writtenCount;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                sync.run();
+            } catch (IOException e) {
+                log.error("Error syncing the transaction log", e);
+                error = e;
+            }
+
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    record(target - syncedCount);
+                    syncedCount = target;
+                }
+                commitsSynced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (error != null) {
+                return;
+            }
+        }
+    }
+
+    private void record(long commits) {
+        syncs++;
+        maxCommitsPerSync = Math.max(maxCommitsPerSync, commits);
+        var bucket = 0;
+        while (bucket < BUCKETS.length && commits > BUCKETS[bucket]) {
+            bucket++;
+        }
+        histogram[bucket]++;
+    }
+
+    Stats getStats() {
+        lock.lock();
+        try {
+            var commitsPerSync = new LinkedHashMap<String, Long>();
+            for (var i = 0; i < BUCKETS.length; i++) {
+                commitsPerSync.put("<=" + BUCKETS[i], histogram[i]);
+            }
+            commitsPerSync.put(">" + BUCKETS[BUCKETS.length - 1], histogram[BUCKETS.length]);
+            return new Stats(syncs, syncedCount, writtenCount - syncedCount, maxCommitsPerSync,
+                    syncs == 0 ? 0 : (double) syncedCount / syncs, commitsPerSync);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Syncs pending commits and stops the background thread.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            commitsWritten.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Value
+    public static class Stats {
+        long syncs;
+        long syncedCommits;
+        long pendingCommits;
+        long maxCommitsPerSync;
+        double averageCommitsPerSync;
+        Map<String, Long> commitsPerSync;
+    }
+}
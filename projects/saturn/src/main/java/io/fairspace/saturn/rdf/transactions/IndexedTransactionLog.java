@@ -0,0 +1,405 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import lombok.extern.log4j.*;
+import org.apache.jena.graph.Node;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Maintains a compact index of another transaction log, so transactions can be found by time or user
+ * without decoding unrelated records:
+ * index/entries  an entry of 24 bytes per transaction: timestamp, user number, number of added and deleted quads
+ *                and a flag telling that the entry is filled
+ * index/users    user IDs and names referred to by the entries
+ * index/others   a record of 12 bytes for every other user who made changes in a transaction:
+ *                the transaction's number and the user number. A batch of write tasks can contain changes of several users,
+ *                the entry refers only to the first one
+ * Entries are written on commit. Entries of transactions committed before the index existed
+ * (or lost in a crash) are filled in by a background thread on startup.
+ */
+@Log4j2
+public class IndexedTransactionLog implements TransactionLog {
+    private static final String INDEX_DIRECTORY = "index";
+    private static final int ENTRY_SIZE = 24;
+    private static final int OTHER_USER_SIZE = 12;
+    private static final int FILLED = 1;
+    private static final int NO_USER = -1;
+    private static final int RECHECKED_ENTRIES = 10_000;
+
+    private final TransactionLog txnLog;
+    private final FileChannel entries;
+    private final FileChannel otherUsers;
+    private final DataOutputStream usersOut;
+    private final List<String[]> users = new ArrayList<>();
+    private final Map<List<String>, Integer> userNumbers = new HashMap<>();
+    private final Thread backfill;
+    private volatile boolean closed;
+    private TransactionInfo current;
+    private Set<List<String>> currentOtherUsers;
+
+    public IndexedTransactionLog(TransactionLog txnLog, File logDirectory) throws IOException {
+        this.txnLog = txnLog;
+        var directory = new File(logDirectory, INDEX_DIRECTORY);
+        directory.mkdirs();
+
+        var usersFile = new File(directory, "users");
+        if (usersFile.exists()) {
+            try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(usersFile)))) {
+                while (in.available() > 0) {
+                    addUser(in.readUTF(), in.readUTF());
+                }
+            } catch (EOFException e) {
+                log.warn("The last user in the transaction log index is incomplete");
+            }
+        }
+        usersOut = new DataOutputStream(new FileOutputStream(usersFile, true));
+
+        entries = FileChannel.open(new File(directory, "entries").toPath(), CREATE, READ, WRITE);
+        var size = txnLog.size();
+        if (entries.size() > size * ENTRY_SIZE) {
+            entries.truncate(size * ENTRY_SIZE);
+        }
+        otherUsers = FileChannel.open(new File(directory, "others").toPath(), CREATE, READ, WRITE);
+        // Drop an incomplete record
+        otherUsers.truncate(otherUsers.size() - otherUsers.size() % OTHER_USER_SIZE);
+        var start = Math.min(entries.size() / ENTRY_SIZE, Math.max(0, size - RECHECKED_ENTRIES));
+        backfill = new Thread(() -> fill(start, size), "Transaction log indexing");
+        backfill.setDaemon(true);
+        backfill.start();
+    }
+
+    @Override
+    public void onBegin() throws IOException {
+        current = new TransactionInfo();
+        currentOtherUsers = new LinkedHashSet<>();
+        txnLog.onBegin();
+    }
+
+    @Override
+    public void onMetadata(String userId, String userName, long timestamp) throws IOException {
+        addMetadata(current, currentOtherUsers, userId, userName, timestamp);
+        txnLog.onMetadata(userId, userName, timestamp);
+    }
+
+    @Override
+    public void onAdd(Node graph, Node subject, Node predicate, Node object) throws IOException {
+        current.setAdded(current.getAdded() + 1);
+        txnLog.onAdd(graph, subject, predicate, object);
+    }
+
+    @Override
+    public void onDelete(Node graph, Node subject, Node predicate, Node object) throws IOException {
+        current.setDeleted(current.getDeleted() + 1);
+        txnLog.onDelete(graph, subject, predicate, object);
+    }
+
+    @Override
+    public void onCommit() throws IOException {
+        var index = txnLog.size();
+        txnLog.onCommit();
+        current.setIndex(index);
+        write(current, currentOtherUsers);
+        current = null;
+        currentOtherUsers = null;
+    }
+
+    @Override
+    public void onAbort() throws IOException {
+        current = null;
+        currentOtherUsers = null;
+        txnLog.onAbort();
+    }
+
+    @Override
+    public long size() {
+        return txnLog.size();
+    }
+
+    @Override
+    public void read(long index, TransactionListener listener) throws IOException {
+        txnLog.read(index, listener);
+    }
+
+    @Override
+    public void awaitDurability() throws IOException {
+        txnLog.awaitDurability();
+    }
+
+    @Override
+    public void archive(long before, File destination) throws IOException {
+        txnLog.archive(before, destination);
+    }
+
+    @Override
+    public boolean isArchived(long index) {
+        return txnLog.isArchived(index);
+    }
+
+    /**
+     * Finds transactions by time and user. Transactions which are not indexed yet are skipped.
+     * A transaction is reported with its first user, unless it's found by one of its other users.
+     * Timestamps are monotonic, so the start of the time range is found with a binary search
+     * and the search stops at its end. Only the entries within the range are scanned for the user.
+     *
+     * @param from   the earliest timestamp (inclusive), or null
+     * @param to     the latest timestamp (exclusive), or null
+     * @param userId a user who made changes in the transactions, or null
+     * @param limit  the maximal number of transactions to return
+     */
+    public List<TransactionInfo> find(Instant from, Instant to, String userId, int limit) throws IOException {
+        var fromMillis = from == null ? Long.MIN_VALUE : from.toEpochMilli();
+        var toMillis = to == null ? Long.MAX_VALUE : to.toEpochMilli();
+        var foundByOtherUser = userId == null ? Map.<Long, Integer>of() : findByOtherUser(userId);
+        var result = new ArrayList<TransactionInfo>();
+        var buffer = ByteBuffer.allocate(ENTRY_SIZE * 4096);
+        var count = Math.min(txnLog.size(), entries.size() / ENTRY_SIZE);
+        var start = from == null ? 0 : firstAtOrAfter(fromMillis, count);
+        for (var position = start * ENTRY_SIZE; position < count * ENTRY_SIZE && result.size() < limit; ) {
+            buffer.clear();
+            var read = entries.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.remaining() >= ENTRY_SIZE && result.size() < limit) {
+                var index = position / ENTRY_SIZE;
+                var timestamp = buffer.getLong();
+                var user = buffer.getInt();
+                var added = buffer.getInt();
+                var deleted = buffer.getInt();
+                var flags = buffer.getInt();
+                position += ENTRY_SIZE;
+                if (flags != FILLED || timestamp < fromMillis) {
+                    continue;
+                }
+                if (timestamp >= toMillis) {
+                    return result;
+                }
+                var info = toInfo(index, timestamp, user, added, deleted);
+                if (userId == null || userId.equals(info.getUserId())) {
+                    result.add(info);
+                } else if (foundByOtherUser.containsKey(index)) {
+                    result.add(toInfo(index, timestamp, foundByOtherUser.get(index), added, deleted));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Binary-searches the first of the entries before count with a timestamp at or after the given one.
+     * Entries without a timestamp, not filled yet or of transactions without changes, are skipped while probing.
+     */
+    private long firstAtOrAfter(long timestamp, long count) throws IOException {
+        var low = 0L;
+        var high = count;
+        while (low < high) {
+            var middle = (low + high) >>> 1;
+            var probe = middle;
+            var found = 0L;
+            while (probe < high && (found = timestampAt(probe)) == 0) {
+                probe++;
+            }
+            if (probe < high && found < timestamp) {
+                low = probe + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the timestamp of an entry, or 0 if it's not filled
+     */
+    private long timestampAt(long index) throws IOException {
+        var buffer = ByteBuffer.allocate(ENTRY_SIZE);
+        if (entries.read(buffer, index * ENTRY_SIZE) != ENTRY_SIZE || buffer.getInt(ENTRY_SIZE - 4) != FILLED) {
+            return 0;
+        }
+        return buffer.getLong(0);
+    }
+
+    private void fill(long start, long end) {
+        if (start >= end) {
+            return;
+        }
+        log.info("Indexing transactions #{} to #{}", start + 1, end);
+        for (var i = start; i < end && !closed; i++) {
+            try {
+                if (isFilled(i)) {
+                    continue;
+                }
+                var info = new TransactionInfo();
+                info.setIndex(i);
+                var others = new LinkedHashSet<List<String>>();
+                txnLog.read(i, new TransactionListener() {
+                    @Override
+                    public void onMetadata(String userId, String userName, long timestamp) {
+                        addMetadata(info, others, userId, userName, timestamp);
+                    }
+
+                    @Override
+                    public void onAdd(Node graph, Node subject, Node predicate, Node object) {
+                        info.setAdded(info.getAdded() + 1);
+                    }
+
+                    @Override
+                    public void onDelete(Node graph, Node subject, Node predicate, Node object) {
+                        info.setDeleted(info.getDeleted() + 1);
+                    }
+                });
+                write(info, others);
+            } catch (FileNotFoundException e) {
+                // The transaction is archived
+            } catch (IOException e) {
+                log.error("Error indexing transaction #{}", i + 1, e);
+            }
+        }
+        log.info("Indexing is finished");
+    }
+
+    private boolean isFilled(long index) throws IOException {
+        var buffer = ByteBuffer.allocate(ENTRY_SIZE);
+        return entries.read(buffer, index * ENTRY_SIZE) == ENTRY_SIZE && buffer.getInt(ENTRY_SIZE - 4) == FILLED;
+    }
+
+    /**
+     * Takes the timestamp and the user of the first metadata of a transaction and collects all other users
+     */
+    private static void addMetadata(TransactionInfo info, Set<List<String>> others, String userId, String userName, long timestamp) {
+        if (info.getTimestamp() == null) {
+            info.setTimestamp(Instant.ofEpochMilli(timestamp));
+            info.setUserId(userId);
+            info.setUserName(userName);
+        } else if (userId != null && !userId.equals(info.getUserId())) {
+            others.add(List.of(userId, Objects.toString(userName, "")));
+        }
+    }
+
+    /**
+     * @return the numbers of the transactions in which the user made changes without being their first user,
+     * mapped to the user's number
+     */
+    private Map<Long, Integer> findByOtherUser(String userId) throws IOException {
+        var result = new HashMap<Long, Integer>();
+        var buffer = ByteBuffer.allocate(OTHER_USER_SIZE * 4096);
+        var size = otherUsers.size() - otherUsers.size() % OTHER_USER_SIZE;
+        for (var position = 0L; position < size; ) {
+            buffer.clear();
+            var read = otherUsers.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.remaining() >= OTHER_USER_SIZE) {
+                var index = buffer.getLong();
+                var user = buffer.getInt();
+                position += OTHER_USER_SIZE;
+                if (userId.equals(userId(user))) {
+                    result.put(index, user);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the records of the other users first, so a filled entry means that the transaction is indexed completely.
+     * Records written again by the backfill after a crash are harmless duplicates.
+     */
+    private void write(TransactionInfo info, Set<List<String>> others) throws IOException {
+        if (!others.isEmpty()) {
+            var records = ByteBuffer.allocate(OTHER_USER_SIZE * others.size());
+            for (var user : others) {
+                records.putLong(info.getIndex()).putInt(userNumber(user.get(0), user.get(1)));
+            }
+            appendOtherUsers(records.flip());
+        }
+
+        var buffer = ByteBuffer.allocate(ENTRY_SIZE)
+                .putLong(info.getTimestamp() == null ? 0 : info.getTimestamp().toEpochMilli())
+                .putInt(userNumber(info.getUserId(), info.getUserName()))
+                .putInt(info.getAdded())
+                .putInt(info.getDeleted())
+                .putInt(FILLED)
+                .flip();
+        var position = info.getIndex() * ENTRY_SIZE;
+        while (buffer.hasRemaining()) {
+            position += entries.write(buffer, position);
+        }
+    }
+
+    private synchronized void appendOtherUsers(ByteBuffer records) throws IOException {
+        var position = otherUsers.size();
+        while (records.hasRemaining()) {
+            position += otherUsers.write(records, position);
+        }
+    }
+
+    private synchronized String userId(int user) {
+        return user >= 0 && user < users.size() ? users.get(user)[0] : null;
+    }
+
+    private synchronized int userNumber(String userId, String userName) throws IOException {
+        if (userId == null) {
+            return NO_USER;
+        }
+        var number = userNumbers.get(List.of(userId, Objects.toString(userName, "")));
+        if (number == null) {
+            usersOut.writeUTF(userId);
+            usersOut.writeUTF(Objects.toString(userName, ""));
+            usersOut.flush();
+            number = addUser(userId, Objects.toString(userName, ""));
+        }
+        return number;
+    }
+
+    private int addUser(String userId, String userName) {
+        users.add(new String[]{userId, userName});
+        userNumbers.put(List.of(userId, userName), users.size() - 1);
+        return users.size() - 1;
+    }
+
+    private synchronized TransactionInfo toInfo(long index, long timestamp, int user, int added, int deleted) {
+        var info = new TransactionInfo();
+        info.setIndex(index);
+        info.setTimestamp(Instant.ofEpochMilli(timestamp));
+        if (user != NO_USER && user < users.size()) {
+            info.setUserId(users.get(user)[0]);
+            info.setUserName(users.get(user)[1]);
+        }
+        info.setAdded(added);
+        info.setDeleted(deleted);
+        return info;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            backfill.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            txnLog.close();
+        } finally {
+            entries.close();
+            otherUsers.close();
+            usersOut.close();
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package io.fairspace.saturn.rdf.transactions;
 
+import lombok.extern.log4j.*;
 import org.apache.jena.graph.Node;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.GZIPOutputStream;
 
+import static io.fairspace.saturn.rdf.transactions.FileSync.syncDirectory;
+import static io.fairspace.saturn.rdf.transactions.FileSync.writeDurably;
 import static java.nio.file.Files.move;
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.util.concurrent.TimeUnit.MINUTES;
 
 /**
  * Stores transactions in the following directory structure:
@@ -27,7 +36,9 @@ import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
  *   chapter-1001
  *     tx-1000001
  *     ...
+ * Records of completed chapters can be compressed in the background (see {@link #compressChapters()}).
  */
+@Log4j2
 public class LocalTransactionLog implements TransactionLog {
     private static final int CHAPTERS_PER_VOLUME = 1000;
     private static final int RECORDS_PER_CHAPTER = 1000;
@@ -35,11 +46,14 @@ public class LocalTransactionLog implements TransactionLog {
     private static final String CHAPTER_PREFIX = "chapter-";
     private static final String RECORD_PREFIX = "tx-";
     private static final String CURRENT_TRANSACTION_FILE_NAME = "current";
+    private static final String COMPRESSED_CHAPTER_MARKER = "compressed";
+    private static final String COMPRESSING_FILE_NAME = "compressing";
 
     private final File directory;
     private final TransactionCodec codec;
     private final File currentTransactionFile;
-    private long count;
+    private volatile long count;
+    private ScheduledExecutorService compressionScheduler;
     private OutputStream outputStream;
     private TransactionListener writingListener;
 
@@ -81,7 +95,9 @@ public class LocalTransactionLog implements TransactionLog {
     public void onCommit() throws IOException {
         writingListener.onCommit();
         outputStream.close();
-        move(currentTransactionFile.toPath(), file(count).toPath(), ATOMIC_MOVE);
+        var file = file(count);
+        file.getParentFile().mkdirs();
+        move(currentTransactionFile.toPath(), file.toPath(), ATOMIC_MOVE);
         count++;
         writingListener = null;
         outputStream = null;
@@ -101,15 +117,140 @@ public class LocalTransactionLog implements TransactionLog {
         return count;
     }
 
+    /**
+     * Counts the transactions in the directory again, e.g. when it's written by another process
+     */
+    long countTransactions() {
+        return numberOfFiles();
+    }
+
     @Override
     public void read(long index, TransactionListener listener) throws IOException {
-        try (var in = new BufferedInputStream(new FileInputStream(file(index)))) {
+        try (var in = openRecord(index)) {
             codec.read(in, listener);
         }
     }
 
+    /**
+     * Opens a transaction as it's stored, without decoding it.
+     * Doesn't modify the directory, so it can be used to follow another process' log.
+     *
+     * @throws FileNotFoundException if the transaction isn't committed (yet) or is archived
+     */
+    InputStream openRecord(long index) throws IOException {
+        return new BufferedInputStream(new FileInputStream(file(index)));
+    }
+
+    @Override
+    public boolean isArchived(long index) {
+        return !file(index).exists();
+    }
+
+    @Override
+    public void archive(long before, File destination) throws IOException {
+        var lastVolume = lastNumber(directory, VOLUME_PREFIX);
+        for (var volumeNumber = 1; volumeNumber < lastVolume; volumeNumber++) {
+            if ((long) volumeNumber * CHAPTERS_PER_VOLUME * RECORDS_PER_CHAPTER > before) {
+                break;
+            }
+            var volume = new File(directory, VOLUME_PREFIX + volumeNumber);
+            if (volume.exists()) {
+                destination.mkdirs();
+                move(volume.toPath(), new File(destination, volume.getName()).toPath(), ATOMIC_MOVE);
+            }
+        }
+    }
+
+    /**
+     * Compresses the records of completed chapters every intervalMinutes.
+     */
+    public synchronized void scheduleCompression(long intervalMinutes) {
+        if (intervalMinutes <= 0 || compressionScheduler != null) {
+            return;
+        }
+        compressionScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "Transaction log compression");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compressionScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                var compressed = compressChapters();
+                if (compressed > 0) {
+                    log.info("Compressed {} transactions", compressed);
+                }
+            } catch (Exception e) {
+                log.error("Error compressing the transaction log", e);
+            }
+        }, intervalMinutes, intervalMinutes, MINUTES);
+    }
+
+    /**
+     * Compresses the records of completed chapters which are not compressed yet.
+     * Every record is replaced atomically, so the log can be read and written meanwhile.
+     *
+     * @return the number of compressed records
+     */
+    public long compressChapters() throws IOException {
+        var compressed = 0L;
+        var currentChapter = count / RECORDS_PER_CHAPTER + 1;
+        for (var chapterNumber = 1L; chapterNumber < currentChapter; chapterNumber++) {
+            var chapter = chapter(chapterNumber);
+            var marker = new File(chapter, COMPRESSED_CHAPTER_MARKER);
+            if (!chapter.exists() || marker.exists()) {
+                continue;
+            }
+            var first = (chapterNumber - 1) * RECORDS_PER_CHAPTER;
+            for (var i = first; i < first + RECORDS_PER_CHAPTER; i++) {
+                if (compress(file(i))) {
+                    compressed++;
+                }
+            }
+            // The renames must be durable before the chapter is marked as compressed
+            syncDirectory(chapter);
+            marker.createNewFile();
+        }
+        return compressed;
+    }
+
+    private static boolean compress(File file) throws IOException {
+        var data = Files.readAllBytes(file.toPath());
+        if (CompressingTransactionCodec.isCompressed(data)) {
+            return false;
+        }
+        var bytes = new ByteArrayOutputStream(data.length);
+        try (var out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        // Small records don't get smaller because of the gzip header
+        if (bytes.size() >= data.length) {
+            return false;
+        }
+        // The compressed copy must be durable before it replaces the durable original
+        var tmp = new File(file.getParentFile(), COMPRESSING_FILE_NAME);
+        writeDurably(tmp, bytes.toByteArray());
+        move(tmp.toPath(), file.toPath(), ATOMIC_MOVE);
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (compressionScheduler != null) {
+            compressionScheduler.shutdown();
+            compressionScheduler = null;
+        }
+    }
+
+    /**
+     * @return true if the directory contains a transaction log stored in volumes and chapters
+     */
+    public static boolean exists(File directory) {
+        return childCount(directory, VOLUME_PREFIX) > 0;
+    }
+
     private int numberOfFiles() {
-        var volumeCount = childCount(directory, VOLUME_PREFIX);
+        // Volumes preceding the last one might be archived
+        var volumeCount = lastNumber(directory, VOLUME_PREFIX);
         if (volumeCount == 0) {
             return 0;
         }
@@ -127,17 +268,30 @@ public class LocalTransactionLog implements TransactionLog {
         return (volumeCount - 1) * CHAPTERS_PER_VOLUME + (chapterCount - 1) * RECORDS_PER_CHAPTER + recordsInChapter;
     }
 
+    private static int lastNumber(File parent, String prefix) {
+        var files = parent.list((dir, name) -> name.startsWith(prefix));
+        if (files == null) {
+            return 0;
+        }
+        return Arrays.stream(files)
+                .mapToInt(name -> Integer.parseInt(name.substring(prefix.length())))
+                .max()
+                .orElse(0);
+    }
+
     private static int childCount(File parent, String prefix) {
         var files = parent.list((dir, name) -> name.startsWith(prefix));
         return files == null ? 0 : files.length;
     }
 
     private File file(long transactionNumber) {
-        var volumeNumber = transactionNumber / CHAPTERS_PER_VOLUME / RECORDS_PER_CHAPTER + 1;
-        var volume = new File(directory, VOLUME_PREFIX + volumeNumber);
-        var chapterNumber = transactionNumber / RECORDS_PER_CHAPTER + 1;
-        var chapter = new File(volume, CHAPTER_PREFIX + chapterNumber);
-        chapter.mkdirs();
+        var chapter = chapter(transactionNumber / RECORDS_PER_CHAPTER + 1);
         return new File(chapter, RECORD_PREFIX + (transactionNumber + 1));
     }
+
+    private File chapter(long chapterNumber) {
+        var volumeNumber = (chapterNumber - 1) / CHAPTERS_PER_VOLUME + 1;
+        var volume = new File(directory, VOLUME_PREFIX + volumeNumber);
+        return new File(volume, CHAPTER_PREFIX + chapterNumber);
+    }
 }
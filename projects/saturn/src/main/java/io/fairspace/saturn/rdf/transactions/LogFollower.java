@@ -0,0 +1,220 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import io.fairspace.saturn.config.*;
+import lombok.Value;
+import lombok.extern.log4j.*;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.system.Txn;
+
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.Base64;
+
+import static java.lang.System.currentTimeMillis;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Keeps a read-only dataset in sync with a primary instance.
+ * On the first start the latest checkpoint (see {@link Checkpoints}) is loaded.
+ * Then the primary's transactions are applied one by one, either read from the primary's
+ * transaction log directory or received from the primary's log endpoint (see {@link TransactionLogServlet}).
+ * The number of applied transactions is stored in a position file in the dataset directory,
+ * so the follower continues where it stopped after a restart.
+ */
+@Log4j2
+public class LogFollower implements Closeable {
+    static final String POSITION_FILE = "follower.position";
+
+    private final DatasetGraph dsg;
+    private final Config.Jena config;
+    private final File positionFile;
+    private final Thread thread;
+    private volatile long applied;
+    private volatile long lastTimestamp;
+    private volatile boolean caughtUp;
+    private volatile boolean closed;
+
+    /**
+     * @param dsg the dataset to apply transactions to, it must not reject writes
+     */
+    public LogFollower(DatasetGraph dsg, Config.Jena config) {
+        this.dsg = dsg;
+        this.config = config;
+        this.positionFile = new File(config.datasetPath, POSITION_FILE);
+        this.thread = new Thread(this::run, "Transaction log follower");
+        thread.setDaemon(true);
+    }
+
+    public void start() throws IOException {
+        if (positionFile.exists()) {
+            applied = Long.parseLong(Files.readString(positionFile.toPath(), UTF_8).trim());
+        } else {
+            try (var checkpoints = new Checkpoints(config.checkpoints)) {
+                applied = checkpoints.restore(dsg);
+            }
+            savePosition();
+        }
+        log.info("Following the primary instance from transaction #{}", applied + 1);
+        thread.start();
+    }
+
+    private void run() {
+        var follower = config.follower;
+        var source = follower.primaryLogPath == null ? null
+                : new LocalTransactionLog(follower.primaryLogPath, new FormatDetectingTransactionCodec(new SparqlTransactionCodec()));
+        var client = follower.primaryUrl == null ? null : HttpClient.newHttpClient();
+
+        while (!closed) {
+            try {
+                if (source != null) {
+                    pollDirectory(source);
+                } else if (client != null) {
+                    receive(client);
+                } else {
+                    log.error("Neither primaryUrl nor primaryLogPath is configured, the follower is stopped");
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (MissingTransactionException e) {
+                log.error(e.getMessage());
+                caughtUp = false;
+                return;
+            } catch (Exception e) {
+                log.error("Error following the primary instance at transaction #{}", applied + 1, e);
+                caughtUp = false;
+            }
+
+            try {
+                pause();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void pollDirectory(LocalTransactionLog source) throws IOException {
+        var missing = false;
+        while (!closed) {
+            var txn = new DecodedTransaction();
+            try {
+                source.read(applied, txn);
+            } catch (FileNotFoundException e) {
+                // The primary's log is counted again, as it grows after the follower's start
+                if (source.countTransactions() <= applied) {
+                    caughtUp = true;
+                    return;
+                }
+                // The transaction might have been committed right after the attempt to read it
+                if (!missing) {
+                    missing = true;
+                    continue;
+                }
+                throw new MissingTransactionException("Transaction #" + (applied + 1)
+                        + " is missing from the primary's log, probably it's archived. The follower is stopped."
+                        + " Re-seed it from a checkpoint: stop the follower, delete " + config.datasetPath
+                        + " and start it again.");
+            }
+            missing = false;
+            apply(txn);
+        }
+    }
+
+    private void receive(HttpClient client) throws IOException, InterruptedException {
+        var follower = config.follower;
+        var request = HttpRequest.newBuilder(URI.create(follower.primaryUrl + "?from=" + applied)).GET();
+        if (follower.username != null) {
+            var credentials = follower.username + ":" + follower.password;
+            request.header("Authorization", "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(UTF_8)));
+        }
+        var response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        try (var in = new BufferedInputStream(response.body())) {
+            if (response.statusCode() != 200) {
+                throw new IOException("The primary instance responded with status " + response.statusCode());
+            }
+            var codec = new NdjsonTransactionCodec();
+            while (!closed) {
+                in.mark(1);
+                if (in.read() < 0) {
+                    return;
+                }
+                in.reset();
+                var txn = new DecodedTransaction();
+                codec.read(in, txn);
+                apply(txn);
+                caughtUp = in.available() == 0;
+            }
+        }
+    }
+
+    private void apply(DecodedTransaction txn) throws IOException {
+        Txn.executeWrite(dsg, () -> txn.applyTo(dsg));
+        applied++;
+        lastTimestamp = txn.getTimestamp();
+        savePosition();
+    }
+
+    private void savePosition() throws IOException {
+        var tmp = new File(positionFile.getParentFile(), POSITION_FILE + ".tmp").toPath();
+        Files.writeString(tmp, Long.toString(applied), UTF_8);
+        Files.move(tmp, positionFile.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * @return replication statistics. The lag is 0 if the follower has applied all transactions known to it
+     * and -1 if it's unknown.
+     */
+    public Stats getStats() {
+        long lag;
+        if (caughtUp) {
+            lag = 0;
+        } else if (lastTimestamp == 0) {
+            lag = -1;
+        } else {
+            lag = Math.max(0, currentTimeMillis() - lastTimestamp);
+        }
+        return new Stats(applied, lastTimestamp, lag);
+    }
+
+    private synchronized void pause() throws InterruptedException {
+        if (!closed) {
+            wait(config.follower.pollIntervalMillis);
+        }
+    }
+
+    /**
+     * Stops following after the transaction being applied, if any.
+     * The thread is not interrupted, as that could break the dataset's files.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join(Math.max(1000, 2 * config.follower.pollIntervalMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class MissingTransactionException extends IOException {
+        MissingTransactionException(String message) {
+            super(message);
+        }
+    }
+
+    @Value
+    public static class Stats {
+        long appliedTransactions;
+        long lastTransactionTimestamp;
+        long lagMillis;
+    }
+}
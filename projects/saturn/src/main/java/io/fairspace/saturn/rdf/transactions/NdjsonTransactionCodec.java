@@ -0,0 +1,147 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import org.apache.jena.graph.Node;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.sparql.util.NodeFactoryExtra;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.apache.jena.graph.NodeFactory.createBlankNode;
+
+/**
+ * Encodes a committed transaction as a single line of JSON, so a sequence of transactions forms an NDJSON stream:
+ * {"userId":"...","userName":"...","timestamp":123,"changes":[["A","<g>","<s>","<p>","\"o\""],["D",...],...]}
+ * Every change is an operation (A for added, D for deleted) followed by the graph, subject, predicate and object
+ * in N-Triples syntax. Blank nodes keep their labels.
+ * A transaction can contain changes of several users, e.g. a batch of write tasks. The first metadata is stored
+ * in the top-level fields, every following metadata is stored in place as ["M","userId","userName","timestamp"],
+ * so the changes after it are attributed to its user, as in the SPARQL format.
+ * Aborted transactions are not written.
+ * Reading consumes exactly one line, so consecutive transactions can be read from the same stream.
+ */
+public class NdjsonTransactionCodec implements TransactionCodec {
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String ADDED = "A";
+    private static final String DELETED = "D";
+    private static final String METADATA = "M";
+    private static final String BLANK_NODE_PREFIX = "_:";
+
+    @Override
+    public TransactionListener write(OutputStream out) {
+        return new TransactionListener() {
+            private TransactionRecord record = new TransactionRecord();
+            private boolean hasMetadata;
+
+            @Override
+            public void onBegin() {
+                record = new TransactionRecord();
+                hasMetadata = false;
+            }
+
+            @Override
+            public void onMetadata(String userId, String userName, long timestamp) {
+                if (!hasMetadata) {
+                    record.setUserId(userId);
+                    record.setUserName(userName);
+                    record.setTimestamp(timestamp);
+                    hasMetadata = true;
+                } else {
+                    // The user name and ID can be null
+                    record.getChanges().add(Arrays.asList(METADATA, userId, userName, Long.toString(timestamp)));
+                }
+            }
+
+            @Override
+            public void onAdd(Node graph, Node subject, Node predicate, Node object) {
+                record.getChanges().add(List.of(ADDED, format(graph), format(subject), format(predicate), format(object)));
+            }
+
+            @Override
+            public void onDelete(Node graph, Node subject, Node predicate, Node object) {
+                record.getChanges().add(List.of(DELETED, format(graph), format(subject), format(predicate), format(object)));
+            }
+
+            @Override
+            public void onCommit() throws IOException {
+                out.write(MAPPER.writeValueAsBytes(record));
+                out.write('\n');
+                record = new TransactionRecord();
+                hasMetadata = false;
+            }
+
+            @Override
+            public void onAbort() {
+                record = new TransactionRecord();
+                hasMetadata = false;
+            }
+        };
+    }
+
+    @Override
+    public void read(InputStream in, TransactionListener listener) throws IOException {
+        var record = MAPPER.readValue(readLine(in), TransactionRecord.class);
+        listener.onBegin();
+        listener.onMetadata(record.getUserId(), record.getUserName(), record.getTimestamp());
+        for (var change : record.getChanges()) {
+            if (METADATA.equals(change.get(0))) {
+                listener.onMetadata(change.get(1), change.get(2), Long.parseLong(change.get(3)));
+                continue;
+            }
+            var graph = parse(change.get(1));
+            var subject = parse(change.get(2));
+            var predicate = parse(change.get(3));
+            var object = parse(change.get(4));
+            switch (change.get(0)) {
+                case ADDED -> listener.onAdd(graph, subject, predicate, object);
+                case DELETED -> listener.onDelete(graph, subject, predicate, object);
+                default -> throw new IOException("Unknown operation: " + change.get(0));
+            }
+        }
+        listener.onCommit();
+    }
+
+    private static byte[] readLine(InputStream in) throws IOException {
+        var line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Incomplete transaction");
+            }
+            line.write(b);
+        }
+        return line.toByteArray();
+    }
+
+    private static String format(Node node) {
+        if (node.isBlank()) {
+            return BLANK_NODE_PREFIX + NodeFmtLib.encodeBNodeLabel(node.getBlankNodeLabel());
+        }
+        return NodeFmtLib.strNT(node);
+    }
+
+    private static Node parse(String s) {
+        if (s.startsWith(BLANK_NODE_PREFIX)) {
+            return createBlankNode(NodeFmtLib.decodeBNodeLabel(s.substring(BLANK_NODE_PREFIX.length())));
+        }
+        return NodeFactoryExtra.parseNode(s);
+    }
+
+    @Data
+    static class TransactionRecord {
+        private String userId;
+        private String userName;
+        private long timestamp;
+        private List<List<String>> changes = new ArrayList<>();
+    }
+}
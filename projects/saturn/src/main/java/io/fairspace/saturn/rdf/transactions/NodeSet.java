@@ -0,0 +1,89 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import org.apache.jena.graph.Node;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of nodes stored in a single array (open addressing with linear probing).
+ * Unlike a HashSet, it doesn't allocate an entry object per element,
+ * which matters for transactions touching millions of subjects.
+ */
+public class NodeSet implements Iterable<Node> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Node[] table = new Node[INITIAL_CAPACITY];
+    private int size;
+
+    public boolean add(Node node) {
+        if (2 * (size + 1) > table.length) {
+            resize(2 * table.length);
+        }
+        var i = slot(table, node);
+        if (table[i] != null) {
+            return false;
+        }
+        table[i] = node;
+        size++;
+        return true;
+    }
+
+    public boolean contains(Node node) {
+        return table[slot(table, node)] != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize(int capacity) {
+        var resized = new Node[capacity];
+        for (var node : table) {
+            if (node != null) {
+                resized[slot(resized, node)] = node;
+            }
+        }
+        table = resized;
+    }
+
+    // The slot containing the node or the empty slot where it belongs
+    private static int slot(Node[] table, Node node) {
+        var mask = table.length - 1;
+        var hash = node.hashCode();
+        var i = (hash ^ (hash >>> 16)) & mask;
+        while (table[i] != null && !table[i].equals(node)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    @Override
+    public Iterator<Node> iterator() {
+        return new Iterator<>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < table.length && table[from] == null) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < table.length;
+            }
+
+            @Override
+            public Node next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                var node = table[next];
+                next = advance(next + 1);
+                return node;
+            }
+        };
+    }
+}
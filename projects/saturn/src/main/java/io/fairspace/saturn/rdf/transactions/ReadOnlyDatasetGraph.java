@@ -0,0 +1,70 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import io.fairspace.saturn.services.NotAvailableException;
+import lombok.extern.log4j.*;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphWrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Rejects write transactions, used by a follower which only applies the primary's changes (see {@link LogFollower}).
+ */
+@Log4j2
+public class ReadOnlyDatasetGraph extends DatasetGraphWrapper {
+    private static final String MESSAGE = "This instance is a read-only follower, changes can only be made on the primary instance";
+
+    private final Deque<Closeable> dependents = new ArrayDeque<>();
+
+    public ReadOnlyDatasetGraph(DatasetGraph dsg) {
+        super(dsg);
+    }
+
+    @Override
+    public void begin(TxnType type) {
+        if (type != TxnType.READ) {
+            throw new NotAvailableException(MESSAGE);
+        }
+        super.begin(type);
+    }
+
+    @Override
+    public void begin(ReadWrite readWrite) {
+        if (readWrite == ReadWrite.WRITE) {
+            throw new NotAvailableException(MESSAGE);
+        }
+        super.begin(readWrite);
+    }
+
+    @Override
+    public boolean promote(Promote mode) {
+        throw new NotAvailableException(MESSAGE);
+    }
+
+    /**
+     * Registers a resource using this dataset, e.g. the follower applying changes to it.
+     * It's closed before the dataset, in the reverse order of registration.
+     */
+    public synchronized void closeOnClose(Closeable dependent) {
+        dependents.push(dependent);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            while (!dependents.isEmpty()) {
+                try {
+                    dependents.pop().close();
+                } catch (IOException e) {
+                    log.error("Error closing a dependent of the dataset", e);
+                }
+            }
+        }
+        super.close();
+    }
+}
@@ -1,50 +1,207 @@
 package io.fairspace.saturn.rdf.transactions;
 
+import io.fairspace.saturn.config.*;
 import lombok.extern.log4j.*;
-import org.apache.jena.graph.Node;
+import org.apache.jena.query.ReadWrite;
 import org.apache.jena.sparql.core.DatasetGraph;
-import org.apache.jena.system.Txn;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Rebuilds the dataset from the latest checkpoint (see {@link Checkpoints}) and the transaction log,
+ * either completely or up to a given transaction.
+ * A pool of threads reads and decodes transactions ahead of a single thread applying them in their original order.
+ * At most {@link Config.Jena.Restore#prefetch} decoded transactions are kept in memory.
+ * Changes are committed every {@link Config.Jena.Restore#commitInterval} transactions
+ * and the number of committed transactions is recorded in a progress file in the dataset directory,
+ * together with the number of transactions to restore.
+ * An interrupted restore continues after the last committed transaction, but only up to the same transaction.
+ * Re-applying transactions that were committed, but not recorded yet, is harmless,
+ * as a replayed sequence of additions and deletions leaves every quad in the same state.
+ */
 @Log4j2
 public class Restore {
-    public static void restore(DatasetGraph dsg, TransactionLog txnLog) {
-        var logSize = txnLog.size();
+    static final String PROGRESS_FILE = "restore.progress";
+
+    public static void restore(DatasetGraph dsg, TransactionLog txnLog, Config.Jena config) {
+        restore(dsg, txnLog, config, txnLog.size());
+    }
+
+    /**
+     * Restores the state of the dataset after the given number of transactions (point-in-time restore).
+     * Only checkpoints covering at most that number of transactions are used.
+     */
+    public static void restore(DatasetGraph dsg, TransactionLog txnLog, Config.Jena config, long transactions) {
+        var logSize = Math.min(transactions, txnLog.size());
+        var progressFile = progressFile(config.datasetPath);
 
         if (logSize == 0) {
+            progressFile.delete();
             return;
         }
 
-        log.warn("Your metadata database is gone. Restoring from the transaction log containing {} transactions", logSize);
+        var saved = readProgress(progressFile);
+        if (saved[1] >= 0 && saved[1] != logSize) {
+            throw new IllegalStateException("The interrupted restore of " + saved[1]
+                    + " transactions cannot be resumed to restore " + logSize + " transactions. Empty " + config.datasetPath + " first");
+        }
+        var start = saved[0];
+        if (start > 0) {
+            log.warn("Resuming an interrupted restore from the transaction log containing {} transactions, {} transactions are restored already", logSize, start);
+        } else {
+            log.warn("Your metadata database is gone. Restoring from the transaction log containing {} transactions", logSize);
+            writeProgress(progressFile, 0, logSize);
+            start = loadCheckpoint(dsg, config, logSize);
+            if (start > 0) {
+                writeProgress(progressFile, start, logSize);
+                log.warn("Restored a checkpoint containing {} transactions, replaying the remaining {} transactions", start, Math.max(0, logSize - start));
+            }
+        }
 
-        Txn.executeWrite(dsg, () -> {
+        var params = config.restore;
+        var threadCount = Math.max(1, params.threads);
+        var executor = Executors.newFixedThreadPool(threadCount, r -> {
+            var thread = new Thread(r, "Transaction log reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var pending = new ArrayDeque<Future<DecodedTransaction>>();
+        var next = start;
+        var uncommitted = 0;
+
+        dsg.begin(ReadWrite.WRITE);
+        try {
             var prevProgress = -1L;
-            for (var i = 0; i < logSize; i++) {
+            for (var i = start; i < logSize; i++) {
+                while (next < logSize && pending.size() < Math.max(params.prefetch, threadCount)) {
+                    var index = next++;
+                    pending.add(executor.submit(() -> decode(txnLog, index)));
+                }
+
                 var progress = (100 * i) / logSize;
                 if (progress > prevProgress) {
                     log.info("Progress: {}%", progress);
                     prevProgress = progress;
                 }
+
                 try {
-                    txnLog.read(i, new TransactionListener() {
-                        @Override
-                        public void onAdd(Node graph, Node subject, Node predicate, Node object) {
-                            dsg.add(graph, subject, predicate, object);
-                        }
-
-                        @Override
-                        public void onDelete(Node graph, Node subject, Node predicate, Node object) {
-                            dsg.delete(graph, subject, predicate, object);
-                        }
-                    });
-                } catch (Exception e) {
-                    log.error("Error applying transaction #" + (i + 1), e);
-                    throw new RuntimeException(e);
+                    pending.remove().get().applyTo(dsg);
+                } catch (ExecutionException e) {
+                    log.error("Error applying transaction #" + (i + 1), e.getCause());
+                    throw new RuntimeException(e.getCause());
+                }
+
+                if (++uncommitted >= params.commitInterval && i + 1 < logSize) {
+                    dsg.commit();
+                    writeProgress(progressFile, i + 1, logSize);
+                    uncommitted = 0;
+                    dsg.begin(ReadWrite.WRITE);
                 }
             }
             log.info("Progress: 100%");
             log.info("Committing changes");
-        });
+            dsg.commit();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            if (dsg.isInTransaction()) {
+                dsg.abort();
+            }
+            dsg.end();
+            executor.shutdownNow();
+        }
 
+        progressFile.delete();
         log.warn("Restore is finished.");
     }
+
+    private static long loadCheckpoint(DatasetGraph dsg, Config.Jena config, long maxTransactions) {
+        try (var checkpoints = new Checkpoints(config.checkpoints)) {
+            return checkpoints.restore(dsg, maxTransactions);
+        } catch (IOException e) {
+            throw new RuntimeException("Error loading a checkpoint", e);
+        }
+    }
+
+    /**
+     * Finds the number of transactions committed at or before the given time.
+     * Timestamps in the log are expected to grow, so the log is searched with a binary search
+     * reading only a few transactions. Archived transactions are treated as committed before the given time.
+     */
+    public static long countTransactionsUntil(TransactionLog txnLog, long timestamp) throws IOException {
+        var low = 0L;
+        var high = txnLog.size();
+        while (low < high) {
+            var middle = (low + high) >>> 1;
+            if (timestamp(txnLog, middle) <= timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long timestamp(TransactionLog txnLog, long index) throws IOException {
+        try {
+            return decode(txnLog, index).getTimestamp();
+        } catch (FileNotFoundException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Indicates that a restore was started, but not finished.
+     */
+    public static boolean isRestoreInterrupted(File datasetPath) {
+        return progressFile(datasetPath).exists();
+    }
+
+    private static File progressFile(File datasetPath) {
+        return new File(datasetPath, PROGRESS_FILE);
+    }
+
+    /**
+     * @return the number of committed transactions and the number of transactions to restore, or -1 if it's unknown
+     */
+    private static long[] readProgress(File progressFile) {
+        try {
+            if (!progressFile.exists()) {
+                return new long[]{0, -1};
+            }
+            var parts = Files.readString(progressFile.toPath(), UTF_8).trim().split(" ");
+            return new long[]{Long.parseLong(parts[0]), parts.length > 1 ? Long.parseLong(parts[1]) : -1};
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot read the restore progress from {}, restoring from the beginning", progressFile, e);
+            return new long[]{0, -1};
+        }
+    }
+
+    private static void writeProgress(File progressFile, long committed, long transactions) {
+        try {
+            var tmp = new File(progressFile.getParentFile(), PROGRESS_FILE + ".tmp").toPath();
+            Files.writeString(tmp, committed + " " + transactions, UTF_8);
+            Files.move(tmp, progressFile.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot save the restore progress to " + progressFile, e);
+        }
+    }
+
+    private static DecodedTransaction decode(TransactionLog txnLog, long index) throws IOException {
+        var txn = new DecodedTransaction();
+        txnLog.read(index, txn);
+        return txn;
+    }
 }
@@ -0,0 +1,484 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import io.fairspace.saturn.config.*;
+import lombok.extern.log4j.*;
+import org.apache.jena.graph.Node;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.CRC32;
+
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Appends transactions to large pre-allocated segment files instead of storing every transaction in its own file:
+ * segment-00000000000000000000.log  records of transactions 1 .. N
+ * segment-00000000000000000000.idx  offsets of these records in the .log file, 8 bytes per transaction
+ * segment-0000000000000000000N.log  records of transactions N+1 ...
+ * ...
+ * A record consists of a header (payload length and a CRC32 checksum, 4 bytes each) followed by the payload written
+ * by the codec. A new segment is started when the current one exceeds the segment size.
+ * On startup records which were not completely written (e.g. because of a crash) are dropped.
+ * A log opened with {@link #openReadOnly(File, TransactionCodec)} skips them without modifying any files,
+ * so it can be read while Saturn is appending to it.
+ * <p>
+ * Durability is controlled by the sync policy: the files are forced to the storage device after every
+ * syncBatchSize commits and, if syncIntervalMillis is positive, at least every syncIntervalMillis.
+ * Alternatively, in the group commit mode every commit is durable, but concurrent commits share a single sync
+ * (see {@link GroupCommit}).
+ * <p>
+ * Segments preceding a checkpoint can be archived (see {@link Checkpoints}). The numbering of transactions
+ * is derived from the segment file names, so it's not affected by archiving.
+ */
+@Log4j2
+public class SegmentedTransactionLog implements TransactionLog {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int HEADER_SIZE = 8;
+    private static final int INDEX_ENTRY_SIZE = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final TransactionCodec codec;
+    private final long segmentSize;
+    private final int syncBatchSize;
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ScheduledExecutorService syncScheduler;
+    private final GroupCommit groupCommit;
+    private final ThreadLocal<Long> lastCommit = new ThreadLocal<>();
+    private volatile Segment current;
+    private RecordOutputStream recordStream;
+    private TransactionListener writingListener;
+    private int unsyncedCommits;
+    private final boolean readOnly;
+
+    public SegmentedTransactionLog(File directory, TransactionCodec codec, Config.Jena.TransactionLogSegments config) throws IOException {
+        this(directory, codec, config, false);
+    }
+
+    private SegmentedTransactionLog(File directory, TransactionCodec codec, Config.Jena.TransactionLogSegments config, boolean readOnly) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.segmentSize = config.segmentSize;
+        this.syncBatchSize = Math.max(1, config.syncBatchSize);
+        this.readOnly = readOnly;
+
+        if (!readOnly) {
+            directory.mkdirs();
+        }
+
+        var names = directory.list((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(LOG_SUFFIX));
+        if (names != null) {
+            for (var name : names) {
+                var firstIndex = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - LOG_SUFFIX.length()));
+                segments.put(firstIndex, new Segment(directory, firstIndex, readOnly));
+            }
+        }
+        if (segments.isEmpty() && readOnly) {
+            throw new FileNotFoundException("No transaction log found in " + directory);
+        }
+        current = segments.isEmpty() ? newSegment(0) : segments.lastEntry().getValue();
+        current.recover(!readOnly);
+
+        if (readOnly) {
+            groupCommit = null;
+            syncScheduler = null;
+            return;
+        }
+
+        if (config.groupCommit) {
+            groupCommit = new GroupCommit(() -> current.sync(), config.groupCommitWindowMillis);
+        } else {
+            groupCommit = null;
+        }
+
+        if (!config.groupCommit && config.syncIntervalMillis > 0) {
+            syncScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                var thread = new Thread(r, "Transaction log sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncScheduler.scheduleWithFixedDelay(this::syncPending, config.syncIntervalMillis, config.syncIntervalMillis, MILLISECONDS);
+        } else {
+            syncScheduler = null;
+        }
+    }
+
+    /**
+     * Opens an existing log for reading only. Nothing is written to the directory
+     * and all methods writing to the log throw {@link IllegalStateException}.
+     */
+    public static SegmentedTransactionLog openReadOnly(File directory, TransactionCodec codec) throws IOException {
+        return new SegmentedTransactionLog(directory, codec, new Config.Jena.TransactionLogSegments(), true);
+    }
+
+    /**
+     * @return true if the directory contains a segmented transaction log
+     */
+    public static boolean exists(File directory) {
+        var names = directory.list((dir, name) -> name.startsWith(SEGMENT_PREFIX));
+        return names != null && names.length > 0;
+    }
+
+    @Override
+    public void onBegin() throws IOException {
+        beginRecord();
+        writingListener = codec.write(recordStream);
+    }
+
+    @Override
+    public void onMetadata(String userId, String userName, long timestamp) throws IOException {
+        writingListener.onMetadata(userId, userName, timestamp);
+    }
+
+    @Override
+    public void onAdd(Node graph, Node subject, Node predicate, Node object) throws IOException {
+        writingListener.onAdd(graph, subject, predicate, object);
+    }
+
+    @Override
+    public void onDelete(Node graph, Node subject, Node predicate, Node object) throws IOException {
+        writingListener.onDelete(graph, subject, predicate, object);
+    }
+
+    @Override
+    public void onCommit() throws IOException {
+        writingListener.onCommit();
+        writingListener = null;
+        commitRecord();
+    }
+
+    @Override
+    public void onAbort() throws IOException {
+        writingListener.onAbort();
+        writingListener = null;
+        // The space occupied by the aborted record will be reused by the next one
+        recordStream = null;
+        if (groupCommit != null) {
+            groupCommit.aborted();
+        }
+    }
+
+    /**
+     * Appends an already encoded transaction.
+     *
+     * @param record the transaction in the codec's format
+     */
+    void append(InputStream record) throws IOException {
+        beginRecord();
+        record.transferTo(recordStream);
+        commitRecord();
+    }
+
+    /**
+     * In the group commit mode waits until the current thread's last commit is synced
+     */
+    @Override
+    public void awaitDurability() throws IOException {
+        var commit = lastCommit.get();
+        if (groupCommit != null && commit != null) {
+            lastCommit.remove();
+            groupCommit.await(commit);
+        }
+    }
+
+    /**
+     * @return group commit statistics or null if the group commit mode is disabled
+     */
+    public GroupCommit.Stats getGroupCommitStats() {
+        return groupCommit == null ? null : groupCommit.getStats();
+    }
+
+    @Override
+    public long size() {
+        return current.firstIndex + current.count;
+    }
+
+    @Override
+    public void read(long index, TransactionListener listener) throws IOException {
+        try (var in = new ByteArrayInputStream(readRecord(index))) {
+            codec.read(in, listener);
+        }
+    }
+
+    /**
+     * Reads a transaction as it's stored, without decoding it.
+     */
+    byte[] readRecord(long index) throws IOException {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("No such transaction: " + (index + 1));
+        }
+        var segment = segments.floorEntry(index);
+        if (segment == null) {
+            throw new FileNotFoundException("Transaction #" + (index + 1) + " is archived");
+        }
+        return segment.getValue().read(index);
+    }
+
+    @Override
+    public boolean isArchived(long index) {
+        return segments.floorEntry(index) == null;
+    }
+
+    @Override
+    public synchronized void archive(long before, File destination) throws IOException {
+        checkWritable();
+        for (var entry = segments.firstEntry(); entry != null && entry.getValue() != current; entry = segments.firstEntry()) {
+            var next = segments.higherKey(entry.getKey());
+            if (next > before) {
+                break;
+            }
+            var segment = entry.getValue();
+            segments.remove(entry.getKey());
+            segment.close();
+            destination.mkdirs();
+            move(segment.dataFile.toPath(), new File(destination, segment.dataFile.getName()).toPath(), ATOMIC_MOVE);
+            move(segment.indexFile.toPath(), new File(destination, segment.indexFile.getName()).toPath(), ATOMIC_MOVE);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (groupCommit != null) {
+            groupCommit.close();
+        }
+        closeSegments();
+    }
+
+    private synchronized void closeSegments() throws IOException {
+        if (syncScheduler != null) {
+            syncScheduler.shutdownNow();
+        }
+        syncPending();
+        for (var segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("The transaction log in " + directory + " is opened read-only");
+        }
+    }
+
+    private synchronized void beginRecord() throws IOException {
+        checkWritable();
+        if (current.end >= segmentSize) {
+            current.sync();
+            current = newSegment(size());
+        }
+        recordStream = new RecordOutputStream(current.data, current.end);
+        if (groupCommit != null) {
+            groupCommit.begun();
+        }
+    }
+
+    private synchronized void commitRecord() throws IOException {
+        var length = recordStream.finish();
+        current.append(recordStream.start, length, recordStream.checksum());
+        recordStream = null;
+
+        if (groupCommit != null) {
+            lastCommit.set(groupCommit.committed());
+        } else if (++unsyncedCommits >= syncBatchSize) {
+            current.sync();
+            unsyncedCommits = 0;
+        }
+    }
+
+    private synchronized void syncPending() {
+        if (unsyncedCommits > 0) {
+            try {
+                current.sync();
+                unsyncedCommits = 0;
+            } catch (IOException e) {
+                log.error("Error syncing the transaction log", e);
+            }
+        }
+    }
+
+    private Segment newSegment(long firstIndex) throws IOException {
+        var segment = new Segment(directory, firstIndex, false);
+        // Pre-allocate the segment file, so appending doesn't need to grow it
+        try (var raf = new RandomAccessFile(segment.dataFile, "rw")) {
+            raf.setLength(segmentSize);
+        }
+        segments.put(firstIndex, segment);
+        return segment;
+    }
+
+    private static long checksum(int length, byte[] payload, int payloadLength) {
+        var crc = new CRC32();
+        crc.update(payload, 0, payloadLength);
+        crc.update(ByteBuffer.allocate(4).putInt(0, length));
+        return crc.getValue();
+    }
+
+    private static class Segment implements Closeable {
+        final long firstIndex;
+        final File dataFile;
+        final File indexFile;
+        final FileChannel data;
+        final FileChannel index;
+        volatile long count;
+        long end;
+
+        Segment(File directory, long firstIndex, boolean readOnly) throws IOException {
+            this.firstIndex = firstIndex;
+            var name = SEGMENT_PREFIX + String.format("%020d", firstIndex);
+            this.dataFile = new File(directory, name + LOG_SUFFIX);
+            this.indexFile = new File(directory, name + INDEX_SUFFIX);
+            var options = readOnly ? Set.of(READ) : Set.of(CREATE, READ, WRITE);
+            this.data = FileChannel.open(dataFile.toPath(), options);
+            this.index = FileChannel.open(indexFile.toPath(), options);
+            this.count = index.size() / INDEX_ENTRY_SIZE;
+        }
+
+        /**
+         * Drops records which were not completely written and finds the end of the last record.
+         *
+         * @param truncate whether to remove the dropped records from the index file
+         */
+        void recover(boolean truncate) throws IOException {
+            var n = count;
+            while (n > 0 && !isValid(offset(n - 1))) {
+                log.warn("Dropping incomplete transaction #{} from the transaction log", firstIndex + n);
+                n--;
+            }
+            if (truncate) {
+                index.truncate(n * INDEX_ENTRY_SIZE);
+            }
+            count = n;
+            end = n == 0 ? 0 : offset(n - 1) + HEADER_SIZE + header(offset(n - 1)).getInt(0);
+        }
+
+        private boolean isValid(long offset) throws IOException {
+            if (offset + HEADER_SIZE > data.size()) {
+                return false;
+            }
+            var header = header(offset);
+            var length = header.getInt(0);
+            if (length < 0 || offset + HEADER_SIZE + length > data.size()) {
+                return false;
+            }
+            var payload = ByteBuffer.allocate(length);
+            readFully(data, payload, offset + HEADER_SIZE);
+            return checksum(length, payload.array(), length) == (header.getInt(4) & 0xFFFFFFFFL);
+        }
+
+        long offset(long i) throws IOException {
+            var buffer = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            readFully(index, buffer, i * INDEX_ENTRY_SIZE);
+            return buffer.getLong(0);
+        }
+
+        ByteBuffer header(long offset) throws IOException {
+            var header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(data, header, offset);
+            return header;
+        }
+
+        byte[] read(long transactionIndex) throws IOException {
+            var offset = offset(transactionIndex - firstIndex);
+            var payload = ByteBuffer.allocate(header(offset).getInt(0));
+            readFully(data, payload, offset + HEADER_SIZE);
+            return payload.array();
+        }
+
+        void append(long start, int length, long checksum) throws IOException {
+            var header = ByteBuffer.allocate(HEADER_SIZE).putInt(length).putInt((int) checksum).flip();
+            writeFully(data, header, start);
+            var entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE).putLong(start).flip();
+            writeFully(index, entry, count * INDEX_ENTRY_SIZE);
+            end = start + HEADER_SIZE + length;
+            count++;
+        }
+
+        void sync() throws IOException {
+            data.force(false);
+            index.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+            index.close();
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+    }
+
+    /**
+     * Writes a record's payload after the space reserved for its header, computing its length and checksum.
+     */
+    private static class RecordOutputStream extends OutputStream {
+        final long start;
+        private final OutputStream out;
+        private final CRC32 crc = new CRC32();
+        private int length;
+
+        RecordOutputStream(FileChannel channel, long start) throws IOException {
+            this.start = start;
+            channel.position(start + HEADER_SIZE);
+            this.out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            crc.update(b, off, len);
+            length += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        // The underlying channel must remain open
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+
+        int finish() throws IOException {
+            out.flush();
+            return length;
+        }
+
+        long checksum() {
+            crc.update(ByteBuffer.allocate(4).putInt(0, length));
+            return crc.getValue();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * Summary of a logged transaction, see {@link IndexedTransactionLog}
+ */
+@Data
+public class TransactionInfo {
+    /**
+     * 0-based number of the transaction in the log
+     */
+    private long index;
+    private Instant timestamp;
+    private String userId;
+    private String userName;
+    private int added;
+    private int deleted;
+}
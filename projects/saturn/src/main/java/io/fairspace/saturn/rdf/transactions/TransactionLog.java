@@ -1,9 +1,37 @@
 package io.fairspace.saturn.rdf.transactions;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 
-public interface TransactionLog extends TransactionListener {
+public interface TransactionLog extends TransactionListener, Closeable {
     long size();
 
     void read(long index, TransactionListener listener) throws IOException;
+
+    /**
+     * Called after a transaction has been committed to the dataset.
+     * Blocks until the transaction is durably stored in the log, if the log defers that.
+     */
+    default void awaitDurability() throws IOException {
+    }
+
+    /**
+     * Moves the parts of the log containing only transactions preceding the given index to another directory.
+     * The archived transactions can't be read anymore, but the numbering of the remaining transactions is kept.
+     * The part containing the latest transactions is never archived.
+     */
+    default void archive(long before, File destination) throws IOException {
+    }
+
+    /**
+     * Checks whether a committed transaction is archived, without reading it.
+     */
+    default boolean isArchived(long index) {
+        return false;
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
 }
@@ -0,0 +1,51 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import io.fairspace.saturn.config.*;
+import lombok.extern.log4j.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import static io.fairspace.saturn.config.ConfigLoader.CONFIG;
+
+/**
+ * Converts a transaction log stored in volumes and chapters (see {@link LocalTransactionLog})
+ * into a segmented transaction log (see {@link SegmentedTransactionLog}).
+ * Transactions are copied as they are, without decoding them.
+ * The migration can be interrupted and started again: it continues after the last copied transaction.
+ * <p>
+ * Usage: java -cp saturn.jar io.fairspace.saturn.rdf.transactions.TransactionLogMigration [source] [destination]
+ * Both directories default to the configured transaction log path.
+ */
+@Log4j2
+public class TransactionLogMigration {
+    public static void migrate(File source, File destination, Config.Jena.TransactionLogSegments segments) throws IOException {
+        var codec = new FormatDetectingTransactionCodec(new SparqlTransactionCodec());
+        var from = new LocalTransactionLog(source, codec);
+        var bulkLoading = new Config.Jena.TransactionLogSegments();
+        bulkLoading.segmentSize = segments.segmentSize;
+        bulkLoading.syncBatchSize = Integer.MAX_VALUE;
+        try (var to = new SegmentedTransactionLog(destination, codec, bulkLoading)) {
+            var total = from.size();
+            log.info("Migrating {} transactions from {} to {}", total - to.size(), source, destination);
+            var prevProgress = -1L;
+            for (var i = to.size(); i < total; i++) {
+                try (var record = from.openRecord(i)) {
+                    to.append(record);
+                }
+                var progress = (100 * (i + 1)) / total;
+                if (progress > prevProgress) {
+                    log.info("Progress: {}%", progress);
+                    prevProgress = progress;
+                }
+            }
+        }
+        log.info("Migration is finished. The volume directories in {} can be archived.", source);
+    }
+
+    public static void main(String[] args) throws IOException {
+        var source = args.length > 0 ? new File(args[0]) : CONFIG.jena.transactionLogPath;
+        var destination = args.length > 1 ? new File(args[1]) : source;
+        migrate(source, destination, CONFIG.jena.transactionLogSegments);
+    }
+}
@@ -0,0 +1,94 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import io.fairspace.saturn.services.users.*;
+import lombok.extern.log4j.*;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static java.lang.System.currentTimeMillis;
+import static javax.servlet.http.HttpServletResponse.*;
+
+/**
+ * Streams the transaction log to replicas and other change consumers.
+ * GET ?from=N&wait=T returns committed transactions starting with index N (0-based) as NDJSON
+ * (see {@link NdjsonTransactionCodec}), one line per transaction, in the log's order.
+ * The response is kept open and new transactions are sent as soon as they are committed,
+ * until no new transactions arrive for T milliseconds (30 seconds by default).
+ * The consumer then reconnects with N increased by the number of received lines.
+ * Only administrators can read the log.
+ */
+@Log4j2
+public class TransactionLogServlet extends HttpServlet {
+    private static final long DEFAULT_WAIT_MILLIS = 30_000;
+    private static final long MAX_WAIT_MILLIS = 300_000;
+
+    private final TxnLogDatasetGraph dsg;
+    private final UserService userService;
+    private final NdjsonTransactionCodec codec = new NdjsonTransactionCodec();
+
+    public TransactionLogServlet(TxnLogDatasetGraph dsg, UserService userService) {
+        this.dsg = dsg;
+        this.userService = userService;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+        if (!userService.currentUser().isAdmin()) {
+            res.sendError(SC_FORBIDDEN);
+            return;
+        }
+
+        long next;
+        long wait;
+        try {
+            next = parameter(req, "from", 0);
+            wait = Math.min(parameter(req, "wait", DEFAULT_WAIT_MILLIS), MAX_WAIT_MILLIS);
+        } catch (NumberFormatException e) {
+            res.sendError(SC_BAD_REQUEST, "Invalid parameter: " + e.getMessage());
+            return;
+        }
+        if (next < 0) {
+            res.sendError(SC_BAD_REQUEST, "Invalid parameter: from");
+            return;
+        }
+
+        var txnLog = dsg.getTransactionLog();
+        if (next < dsg.getCommittedTransactions() && txnLog.isArchived(next)) {
+            res.sendError(SC_GONE, "Transaction #" + (next + 1) + " is archived");
+            return;
+        }
+
+        res.setStatus(SC_OK);
+        res.setContentType(NdjsonTransactionCodec.CONTENT_TYPE);
+        res.setCharacterEncoding("UTF-8");
+        var out = res.getOutputStream();
+        try {
+            while (true) {
+                var available = dsg.getCommittedTransactions();
+                if (next < available) {
+                    var listener = codec.write(out);
+                    while (next < available) {
+                        txnLog.read(next++, listener);
+                    }
+                    out.flush();
+                    res.flushBuffer();
+                }
+                if (!dsg.awaitCommittedTransactions(next + 1, wait)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.debug("Transaction log consumer disconnected at transaction #{}", next, e);
+        }
+    }
+
+    private static long parameter(HttpServletRequest req, String name, long defaultValue) {
+        var value = req.getParameter(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+}
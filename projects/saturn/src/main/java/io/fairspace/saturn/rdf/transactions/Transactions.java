@@ -8,8 +8,16 @@ import org.apache.jena.rdf.model.Model;
 public interface Transactions extends AutoCloseable {
     <R, E extends Exception> R calculateWrite(ThrowingFunction<? super Model, R, E> job) throws E;
 
+    default <R, E extends Exception> R calculateWrite(WritePriority priority, ThrowingFunction<? super Model, R, E> job) throws E {
+        return calculateWrite(job);
+    }
+
     default <E extends Exception> void executeWrite(ThrowingConsumer<? super Model, E> job) throws E {
-        calculateWrite(model -> {
+        executeWrite(WritePriority.INTERACTIVE, job);
+    }
+
+    default <E extends Exception> void executeWrite(WritePriority priority, ThrowingConsumer<? super Model, E> job) throws E {
+        calculateWrite(priority, model -> {
             job.accept(model);
             return null;
         });
@@ -9,25 +9,39 @@ import org.apache.jena.query.*;
 import org.apache.jena.sparql.core.*;
 
 import java.util.Date;
-import java.util.*;
 
 @Slf4j
 public class TxnIndexDatasetGraph extends AbstractChangesAwareDatasetGraph {
     private final DatasetGraph dsg;
     private final ViewStoreClientFactory viewStoreClientFactory;
-    // One set of updated subjects if write transactions are handled sequentially.
-    // If many write transactions can be active simultaneously, this set needs to be
-    // tied to the active thread.
-    private final Set<Node> updatedSubjects = new HashSet<>();
+    private final TransactionLog transactionLog;
+    // Subjects updated in the current write transaction. Jena binds transactions to threads,
+    // so the set is bound to the thread as well, and concurrent writers don't share it.
+    private final ThreadLocal<NodeSet> updatedSubjects = new ThreadLocal<>();
 
     public TxnIndexDatasetGraph(DatasetGraph dsg, ViewStoreClientFactory viewStoreClientFactory) {
+        this(dsg, viewStoreClientFactory, null);
+    }
+
+    /**
+     * @param transactionLog the log the transactions are written to before they're committed here (by a
+     *                       {@link TxnLogDatasetGraph} wrapping this one). If set, its size is stored
+     *                       as the number of transactions applied to the view database.
+     */
+    public TxnIndexDatasetGraph(DatasetGraph dsg, ViewStoreClientFactory viewStoreClientFactory, TransactionLog transactionLog) {
         super(dsg);
         this.dsg = dsg;
         this.viewStoreClientFactory = viewStoreClientFactory;
+        this.transactionLog = transactionLog;
     }
 
     private void markSubject(Node subject) {
-        updatedSubjects.add(subject);
+        var subjects = updatedSubjects.get();
+        if (subjects == null) {
+            subjects = new NodeSet();
+            updatedSubjects.set(subjects);
+        }
+        subjects.add(subject);
     }
 
     /**
@@ -43,27 +57,35 @@ public class TxnIndexDatasetGraph extends AbstractChangesAwareDatasetGraph {
     @Override
     public void begin(TxnType type) {
         begin(TxnType.convert(type));
-        if (isInWriteTransaction()) {
-            updatedSubjects.clear();
+    }
+
+    @Override
+    public void begin(ReadWrite readWrite) {
+        super.begin(readWrite);
+        if (readWrite == ReadWrite.WRITE) {
+            updatedSubjects.remove();
         }
     }
 
     @SneakyThrows
     @Override
     public void commit() {
-        if (isInWriteTransaction()) {
-            log.debug("Commit updated subjects: {}", updatedSubjects);
+        var subjects = updatedSubjects.get();
+        updatedSubjects.remove();
+        if (isInWriteTransaction() && subjects != null) {
+            log.debug("Commit {} updated subjects", subjects.size());
             var start = new Date().getTime();
             try (var viewStoreClient = viewStoreClientFactory.build();
                  var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
-                updatedSubjects.forEach(viewUpdater::updateSubject);
+                viewUpdater.updateSubjects(subjects);
+                if (transactionLog != null) {
+                    viewStoreClient.setAppliedTransactions(transactionLog.size());
+                }
                 viewUpdater.commit();
-                log.debug("Updating {} subjects took {}ms", updatedSubjects.size(), new Date().getTime() - start);
+                log.debug("Updating {} subjects took {}ms", subjects.size(), new Date().getTime() - start);
             } catch(Exception e) {
-                log.error("Updating {} subjects failed after {}ms", updatedSubjects.size(), new Date().getTime() - start, e);
+                log.error("Updating {} subjects failed after {}ms", subjects.size(), new Date().getTime() - start, e);
                 throw e;
-            } finally {
-                updatedSubjects.clear();
             }
         }
         super.commit();
@@ -72,9 +94,9 @@ public class TxnIndexDatasetGraph extends AbstractChangesAwareDatasetGraph {
     @Override
     public void abort() {
         super.abort();
-        if (isInWriteTransaction()) {
+        if (updatedSubjects.get() != null) {
             log.debug("Aborting transaction");
-            updatedSubjects.clear();
+            updatedSubjects.remove();
         }
     }
 
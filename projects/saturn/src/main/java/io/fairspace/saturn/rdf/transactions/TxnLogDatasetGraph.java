@@ -1,5 +1,7 @@
 package io.fairspace.saturn.rdf.transactions;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.pivovarit.function.ThrowingRunnable;
 import io.fairspace.saturn.rdf.AbstractChangesAwareDatasetGraph;
 import lombok.extern.log4j.*;
@@ -10,6 +12,13 @@ import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.QuadAction;
 import org.keycloak.representations.AccessToken;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
 import static io.fairspace.saturn.auth.RequestContext.getAccessToken;
 import static java.lang.System.currentTimeMillis;
 
@@ -17,14 +26,81 @@ import static java.lang.System.currentTimeMillis;
 public class TxnLogDatasetGraph extends AbstractChangesAwareDatasetGraph {
     private static final String ERROR_MSG =
             "Catastrophic failure. Shutting down. The system requires admin's intervention.";
+    private static final int MAX_TRACKED_WRITERS = 10_000;
 
     private final TransactionLog transactionLog;
     private volatile AccessToken user;
-
+    private final Object commitMonitor = new Object();
+    private volatile long committedTransactions;
+    private final Deque<Closeable> dependents = new ArrayDeque<>();
+    // Users who made changes in the current write transaction
+    private final Set<String> writers = new HashSet<>();
+    private final Cache<String, Long> lastWrites = CacheBuilder.newBuilder().maximumSize(MAX_TRACKED_WRITERS).build();
 
     public TxnLogDatasetGraph(DatasetGraph dsg, TransactionLog transactionLog) {
         super(dsg);
         this.transactionLog = transactionLog;
+        this.committedTransactions = transactionLog.size();
+    }
+
+    /**
+     * @return the number of logged transactions which are committed to the dataset as well.
+     * A read transaction started after calling this method sees at least these transactions.
+     */
+    public long getCommittedTransactions() {
+        return committedTransactions;
+    }
+
+    /**
+     * @return the number of committed transactions up to and including the last one with changes of the user,
+     * or 0 if the user made no changes recently
+     */
+    public long getLastWrite(String userId) {
+        var lastWrite = lastWrites.getIfPresent(userId);
+        return lastWrite == null ? 0 : lastWrite;
+    }
+
+    /**
+     * Waits until the given number of transactions is committed or the timeout expires.
+     *
+     * @return true if the transactions are committed
+     */
+    public boolean awaitCommittedTransactions(long count, long timeoutMillis) throws InterruptedException {
+        var deadline = currentTimeMillis() + timeoutMillis;
+        synchronized (commitMonitor) {
+            while (committedTransactions < count) {
+                var remaining = deadline - currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                commitMonitor.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Starts a read transaction.
+     *
+     * @return the number of logged transactions which the read transaction sees, exactly
+     */
+    public long beginRead() {
+        synchronized (commitMonitor) {
+            begin(ReadWrite.READ);
+            return committedTransactions;
+        }
+    }
+
+    public TransactionLog getTransactionLog() {
+        return transactionLog;
+    }
+
+    /**
+     * Registers a resource using this dataset, e.g. a background task. It's closed before the dataset,
+     * in the reverse order of registration.
+     */
+    public synchronized void closeOnClose(Closeable dependent) {
+        dependents.push(dependent);
     }
 
     /**
@@ -36,7 +112,11 @@ public class TxnLogDatasetGraph extends AbstractChangesAwareDatasetGraph {
             var currentUser = getAccessToken();
             if (currentUser != user) {
                 user = currentUser;
-                transactionLog.onMetadata(user.getSubject(), user.getName(), currentTimeMillis());
+                // Changes without a user, e.g. by system tasks, are logged without user metadata
+                transactionLog.onMetadata(user != null ? user.getSubject() : null, user != null ? user.getName() : null, currentTimeMillis());
+                if (user != null && user.getSubject() != null) {
+                    writers.add(user.getSubject());
+                }
             }
             switch (action) {
                 case ADD -> transactionLog.onAdd(graph, subject, predicate, object);
@@ -60,6 +140,7 @@ public class TxnLogDatasetGraph extends AbstractChangesAwareDatasetGraph {
 
         if (readWrite == ReadWrite.WRITE) { // a write transaction => be ready to collect changes
             user = null;
+            writers.clear();
             critical(transactionLog::onBegin);
         }
     }
@@ -69,7 +150,18 @@ public class TxnLogDatasetGraph extends AbstractChangesAwareDatasetGraph {
         if (isInWriteTransaction()) {
             critical(() -> {
                 transactionLog.onCommit();
-                super.commit();
+                // The transaction must be durable in the log before it's applied to the dataset
+                transactionLog.awaitDurability();
+                // A read transaction started by beginRead sees either both or neither
+                synchronized (commitMonitor) {
+                    super.commit();
+                    committedTransactions++;
+                    for (var writer : writers) {
+                        lastWrites.put(writer, committedTransactions);
+                    }
+                    commitMonitor.notifyAll();
+                }
+                writers.clear();
             });
         } else {
             super.commit();
@@ -85,6 +177,25 @@ public class TxnLogDatasetGraph extends AbstractChangesAwareDatasetGraph {
         super.abort();
     }
 
+    @Override
+    public void close() {
+        synchronized (this) {
+            while (!dependents.isEmpty()) {
+                try {
+                    dependents.pop().close();
+                } catch (IOException e) {
+                    log.error("Error closing a dependent of the dataset", e);
+                }
+            }
+        }
+        super.close();
+        try {
+            transactionLog.close();
+        } catch (IOException e) {
+            log.error("Error closing the transaction log", e);
+        }
+    }
+
     private boolean isInWriteTransaction() {
         return transactionMode() == ReadWrite.WRITE;
     }
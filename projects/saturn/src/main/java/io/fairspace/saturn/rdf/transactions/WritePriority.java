@@ -0,0 +1,19 @@
+package io.fairspace.saturn.rdf.transactions;
+
+/**
+ * Priority classes of write tasks. Implementations of {@link Transactions} executing writes one by one may ignore them.
+ */
+public enum WritePriority {
+    /**
+     * Small writes a user is waiting for, e.g. creating a directory or updating metadata of a resource
+     */
+    INTERACTIVE,
+    /**
+     * Large writes, e.g. uploading files or a metadata CSV
+     */
+    BULK,
+    /**
+     * Background writes nobody is waiting for
+     */
+    MAINTENANCE
+}
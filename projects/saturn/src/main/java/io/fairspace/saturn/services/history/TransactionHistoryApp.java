@@ -0,0 +1,65 @@
+package io.fairspace.saturn.services.history;
+
+import io.fairspace.saturn.services.BaseApp;
+import spark.Request;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+import static io.fairspace.saturn.rdf.transactions.NdjsonTransactionCodec.CONTENT_TYPE;
+import static org.eclipse.jetty.http.MimeTypes.Type.APPLICATION_JSON;
+import static spark.Spark.get;
+
+/**
+ * GET /?from=...&to=...&user=...&limit=...  lists matching transactions
+ * GET /changes?from=...&to=...&user=...&limit=...  returns the changes of matching transactions as NDJSON
+ * from and to are ISO-8601 instants, e.g. 2021-03-02T10:00:00Z
+ */
+public class TransactionHistoryApp extends BaseApp {
+    private static final int DEFAULT_LIMIT = 100;
+
+    private final TransactionHistoryService historyService;
+
+    public TransactionHistoryApp(String basePath, TransactionHistoryService historyService) {
+        super(basePath);
+        this.historyService = historyService;
+    }
+
+    @Override
+    protected void initApp() {
+        get("/", (req, res) -> {
+            res.type(APPLICATION_JSON.asString());
+            return mapper.writeValueAsString(historyService.list(
+                    instant(req, "from"), instant(req, "to"), req.queryParams("user"), limit(req)));
+        });
+        get("/changes", (req, res) -> {
+            var from = instant(req, "from");
+            var to = instant(req, "to");
+            var limit = limit(req);
+            res.type(CONTENT_TYPE);
+            historyService.replay(from, to, req.queryParams("user"), limit, res.raw().getOutputStream());
+            return "";
+        });
+    }
+
+    private static Instant instant(Request req, String name) {
+        var value = req.queryParams(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid parameter " + name + ": " + value);
+        }
+    }
+
+    private static int limit(Request req) {
+        var value = req.queryParams("limit");
+        try {
+            return value == null ? DEFAULT_LIMIT : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid parameter limit: " + value);
+        }
+    }
+}
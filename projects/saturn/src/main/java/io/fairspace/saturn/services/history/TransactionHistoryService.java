@@ -0,0 +1,52 @@
+package io.fairspace.saturn.services.history;
+
+import io.fairspace.saturn.rdf.transactions.*;
+import io.fairspace.saturn.services.*;
+import io.fairspace.saturn.services.users.*;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Lists and replays logged transactions by time range or user, using the transaction log's index.
+ * Available to administrators only.
+ */
+public class TransactionHistoryService {
+    public static final int MAX_LIMIT = 10_000;
+
+    private final UserService userService;
+    private final IndexedTransactionLog txnLog;
+
+    public TransactionHistoryService(@NonNull UserService userService, @NonNull IndexedTransactionLog txnLog) {
+        this.userService = userService;
+        this.txnLog = txnLog;
+    }
+
+    public List<TransactionInfo> list(Instant from, Instant to, String userId, int limit) throws IOException {
+        checkAdmin();
+        return txnLog.find(from, to, userId, Math.min(limit, MAX_LIMIT));
+    }
+
+    /**
+     * Writes the changes of the matching transactions as NDJSON (see {@link NdjsonTransactionCodec}),
+     * one line per transaction, in the order of the log.
+     * Only the matching transactions are read from the log.
+     */
+    public void replay(Instant from, Instant to, String userId, int limit, OutputStream out) throws IOException {
+        var transactions = list(from, to, userId, limit);
+        var listener = new NdjsonTransactionCodec().write(out);
+        for (var txn : transactions) {
+            txnLog.read(txn.getIndex(), listener);
+        }
+        out.flush();
+    }
+
+    private void checkAdmin() {
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+    }
+}
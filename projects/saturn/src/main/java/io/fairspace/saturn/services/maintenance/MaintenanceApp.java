@@ -3,6 +3,8 @@ package io.fairspace.saturn.services.maintenance;
 import io.fairspace.saturn.services.BaseApp;
 
 import static javax.servlet.http.HttpServletResponse.*;
+import static org.eclipse.jetty.http.MimeTypes.Type.APPLICATION_JSON;
+import static spark.Spark.get;
 import static spark.Spark.post;
 
 public class MaintenanceApp extends BaseApp {
@@ -21,5 +23,9 @@ public class MaintenanceApp extends BaseApp {
             res.status(SC_NO_CONTENT);
             return "";
         });
+        get("/reindex", (req, res) -> {
+            res.type(APPLICATION_JSON.asString());
+            return mapper.writeValueAsString(maintenanceService.getReindexProgress());
+        });
     }
 }
@@ -1,12 +1,14 @@
 package io.fairspace.saturn.services.maintenance;
 
-import io.fairspace.saturn.config.ConfigLoader;
+import io.fairspace.saturn.config.ViewsConfig;
 import io.fairspace.saturn.services.*;
 import io.fairspace.saturn.services.users.*;
 import io.fairspace.saturn.services.views.*;
 import lombok.NonNull;
 import lombok.extern.log4j.Log4j2;
+import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.query.Dataset;
+import org.apache.jena.query.ReadWrite;
 
 import java.sql.SQLException;
 import java.util.*;
@@ -19,6 +21,7 @@ public class MaintenanceService {
     private final UserService userService;
     private final Dataset dataset;
     private final ViewStoreClientFactory viewStoreClientFactory;
+    private volatile List<ReindexJob> reindexJobs = List.of();
 
     public MaintenanceService(@NonNull UserService userService, @NonNull Dataset dataset, ViewStoreClientFactory viewStoreClientFactory) {
         this.userService = userService;
@@ -51,18 +54,136 @@ public class MaintenanceService {
         });
     }
 
+    /**
+     * @return the jobs of the running or the last reindexing task
+     */
+    public List<ReindexJob> getReindexProgress() {
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+        return reindexJobs;
+    }
+
+    /**
+     * Builds the index in shadow tables while the live tables stay in use, and swaps them in when complete.
+     * The data of every view, value set column and join is copied in a separate job,
+     * the jobs run concurrently (viewDatabase.reindexParallelism).
+     * Subjects updated during the rebuild are updated again after the swap.
+     */
     public void recreateIndex() {
-        try (var viewStoreClient = viewStoreClientFactory.build();
-             var viewUpdater = new ViewUpdater(viewStoreClient, dataset.asDatasetGraph())){
-            var start = new Date().getTime();
-            // Index entities
-            for (var view : ConfigLoader.VIEWS_CONFIG.views) {
-                viewUpdater.recreateIndexForView(viewStoreClient, view);
+        var start = new Date().getTime();
+        try {
+            viewStoreClientFactory.createShadowTables();
+        } catch (SQLException e) {
+            abandonShadowTables();
+            throw new RuntimeException("Failed to recreate index", e);
+        }
+
+        var jobs = createJobs(viewStoreClientFactory.viewsConfig.views);
+        reindexJobs = jobs;
+        var parallelism = Math.max(1, viewStoreClientFactory.viewDatabase.reindexParallelism);
+        var executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            var futures = jobs.stream().map(job -> executor.submit(() -> run(job))).toList();
+            for (var future : futures) {
+                future.get();
             }
-            viewUpdater.commit();
-            log.info("View index recreated in {}ms.", new Date().getTime() - start);
+        } catch (InterruptedException | ExecutionException e) {
+            // Stop the other jobs before dropping their tables
+            executor.shutdownNow();
+            abandonShadowTables();
+            throw new RuntimeException("Failed to recreate index", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        var failed = jobs.stream().filter(job -> job.getStatus() == ReindexJob.Status.FAILED).count();
+        if (failed > 0) {
+            abandonShadowTables();
+            throw new RuntimeException("Failed to recreate index: " + failed + " of " + jobs.size() + " jobs failed");
+        }
+
+        Set<String> updated;
+        try {
+            // Cleans up after itself if it fails
+            updated = viewStoreClientFactory.swapShadowTables();
         } catch (SQLException e) {
             throw new RuntimeException("Failed to recreate index", e);
         }
+        try {
+            updateSubjects(updated);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to update the subjects changed during the rebuild", e);
+        }
+        log.info("View index recreated in {}ms with {} jobs on {} threads.", new Date().getTime() - start, jobs.size(), parallelism);
+    }
+
+    /**
+     * Stops tracking updated subjects and drops the shadow tables of a failed rebuild, so they don't waste space.
+     */
+    private void abandonShadowTables() {
+        viewStoreClientFactory.stopTrackingUpdates();
+        try {
+            viewStoreClientFactory.dropShadowTables();
+        } catch (SQLException e) {
+            log.error("Failed to drop the shadow tables of the failed rebuild", e);
+        }
+    }
+
+    private static List<ReindexJob> createJobs(List<ViewsConfig.View> views) {
+        var jobs = new ArrayList<ReindexJob>();
+        for (var view : views) {
+            for (var type : view.types) {
+                jobs.add(new ReindexJob(view.name, "Rows of type " + type,
+                        viewUpdater -> viewUpdater.copyValuesForType(view, type)));
+                for (var column : view.columns) {
+                    if (column.type.isSet()) {
+                        jobs.add(new ReindexJob(view.name, "Values of column " + column.name + " of type " + type,
+                                viewUpdater -> viewUpdater.copyValueSetsForColumn(view, type, column)));
+                    }
+                }
+                if (view.join != null) {
+                    for (var join : view.join) {
+                        if (!join.reverse) {
+                            jobs.add(new ReindexJob(view.name, "Links to " + join.view + " of type " + type,
+                                    viewUpdater -> viewUpdater.copyLinks(view, type, join)));
+                        }
+                    }
+                }
+            }
+        }
+        return List.copyOf(jobs);
+    }
+
+    private void updateSubjects(Set<String> subjects) throws SQLException {
+        if (subjects.isEmpty()) {
+            return;
+        }
+        log.info("Updating {} subjects changed during the rebuild", subjects.size());
+        var dsg = dataset.asDatasetGraph();
+        try (var viewStoreClient = viewStoreClientFactory.build();
+             var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+            dsg.begin(ReadWrite.READ);
+            try {
+                viewUpdater.updateSubjects(subjects.stream().map(NodeFactory::createURI).toList());
+            } finally {
+                dsg.end();
+            }
+            viewUpdater.commit();
+        }
+    }
+
+    private void run(ReindexJob job) {
+        job.start();
+        try (var viewStoreClient = viewStoreClientFactory.buildShadow();
+             var viewUpdater = new ViewUpdater(viewStoreClient, dataset.asDatasetGraph())) {
+            var rows = job.getCopy().copy(viewUpdater);
+            viewUpdater.commit();
+            job.finish(rows);
+            log.debug("Reindex job '{}' of view {} copied {} rows in {}ms", job.getName(), job.getView(), rows, job.getDurationMillis());
+        } catch (Exception e) {
+            log.error("Reindex job '{}' of view {} failed", job.getName(), job.getView(), e);
+            job.fail(e);
+        }
     }
 }
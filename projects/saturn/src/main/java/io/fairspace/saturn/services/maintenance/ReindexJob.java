@@ -0,0 +1,62 @@
+package io.fairspace.saturn.services.maintenance;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.fairspace.saturn.services.views.ViewUpdater;
+import lombok.Getter;
+
+import java.sql.SQLException;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * A part of a full reindex copying one kind of data of a view: the rows of a type,
+ * the values of a value set column or the links to a joined view.
+ * Jobs run concurrently, each on its own database connection and in its own read transaction.
+ */
+@Getter
+public class ReindexJob {
+    public enum Status {
+        PENDING, RUNNING, DONE, FAILED
+    }
+
+    @FunctionalInterface
+    interface Copy {
+        /**
+         * @return the number of copied rows
+         */
+        int copy(ViewUpdater viewUpdater) throws SQLException;
+    }
+
+    private final String view;
+    private final String name;
+    @JsonIgnore
+    private final Copy copy;
+    private volatile Status status = Status.PENDING;
+    private volatile int rows;
+    private volatile long startedAt;
+    private volatile long durationMillis;
+    private volatile String error;
+
+    ReindexJob(String view, String name, Copy copy) {
+        this.view = view;
+        this.name = name;
+        this.copy = copy;
+    }
+
+    void start() {
+        startedAt = currentTimeMillis();
+        status = Status.RUNNING;
+    }
+
+    void finish(int rows) {
+        this.rows = rows;
+        durationMillis = currentTimeMillis() - startedAt;
+        status = Status.DONE;
+    }
+
+    void fail(Exception e) {
+        error = e.getMessage();
+        durationMillis = currentTimeMillis() - startedAt;
+        status = Status.FAILED;
+    }
+}
@@ -0,0 +1,23 @@
+package io.fairspace.saturn.services.metrics;
+
+import io.fairspace.saturn.services.BaseApp;
+
+import static org.eclipse.jetty.http.MimeTypes.Type.APPLICATION_JSON;
+import static spark.Spark.get;
+
+public class MetricsApp extends BaseApp {
+    private final MetricsService metricsService;
+
+    public MetricsApp(String basePath, MetricsService metricsService) {
+        super(basePath);
+        this.metricsService = metricsService;
+    }
+
+    @Override
+    protected void initApp() {
+        get("/", (req, res) -> {
+            res.type(APPLICATION_JSON.asString());
+            return mapper.writeValueAsString(metricsService.getMetrics());
+        });
+    }
+}
@@ -0,0 +1,42 @@
+package io.fairspace.saturn.services.metrics;
+
+import io.fairspace.saturn.services.*;
+import io.fairspace.saturn.services.users.*;
+import lombok.NonNull;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Collects operational metrics of Saturn's components.
+ * Components register a supplier of a metric's current value (a number or a statistics object),
+ * which is evaluated on every request.
+ */
+public class MetricsService {
+    private final UserService userService;
+    private final Map<String, Supplier<?>> metrics = new ConcurrentSkipListMap<>();
+
+    public MetricsService(@NonNull UserService userService) {
+        this.userService = userService;
+    }
+
+    public void register(String name, Supplier<?> metric) {
+        metrics.put(name, metric);
+    }
+
+    public Map<String, Object> getMetrics() {
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+        var result = new TreeMap<String, Object>();
+        metrics.forEach((name, metric) -> {
+            var value = metric.get();
+            if (value != null) {
+                result.put(name, value);
+            }
+        });
+        return result;
+    }
+}
@@ -7,6 +7,7 @@ import io.fairspace.saturn.config.Config;
 import io.fairspace.saturn.rdf.dao.DAO;
 import io.fairspace.saturn.rdf.dao.PersistentEntity;
 import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.rdf.transactions.WritePriority;
 import io.fairspace.saturn.services.AccessDeniedException;
 import lombok.extern.log4j.*;
 import org.apache.commons.lang3.*;
@@ -126,7 +127,7 @@ public class UserService {
         if (!updated.isEmpty()) {
             threadpool.submit(() -> {
                 log.info("Updating users asynchronously");
-                transactions.executeWrite(model -> {
+                transactions.executeWrite(WritePriority.MAINTENANCE, model -> {
                     var dao = new DAO(model);
                     updated.forEach(dao::write);
                 });
@@ -0,0 +1,163 @@
+package io.fairspace.saturn.services.views;
+
+import io.fairspace.saturn.rdf.transactions.*;
+import lombok.Value;
+import lombok.extern.log4j.*;
+import org.apache.jena.query.ReadWrite;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Updates the view database in the background, so commits to the RDF dataset don't wait for it.
+ * The transaction log serves as a durable queue: the indexer reads committed transactions after the last indexed one,
+ * collects the subjects they change and updates the views of these subjects in batches,
+ * using the current state of the dataset.
+ * The number of indexed transactions is stored in the view database together with the changes,
+ * so indexing continues where it stopped after a restart.
+ * Indexing a transaction again is harmless, as the view rows of a subject are rebuilt from the dataset.
+ * If a batch fails, the position isn't advanced and the batch is retried after a pause.
+ */
+@Log4j2
+public class AsyncViewIndexer implements Closeable {
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+
+    private final TxnLogDatasetGraph dsg;
+    private final ViewStoreClientFactory viewStoreClientFactory;
+    private final int batchSize;
+    private final Thread thread;
+    private final Object indexedMonitor = new Object();
+    private volatile long indexed;
+    private volatile long failedAttempts;
+    private volatile String lastError;
+    private volatile boolean closed;
+
+    /**
+     * Without a stored position indexing starts at the last committed transaction, assuming the views are up to date.
+     */
+    public AsyncViewIndexer(TxnLogDatasetGraph dsg, ViewStoreClientFactory viewStoreClientFactory) throws SQLException {
+        this.dsg = dsg;
+        this.viewStoreClientFactory = viewStoreClientFactory;
+        this.batchSize = Math.max(1, viewStoreClientFactory.viewDatabase.indexingBatchSize);
+        this.indexed = ViewIndexCatchUp.appliedTransactions(viewStoreClientFactory, dsg.getCommittedTransactions());
+        log.info("Updating the view database asynchronously from transaction #{}", indexed + 1);
+        thread = new Thread(this::run, "View indexer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                if (dsg.awaitCommittedTransactions(indexed + 1, POLL_INTERVAL_MILLIS)) {
+                    index(indexed, Math.min(dsg.getCommittedTransactions(), indexed + batchSize));
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.error("Error updating the view database at transaction #{}, attempt {}", indexed + 1, failedAttempts + 1, e);
+                failedAttempts++;
+                lastError = e.toString();
+                pause();
+            }
+        }
+    }
+
+    private void index(long from, long to) throws IOException, SQLException {
+        var subjects = ViewIndexCatchUp.changedSubjects(dsg.getTransactionLog(), from, to);
+
+        var start = currentTimeMillis();
+        dsg.begin(ReadWrite.READ);
+        try (var viewStoreClient = viewStoreClientFactory.build();
+             var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+            viewUpdater.updateSubjects(subjects);
+            viewStoreClient.setAppliedTransactions(to);
+            viewUpdater.commit();
+        } finally {
+            dsg.end();
+        }
+        log.debug("Indexing {} subjects of transactions #{} to #{} took {}ms", subjects.size(), from + 1, to, currentTimeMillis() - start);
+
+        synchronized (indexedMonitor) {
+            indexed = to;
+            indexedMonitor.notifyAll();
+        }
+        failedAttempts = 0;
+        lastError = null;
+    }
+
+    /**
+     * Waits until the given number of transactions is indexed or the timeout expires.
+     *
+     * @return true if the transactions are indexed
+     */
+    public boolean awaitIndexed(long transactions, long timeoutMillis) throws InterruptedException {
+        var deadline = currentTimeMillis() + timeoutMillis;
+        synchronized (indexedMonitor) {
+            while (indexed < transactions) {
+                var remaining = deadline - currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                indexedMonitor.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of transactions to be indexed for the views to include the last changes of the user,
+     * indexed or not, see {@link TxnLogDatasetGraph#getLastWrite(String)}
+     */
+    public long getLastWrite(String userId) {
+        return dsg.getLastWrite(userId);
+    }
+
+    /**
+     * @return indexing statistics. The failed attempts are the consecutive failures to index the next batch,
+     * which is retried until it succeeds.
+     */
+    public Stats getStats() {
+        var committed = dsg.getCommittedTransactions();
+        var indexedTransactions = indexed;
+        return new Stats(indexedTransactions, committed, Math.max(0, committed - indexedTransactions), failedAttempts, lastError);
+    }
+
+    private synchronized void pause() {
+        try {
+            if (!closed) {
+                wait(POLL_INTERVAL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops indexing after the batch being indexed, if any.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Value
+    public static class Stats {
+        long indexedTransactions;
+        long committedTransactions;
+        long lagTransactions;
+        long failedAttempts;
+        String lastError;
+    }
+}
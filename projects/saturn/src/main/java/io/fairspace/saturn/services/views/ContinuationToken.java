@@ -0,0 +1,30 @@
+package io.fairspace.saturn.services.views;
+
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An opaque position in the rows of a view, used to request the page after it (keyset pagination).
+ * Rows are ordered by id, so the position is the id of the last row of a page.
+ * An empty token is the position before the first row.
+ */
+public class ContinuationToken {
+    private ContinuationToken() {
+    }
+
+    public static String encode(String lastId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(lastId.getBytes(UTF_8));
+    }
+
+    /**
+     * @return the id of the last row before the requested page
+     */
+    public static String decode(String token) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(token), UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid continuation token: " + token);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.fairspace.saturn.services.views;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * A size-bounded cache of the row counts of views by view and filters, shared by all readers of a view database.
+ * Every commit to the view database invalidates all counts, see {@link #invalidateAll()}.
+ * A count is only stored if there was no commit since counting started, so a count of the old state
+ * cannot outlive the invalidation.
+ */
+public class CountCache {
+    private final Cache<String, Long> counts;
+    private final AtomicLong generation = new AtomicLong();
+
+    public CountCache(long maximumSize) {
+        counts = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * @return the cache key of a count: the view and the filters, independent of the order of filters and values
+     */
+    public static String key(String view, List<ViewFilter> filters) {
+        if (filters == null) {
+            return view;
+        }
+        return view + filters.stream()
+                .map(filter -> String.join("|",
+                        filter.getField(),
+                        sorted(filter.getValues()),
+                        String.valueOf(filter.getMin()),
+                        String.valueOf(filter.getMax()),
+                        String.valueOf(filter.getBooleanValue()),
+                        String.valueOf(filter.getPrefix()),
+                        sorted(filter.getPrefixes())))
+                .sorted()
+                .collect(Collectors.joining(";", "?", ""));
+    }
+
+    private static String sorted(List<?> values) {
+        return values == null ? "null" : values.stream().map(String::valueOf).sorted().collect(Collectors.joining(",", "[", "]"));
+    }
+
+    /**
+     * @return the number of commits so far, to be passed to {@link #put(String, long, long)}
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    public Long get(String key) {
+        return counts.getIfPresent(key);
+    }
+
+    /**
+     * @param generation the {@link #generation()} when counting started
+     */
+    public void put(String key, long generation, long count) {
+        counts.put(key, count);
+        if (this.generation.get() != generation) {
+            counts.invalidate(key);
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        counts.invalidateAll();
+    }
+}
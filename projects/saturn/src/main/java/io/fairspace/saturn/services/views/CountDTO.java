@@ -1,9 +1,18 @@
 package io.fairspace.saturn.services.views;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
 
-@Data
+@Data @AllArgsConstructor
 public class CountDTO {
     private final long count;
     private final boolean timeout;
+    /**
+     * The count is an estimate, either requested or because the exact count timed out
+     */
+    private final boolean estimated;
+
+    public CountDTO(long count, boolean timeout) {
+        this(count, timeout, false);
+    }
 }
@@ -12,4 +12,11 @@ public class CountRequest {
     @NotBlank
     private String view;
     private List<ViewFilter> filters;
+    /**
+     * Return an estimate of the count instead of counting, if supported by the view database
+     */
+    private Boolean estimate;
+    public boolean estimate() {
+        return estimate != null && estimate;
+    }
 }
@@ -14,12 +14,15 @@ import java.sql.*;
 import java.util.*;
 import java.util.stream.*;
 
+import static io.fairspace.saturn.auth.RequestContext.getAccessToken;
 import static java.lang.Integer.*;
 
 /**
  * JDBC implementation of the query service. Depends on the
- * {@link TxnIndexDatasetGraph} dataset graph wrapper to store
+ * {@link TxnIndexDatasetGraph} dataset graph wrapper or the {@link AsyncViewIndexer} to store
  * changes to the metadata graph in a separate view database.
+ * With the asynchronous indexer, queries first wait for the last transaction with changes of the current user
+ * to be indexed (up to viewDatabase.readYourWritesTimeoutMillis), so users see their own changes.
  * Queries are performed by the {@link ViewStoreReader}.
  * The database is initialised by the {@link ViewStoreClientFactory}.
  */
@@ -29,12 +32,18 @@ public class JdbcQueryService implements QueryService {
     private final CollectionResource rootSubject;
     private final Config.Search searchConfig;
     private final ViewStoreClientFactory viewStoreClientFactory;
+    private final AsyncViewIndexer viewIndexer;
 
     public JdbcQueryService(Config.Search searchConfig, ViewStoreClientFactory viewStoreClientFactory, Transactions transactions, CollectionResource rootSubject) {
+        this(searchConfig, viewStoreClientFactory, transactions, rootSubject, null);
+    }
+
+    public JdbcQueryService(Config.Search searchConfig, ViewStoreClientFactory viewStoreClientFactory, Transactions transactions, CollectionResource rootSubject, AsyncViewIndexer viewIndexer) {
         this.searchConfig = searchConfig;
         this.viewStoreClientFactory = viewStoreClientFactory;
         this.transactions = transactions;
         this.rootSubject = rootSubject;
+        this.viewIndexer = viewIndexer;
     }
 
     public String getCollectionName(String uri) {
@@ -44,9 +53,25 @@ public class JdbcQueryService implements QueryService {
     }
 
     ViewStoreReader getViewStoreReader() throws SQLException {
+        awaitIndexing();
         return new ViewStoreReader(searchConfig, viewStoreClientFactory);
     }
 
+    private void awaitIndexing() {
+        var timeout = viewStoreClientFactory.viewDatabase.readYourWritesTimeoutMillis;
+        var user = getAccessToken();
+        if (viewIndexer == null || timeout <= 0 || user == null || user.getSubject() == null) {
+            return;
+        }
+        try {
+            if (!viewIndexer.awaitIndexed(viewIndexer.getLastWrite(user.getSubject()), timeout)) {
+                log.warn("The view database is behind, the results may not include the latest changes");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @SneakyThrows
     protected void applyCollectionsFilterIfRequired(String view, List<ViewFilter> filters) {
         boolean collectionsFilterRequired = view.equalsIgnoreCase("Resource") ||
@@ -87,21 +112,31 @@ public class JdbcQueryService implements QueryService {
             filters.addAll(request.getFilters());
         }
         applyCollectionsFilterIfRequired(request.getView(), filters);
+        var after = request.getContinuationToken() != null ? ContinuationToken.decode(request.getContinuationToken()) : null;
         try (var viewStoreReader = getViewStoreReader()){
             List<Map<String, Set<ValueDTO>>> rows = viewStoreReader.retrieveRows(
                     request.getView(), filters,
-                    (page - 1) * size,
+                    after,
+                    after != null ? 0 : (page - 1) * size,
                     size + 1,
                     request.includeJoinedViews()
             );
+            var pageRows = rows.subList(0, min(size, rows.size()));
+            var hasNext = rows.size() > size;
             var pageBuilder = ViewPageDTO.builder()
-                    .rows(rows.subList(0, min(size, rows.size())))
-                    .hasNext(rows.size() > size);
+                    .rows(pageRows)
+                    .hasNext(hasNext)
+                    .continuationToken(hasNext
+                            ? ContinuationToken.encode(ViewStoreReader.rowId(request.getView(), pageRows.get(size - 1)))
+                            : null);
             if (request.includeCounts()) {
-                long count = viewStoreReader.countRows(request.getView(), filters);
-                pageBuilder = pageBuilder
-                        .totalCount(count)
-                        .totalPages(count / size + ((count % size > 0) ? 1 : 0));
+                var count = count(viewStoreReader, request.getView(), filters, request.estimate());
+                if (!count.isTimeout() || count.isEstimated()) {
+                    pageBuilder = pageBuilder
+                            .totalCount(count.getCount())
+                            .totalPages(count.getCount() / size + ((count.getCount() % size > 0) ? 1 : 0))
+                            .countEstimated(count.isEstimated());
+                }
             }
             return pageBuilder.build();
         } catch (SQLTimeoutException e) {
@@ -120,8 +155,38 @@ public class JdbcQueryService implements QueryService {
         }
         applyCollectionsFilterIfRequired(request.getView(), filters);
         try (var viewStoreReader = getViewStoreReader()){
-            return new CountDTO(viewStoreReader.countRows(request.getView(), filters), false);
+            return count(viewStoreReader, request.getView(), filters, request.estimate());
+        }
+    }
+
+    /**
+     * Counts the rows of a view, or returns the count from the cache of the view database.
+     * Returns an estimate, if supported by the database, if requested or if the exact count times out.
+     */
+    private CountDTO count(ViewStoreReader viewStoreReader, String view, List<ViewFilter> filters, boolean estimate) {
+        var countCache = viewStoreClientFactory.countCache;
+        var key = CountCache.key(view, filters);
+        var cached = countCache.get(key);
+        if (cached != null) {
+            return new CountDTO(cached, false);
+        }
+        if (estimate) {
+            var estimated = viewStoreReader.estimateRows(view, filters);
+            if (estimated != null) {
+                return new CountDTO(estimated, false, true);
+            }
+        }
+        var generation = countCache.generation();
+        try {
+            var count = viewStoreReader.countRows(view, filters);
+            countCache.put(key, generation, count);
+            return new CountDTO(count, false);
         } catch (SQLTimeoutException e) {
+            var estimated = viewStoreReader.estimateRows(view, filters);
+            if (estimated != null) {
+                log.debug("Counting rows of view {} timed out, returning an estimate", view);
+                return new CountDTO(estimated, true, true);
+            }
             return new CountDTO(0, true);
         }
     }
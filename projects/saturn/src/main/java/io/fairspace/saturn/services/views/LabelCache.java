@@ -0,0 +1,112 @@
+package io.fairspace.saturn.services.views;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.sql.*;
+import java.util.*;
+
+import static io.fairspace.saturn.services.views.ViewStoreClient.placeholders;
+
+/**
+ * A size-bounded cache of the label table, shared by all clients and readers of a view database.
+ * It resolves term IRIs to labels (for filters) and labels to term IRIs (for Term cells of view rows).
+ * Lookups of many labels or IRIs at once are done with one query per 1000 values missing from the cache.
+ * Only labels found in the database are cached, the entries of added labels are invalidated.
+ */
+public class LabelCache {
+    private static final int MAX_VALUES_PER_QUERY = 1000;
+
+    // Labels by term IRI
+    private final Cache<String, String> labels;
+    // Term IRIs by (type, label) pair
+    private final Cache<Pair<String, String>, String> iris;
+
+    public LabelCache(long maximumSize) {
+        labels = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+        iris = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * @return the labels of the terms with a label, by term IRI
+     */
+    public Map<String, String> labels(Connection connection, Collection<String> ids) throws SQLException {
+        var result = new HashMap<String, String>();
+        var missing = new ArrayList<String>();
+        for (var id : new LinkedHashSet<>(ids)) {
+            var label = labels.getIfPresent(id);
+            if (label != null) {
+                result.put(id, label);
+            } else {
+                missing.add(id);
+            }
+        }
+        for (var chunk : Lists.partition(missing, MAX_VALUES_PER_QUERY)) {
+            try (var query = connection.prepareStatement(
+                    "select id, type, label from label where id in ( " + placeholders(chunk.size()) + " )")) {
+                for (var i = 0; i < chunk.size(); i++) {
+                    query.setString(i + 1, chunk.get(i));
+                }
+                var rows = query.executeQuery();
+                while (rows.next()) {
+                    var id = rows.getString("id");
+                    var label = rows.getString("label");
+                    if (label == null) {
+                        continue;
+                    }
+                    labels.put(id, label);
+                    iris.put(Pair.of(rows.getString("type"), label), id);
+                    result.put(id, label);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the IRIs of the terms of the type with one of the labels, by label
+     */
+    public Map<String, String> iris(Connection connection, String type, Collection<String> labels) throws SQLException {
+        var result = new HashMap<String, String>();
+        var missing = new ArrayList<String>();
+        for (var label : new LinkedHashSet<>(labels)) {
+            var iri = iris.getIfPresent(Pair.of(type, label));
+            if (iri != null) {
+                result.put(label, iri);
+            } else {
+                missing.add(label);
+            }
+        }
+        for (var chunk : Lists.partition(missing, MAX_VALUES_PER_QUERY)) {
+            try (var query = connection.prepareStatement(
+                    "select id, label from label where type = ? and label in ( " + placeholders(chunk.size()) + " )")) {
+                query.setString(1, type);
+                for (var i = 0; i < chunk.size(); i++) {
+                    query.setString(i + 2, chunk.get(i));
+                }
+                var rows = query.executeQuery();
+                while (rows.next()) {
+                    var id = rows.getString("id");
+                    var label = rows.getString("label");
+                    if (label == null) {
+                        continue;
+                    }
+                    this.labels.put(id, label);
+                    iris.put(Pair.of(type, label), id);
+                    result.putIfAbsent(label, id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Invalidates the entries of a label being added.
+     */
+    public void invalidate(String id, String type, String label) {
+        labels.invalidate(id);
+        iris.invalidate(Pair.of(type, label));
+    }
+}
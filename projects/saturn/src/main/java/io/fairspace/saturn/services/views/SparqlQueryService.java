@@ -40,7 +40,8 @@ public class SparqlQueryService implements QueryService {
     public ViewPageDTO retrieveViewPage(ViewRequest request) {
         var page = (request.getPage() != null && request.getPage() >= 1) ? request.getPage() : 1;
         var size = (request.getSize() != null && request.getSize() >= 1) ? request.getSize() : 20;
-        var query = new SparqlViewQueryBuilder(getView(request.getView()), page, size)
+        var after = request.getContinuationToken() != null ? ContinuationToken.decode(request.getContinuationToken()) : null;
+        var query = new SparqlViewQueryBuilder(getView(request.getView()), page, size, after)
                 .getQuery(request.getFilters());
 
         log.debug("Executing query with filters and pagination:\n{}", query);
@@ -61,19 +62,14 @@ public class SparqlQueryService implements QueryService {
                 timeout = true;
             }
 
-            var uniqueIris = new HashSet<Resource>();
+            // Keyset pages are ordered by IRI, pages by number keep the order of the results
+            Set<Resource> uniqueIris = after != null ? new TreeSet<>(Comparator.comparing(Resource::getURI)) : new LinkedHashSet<>();
             var columnData = new JoinColumnData();
-            var hasNext = false;
 
             // extract iri's and column values
             for (var row : results) {
                 var resourceUri = row.getResource(request.getView());
-
-                if (uniqueIris.size() < size) {
-                    uniqueIris.add(resourceUri);
-                } else {
-                    hasNext = true;
-                }
+                uniqueIris.add(resourceUri);
 
                 var vars = row.varNames();
                 while (vars.hasNext()) {
@@ -85,13 +81,18 @@ public class SparqlQueryService implements QueryService {
                 }
             }
 
-            var rows = uniqueIris.stream()
+            // the entities are selected with one more than the page size
+            var hasNext = uniqueIris.size() > size;
+            var pageIris = uniqueIris.stream().limit(size).collect(toList());
+            var rows = pageIris.stream()
                     .map(resource -> fetch(resource, request.getView(), columnData))
                     .collect(toList());
 
             return ViewPageDTO.builder()
                     .rows(rows)
                     .hasNext(hasNext)
+                    // Only an ordered page can be continued after its last entity
+                    .continuationToken(hasNext && after != null ? ContinuationToken.encode(pageIris.get(size - 1).getURI()) : null)
                     .timeout(timeout)
                     .build();
         });
@@ -39,20 +39,30 @@ public class SparqlViewQueryBuilder {
     private final View view;
     private final long limit;
     private final long offset;
-
+    private final String after;
 
     public SparqlViewQueryBuilder(View view) {
         this.view = view;
         this.limit = -1L;
         this.offset = -1L;
+        this.after = null;
         this.entityTypes = fetchTypes(view);
         this.hierarchy = getHierarchyTree();
     }
 
     public SparqlViewQueryBuilder(View view, int page, int size) {
+        this(view, page, size, null);
+    }
+
+    /**
+     * @param after if not null, only entities with a greater IRI are selected in order of their IRIs
+     *              and page is ignored (keyset pagination). An empty string selects the first page
+     */
+    public SparqlViewQueryBuilder(View view, int page, int size, String after) {
         this.view = view;
         this.limit = (size + 1);
-        this.offset = ((page - 1) * size);
+        this.offset = after != null ? 0 : ((page - 1) * size);
+        this.after = after;
         this.entityTypes = fetchTypes(view);
         this.hierarchy = getHierarchyTree();
     }
@@ -156,9 +166,18 @@ public class SparqlViewQueryBuilder {
 
         builder.append("FILTER NOT EXISTS { ?").append(view.name).append(" fs:dateDeleted ?any } .\n");
         builder.append("FILTER NOT EXISTS { ?").append(nestedQueryDirAlias).append(" fs:dateDeleted ?anydate } .\n");
+        if (after != null) {
+            builder.append(new ElementFilter(new E_GreaterThan(new E_Str(new ExprVar(view.name)), makeString(after))))
+                    .append("\n");
+        }
         builder.append("}\n");
 
         if (limit > -1L && offset > -1L) {
+            if (after != null) {
+                // Keyset pages are ordered by IRI, so that a page can start after the last entity of the previous one.
+                // Ordering needs all matching entities, so pages by number are not ordered
+                builder.append(" ORDER BY ?").append(view.name);
+            }
             builder.append(" LIMIT ").append(limit)
                     .append(" OFFSET ").append(offset);
         }
@@ -0,0 +1,144 @@
+package io.fairspace.saturn.services.views;
+
+import lombok.extern.slf4j.*;
+import org.postgresql.*;
+import org.postgresql.copy.*;
+
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+import static io.fairspace.saturn.services.views.ViewStoreClient.setQueryValue;
+import static io.fairspace.saturn.services.views.ViewStoreClientFactory.H2_DATABASE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Loads rows into a table as they are produced, e.g. from a SPARQL result iterator.
+ * On PostgreSQL the rows are streamed with the COPY protocol without being collected first,
+ * on other databases (H2 in tests) they are inserted in batches.
+ * The rows are committed with the connection's transaction.
+ */
+@Slf4j
+public abstract class TableLoader implements AutoCloseable {
+    static final int BATCH_SIZE = 1000;
+
+    protected final String table;
+
+    private TableLoader(String table) {
+        this.table = table;
+    }
+
+    public static TableLoader open(Connection connection, String table, List<String> columns) throws SQLException {
+        if (!H2_DATABASE && connection.isWrapperFor(PGConnection.class)) {
+            return new CopyLoader(connection, table, columns);
+        }
+        return new BatchLoader(connection, table, columns);
+    }
+
+    /**
+     * Encodes a row in the CSV format of PostgreSQL's COPY: an unquoted empty value is null, anything else is quoted.
+     * Instants are formatted as timestamps in the local time zone, as {@link ViewStoreClient#setQueryValue} sets them.
+     */
+    static String csvRow(List<?> values) {
+        var row = new StringBuilder();
+        for (var i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                row.append(',');
+            }
+            var value = values.get(i);
+            if (value != null) {
+                var text = value instanceof Instant instant ? Timestamp.from(instant).toString() : value.toString();
+                row.append('"').append(text.replace("\"", "\"\"")).append('"');
+            }
+        }
+        return row.append('\n').toString();
+    }
+
+    /**
+     * @param values the values of the columns, in the order of the columns
+     */
+    public abstract void add(List<?> values) throws SQLException;
+
+    /**
+     * Finishes loading.
+     *
+     * @return the number of loaded rows
+     */
+    public abstract int finish() throws SQLException;
+
+    /**
+     * Cancels loading if it's not finished.
+     */
+    @Override
+    public abstract void close() throws SQLException;
+
+    private static class CopyLoader extends TableLoader {
+        private final CopyIn copyIn;
+
+        CopyLoader(Connection connection, String table, List<String> columns) throws SQLException {
+            super(table);
+            copyIn = connection.unwrap(PGConnection.class).getCopyAPI()
+                    .copyIn("copy " + table + " ( " + String.join(", ", columns) + " ) from stdin with ( format csv )");
+        }
+
+        @Override
+        public void add(List<?> values) throws SQLException {
+            var bytes = csvRow(values).getBytes(UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public int finish() throws SQLException {
+            var copied = copyIn.endCopy();
+            log.debug("Copied {} rows into {}", copied, table);
+            return (int) copied;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static class BatchLoader extends TableLoader {
+        private final PreparedStatement insert;
+        private int batched;
+        private int inserted;
+
+        BatchLoader(Connection connection, String table, List<String> columns) throws SQLException {
+            super(table);
+            insert = connection.prepareStatement("insert into " + table + " ( " + String.join(", ", columns) + " ) values ( " +
+                    String.join(", ", Collections.nCopies(columns.size(), "?")) + " )");
+        }
+
+        @Override
+        public void add(List<?> values) throws SQLException {
+            for (var i = 0; i < values.size(); i++) {
+                setQueryValue(insert, i + 1, values.get(i));
+            }
+            insert.addBatch();
+            if (++batched == BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        private void flush() throws SQLException {
+            inserted += Arrays.stream(insert.executeBatch()).sum();
+            batched = 0;
+        }
+
+        @Override
+        public int finish() throws SQLException {
+            flush();
+            log.debug("Inserted {} rows into {}", inserted, table);
+            return inserted;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            insert.close();
+        }
+    }
+}
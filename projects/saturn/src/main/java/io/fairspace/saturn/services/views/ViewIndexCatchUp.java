@@ -0,0 +1,106 @@
+package io.fairspace.saturn.services.views;
+
+import io.fairspace.saturn.rdf.transactions.*;
+import lombok.extern.log4j.*;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.sparql.core.DatasetGraph;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Brings the view database up to date with the transaction log without a full reindex.
+ * The view database stores the number of transactions applied to it (see {@link ViewStoreClient#getAppliedTransactions()}).
+ * The transactions after that are read from the log, and only the subjects they change are updated.
+ */
+@Log4j2
+public class ViewIndexCatchUp {
+    private ViewIndexCatchUp() {
+    }
+
+    /**
+     * Updates the views of the subjects changed by the transactions after the last applied one,
+     * in batches of viewDatabase.indexingBatchSize transactions.
+     * Without a stored position the views are assumed to be up to date.
+     *
+     * @param dsg the dataset containing all transactions of the log
+     */
+    public static void catchUp(DatasetGraph dsg, TransactionLog txnLog, ViewStoreClientFactory viewStoreClientFactory) throws IOException, SQLException {
+        var size = txnLog.size();
+        var applied = appliedTransactions(viewStoreClientFactory, size);
+        if (applied == size) {
+            log.info("The view database is up to date with transaction #{}", size);
+            return;
+        }
+
+        log.info("Updating the view database with transactions #{} to #{}", applied + 1, size);
+        var start = currentTimeMillis();
+        var batchSize = Math.max(1, viewStoreClientFactory.viewDatabase.indexingBatchSize);
+        for (var from = applied; from < size; from += batchSize) {
+            var to = Math.min(size, from + batchSize);
+            var subjects = changedSubjects(txnLog, from, to);
+            try (var viewStoreClient = viewStoreClientFactory.build();
+                 var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+                dsg.begin(ReadWrite.READ);
+                try {
+                    viewUpdater.updateSubjects(subjects);
+                } finally {
+                    dsg.end();
+                }
+                viewStoreClient.setAppliedTransactions(to);
+                viewUpdater.commit();
+            }
+        }
+        log.info("The view database is updated with {} transactions in {}ms", size - applied, currentTimeMillis() - start);
+    }
+
+    /**
+     * Returns the number of transactions applied to the view database.
+     * Without a stored number, or if it's greater than the number of transactions in the log, the views are assumed
+     * to be up to date with the log and its size is stored.
+     */
+    static long appliedTransactions(ViewStoreClientFactory viewStoreClientFactory, long size) throws SQLException {
+        try (var viewStoreClient = viewStoreClientFactory.build()) {
+            var applied = viewStoreClient.getAppliedTransactions();
+            if (applied != null && applied <= size) {
+                return applied;
+            }
+            if (applied != null) {
+                log.warn("The view database has {} transactions applied, but the transaction log has only {}. Reindex the views",
+                        applied, size);
+            }
+            viewStoreClient.setAppliedTransactions(size);
+            viewStoreClient.commit();
+            return size;
+        }
+    }
+
+    /**
+     * @return the subjects changed by transactions [from, to) of the log
+     */
+    static NodeSet changedSubjects(TransactionLog txnLog, long from, long to) throws IOException {
+        var subjects = new NodeSet();
+        for (var i = from; i < to; i++) {
+            try {
+                txnLog.read(i, new TransactionListener() {
+                    @Override
+                    public void onAdd(Node graph, Node subject, Node predicate, Node object) {
+                        subjects.add(subject);
+                    }
+
+                    @Override
+                    public void onDelete(Node graph, Node subject, Node predicate, Node object) {
+                        subjects.add(subject);
+                    }
+                });
+            } catch (FileNotFoundException e) {
+                log.warn("Transaction #{} is archived before being applied to the view database, reindex the views", i + 1);
+            }
+        }
+        return subjects;
+    }
+}
@@ -14,7 +14,18 @@ public class ViewPageDTO {
     @NonNull
     List<Map<String, Set<ValueDTO>>> rows;
     boolean hasNext;
+    /**
+     * Requests the next page when set in the ViewRequest, present if hasNext.
+     * Unlike page numbers, it costs the same for every page.
+     * The SPARQL query service only returns it for pages requested with a (possibly empty) continuation token,
+     * as ordering the entities is expensive there.
+     */
+    String continuationToken;
     boolean timeout;
     Long totalCount;
     Long totalPages;
+    /**
+     * The totals are based on an estimated count, see {@link CountDTO#isEstimated()}
+     */
+    boolean countEstimated;
 }
@@ -11,6 +11,11 @@ public class ViewRequest extends CountRequest {
     private Integer page;
     @Min(1)
     private Integer size;
+    /**
+     * The continuationToken of the previous page. If set, the page after it is retrieved and page is ignored.
+     * An empty token retrieves the first page with a continuation token.
+     */
+    private String continuationToken;
     private Boolean includeCounts;
     public boolean includeCounts() {
         return includeCounts != null && includeCounts;
@@ -1,5 +1,6 @@
 package io.fairspace.saturn.services.views;
 
+import com.google.common.collect.*;
 import io.fairspace.saturn.config.*;
 import io.fairspace.saturn.config.ViewsConfig.*;
 import io.fairspace.saturn.services.views.Table.*;
@@ -15,19 +16,59 @@ import java.util.stream.*;
 
 import static io.fairspace.saturn.services.views.Table.idColumn;
 import static io.fairspace.saturn.services.views.Table.valueColumn;
+import static io.fairspace.saturn.services.views.ViewStoreClientFactory.H2_DATABASE;
 
 @Slf4j
 public class ViewStoreClient implements AutoCloseable {
+    // Limits the size of multi-row statements, PostgreSQL accepts at most 32767 parameters
+    private static final int MAX_PARAMETERS = 10_000;
+    private static final int MAX_IDS_PER_STATEMENT = 1000;
+    static final String METADATA_TABLE = "view_metadata";
+    private static final String APPLIED_TRANSACTIONS = "applied_transactions";
 
     public static class ViewStoreConfiguration {
         final Map<String, View> viewConfig;
         final Map<String, Table> viewTables = new HashMap<>();
         final Map<String, Map<String, Table>> propertyTables = new HashMap<>();
         final Map<String, Map<String, Table>> joinTables = new HashMap<>();
+        // Subjects updated while the index is rebuilt in shadow tables, updated again after the swap
+        volatile Set<String> updatedDuringRebuild;
 
         ViewStoreConfiguration(ViewsConfig viewsConfig) {
             viewConfig = viewsConfig.views.stream().collect(Collectors.toMap(view -> view.name, Function.identity()));
         }
+
+        private ViewStoreConfiguration(Map<String, View> viewConfig) {
+            this.viewConfig = viewConfig;
+        }
+
+        /**
+         * @return the configuration of the same views stored in tables with the given suffix
+         */
+        ViewStoreConfiguration withTableSuffix(String suffix) {
+            var result = new ViewStoreConfiguration(viewConfig);
+            viewTables.forEach((view, table) -> result.viewTables.put(view, withSuffix(table, suffix)));
+            propertyTables.forEach((view, tables) -> tables.forEach((property, table) ->
+                    result.propertyTables.computeIfAbsent(view, v -> new HashMap<>()).put(property, withSuffix(table, suffix))));
+            joinTables.forEach((view, tables) -> tables.forEach((joinView, table) ->
+                    result.joinTables.computeIfAbsent(view, v -> new HashMap<>()).put(joinView, withSuffix(table, suffix))));
+            return result;
+        }
+
+        private static Table withSuffix(Table table, String suffix) {
+            return Table.builder().name(table.name + suffix).columns(table.columns).build();
+        }
+
+        /**
+         * @return the view, property and join tables of all views. Join tables are shared by the joined views.
+         */
+        Collection<Table> allTables() {
+            var tables = new LinkedHashMap<String, Table>();
+            viewTables.values().forEach(table -> tables.put(table.name, table));
+            propertyTables.values().forEach(map -> map.values().forEach(table -> tables.put(table.name, table)));
+            joinTables.values().forEach(map -> map.values().forEach(table -> tables.put(table.name, table)));
+            return tables.values();
+        }
     }
 
     @SneakyThrows
@@ -47,12 +88,18 @@ public class ViewStoreClient implements AutoCloseable {
 
     public final Connection connection;
     final ViewStoreConfiguration configuration;
+    private final LabelCache labelCache;
+    private final CountCache countCache;
 
     public ViewStoreClient(
             Connection connection,
-            ViewStoreConfiguration configuration) {
+            ViewStoreConfiguration configuration,
+            LabelCache labelCache,
+            CountCache countCache) {
         this.connection = connection;
         this.configuration = configuration;
+        this.labelCache = labelCache;
+        this.countCache = countCache;
     }
 
     @Override
@@ -62,15 +109,39 @@ public class ViewStoreClient implements AutoCloseable {
 
     public void commit() throws SQLException {
         this.connection.commit();
+        countCache.invalidateAll();
     }
 
-    public void deleteRow(String view, String uri) throws SQLException {
-        var viewTable = configuration.viewTables.get(view);
-        try (var query = connection.prepareStatement(
-                "delete from " + viewTable.name + " where id = ?")) {
-            query.setString(1, uri);
-            var deletedCount = query.executeUpdate();
-            log.debug("Deleted {} rows from view {}", deletedCount, view);
+    /**
+     * @return the number of transactions of the transaction log applied to the view database, or null if unknown
+     */
+    public Long getAppliedTransactions() throws SQLException {
+        try (var query = connection.prepareStatement("select content from " + METADATA_TABLE + " where id = ?")) {
+            query.setString(1, APPLIED_TRANSACTIONS);
+            var result = query.executeQuery();
+            return result.next() ? Long.valueOf(result.getString(1)) : null;
+        }
+    }
+
+    /**
+     * Stores the number of applied transactions. Call it in the transaction applying them to the views,
+     * so the number can't get out of sync with the views.
+     */
+    public void setAppliedTransactions(long transactions) throws SQLException {
+        var upsertSql = H2_DATABASE
+                ? "merge into " + METADATA_TABLE + " ( id, content ) key ( id ) values ( ?, ? )"
+                : "insert into " + METADATA_TABLE + " ( id, content ) values ( ?, ? ) on conflict ( id ) do update set content = excluded.content";
+        try (var upsert = connection.prepareStatement(upsertSql)) {
+            upsert.setString(1, APPLIED_TRANSACTIONS);
+            upsert.setString(2, Long.toString(transactions));
+            upsert.executeUpdate();
+        }
+    }
+
+    void trackUpdates(Collection<String> ids) {
+        var updated = configuration.updatedDuringRebuild;
+        if (updated != null) {
+            updated.addAll(ids);
         }
     }
 
@@ -89,85 +160,70 @@ public class ViewStoreClient implements AutoCloseable {
         }
     }
 
-    int deleteValues(
-            Table table,
-            ColumnDefinition idColumn,
-            String id,
-            ColumnDefinition valueColumn,
-            Collection<String> values) throws SQLException {
-        var deleteSql = "delete from " + table.name +
-                " where " + idColumn.name + " = ? " +
-                " and " + valueColumn.name + " = ?";
-        try (var delete = connection.prepareStatement(deleteSql)) {
-            for (String value : values) {
-                delete.setString(1, id);
-                delete.setString(2, value);
-                delete.addBatch();
+    /**
+     * Deletes the rows of a number of subjects from a view table.
+     */
+    public int deleteRows(String view, Collection<String> ids) throws SQLException {
+        var deleteCount = deleteByIds(configuration.viewTables.get(view), idColumn(), ids);
+        log.debug("Deleted {} rows from view {}", deleteCount, view);
+        return deleteCount;
+    }
+
+    int deleteByIds(Table table, ColumnDefinition idColumn, Collection<String> ids) throws SQLException {
+        var deleteCount = 0;
+        for (var chunk : Lists.partition(new ArrayList<>(ids), MAX_IDS_PER_STATEMENT)) {
+            var deleteSql = "delete from " + table.name +
+                    " where " + idColumn.name + " in ( " + placeholders(chunk.size()) + " )";
+            try (var delete = connection.prepareStatement(deleteSql)) {
+                for (var i = 0; i < chunk.size(); i++) {
+                    delete.setString(i + 1, chunk.get(i));
+                }
+                deleteCount += delete.executeUpdate();
             }
-            return Arrays.stream(delete.executeBatch()).sum();
         }
+        return deleteCount;
     }
 
-    int insertValues(
+    /**
+     * Inserts (subject, value) tuples with COPY when connected to PostgreSQL, or with batched inserts otherwise.
+     */
+    int copyValues(
             Table table,
             ColumnDefinition idColumn,
             ColumnDefinition valueColumn,
             Collection<Pair<String, String>> values) throws SQLException {
-        var insertSql = "insert into " + table.name + " ( " +
-                idColumn.name + ", " + valueColumn.name + " ) values ( ?, ? )";
-        try (var insert = connection.prepareStatement(insertSql)) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        try (var loader = TableLoader.open(connection, table.name, List.of(idColumn.name, valueColumn.name))) {
             for (var value : values) {
-                insert.setString(1, value.getKey());
-                insert.setString(2, value.getValue());
-                insert.addBatch();
+                loader.add(Arrays.asList(value.getKey(), value.getValue()));
             }
-            return Arrays.stream(insert.executeBatch()).sum();
+            return loader.finish();
         }
     }
 
-    public void updateValues(String view, String id, String property, Set<String> values) throws SQLException {
-        var propertyTable = configuration.propertyTables.get(view).get(property);
-        var valueColumn = valueColumn(property, ColumnType.Text);
-        var existing = retrieveValues(propertyTable.name, view, id, valueColumn);
-
-        var deleteCount = deleteValues(
-                propertyTable,
-                idColumn(view),
-                id,
-                valueColumn,
-                existing.stream().filter(value -> !values.contains(value)).collect(Collectors.toList()));
-
-        var insertCount = insertValues(
-                propertyTable,
-                idColumn(view),
-                valueColumn,
-                values.stream().filter(value -> !existing.contains(value))
-                        .map(value -> Pair.of(id, value))
-                        .collect(Collectors.toList()));
+    static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
 
+    /**
+     * Replaces all values of a value set column for a number of subjects.
+     */
+    public void replaceValues(String view, String property, Collection<String> ids, Collection<Pair<String, String>> values) throws SQLException {
+        var propertyTable = configuration.propertyTables.get(view).get(property);
+        var deleteCount = deleteByIds(propertyTable, idColumn(view), ids);
+        var insertCount = copyValues(propertyTable, idColumn(view), valueColumn(property, ColumnType.Text), values);
         log.debug("Deleted {}, inserted {} values for {}_{}", deleteCount, insertCount, view, property);
     }
 
-    public void updateLinks(String view, String id, String joinView, Set<String> links) throws SQLException {
+    /**
+     * Replaces all links from a number of subjects to a joined view.
+     */
+    public void replaceLinks(String view, String joinView, Collection<String> ids, Collection<Pair<String, String>> links) throws SQLException {
         var joinTable = configuration.joinTables.get(view).get(joinView);
-        var existing = retrieveValues(joinTable.name, view, id, idColumn(joinView));
-
-        var deleteCount = deleteValues(
-                joinTable,
-                idColumn(view),
-                id,
-                idColumn(joinView),
-                existing.stream().filter(link -> !links.contains(link)).collect(Collectors.toList()));
-
-        var insertCount = insertValues(
-                joinTable,
-                idColumn(view),
-                idColumn(joinView),
-                links.stream()
-                        .filter(link -> !existing.contains(link))
-                        .map(link -> Pair.of(id, link))
-                        .collect(Collectors.toList()));
-
+        var deleteCount = deleteByIds(joinTable, idColumn(view), ids);
+        var insertCount = copyValues(joinTable, idColumn(view), idColumn(joinView), links);
         log.debug("Deleted {}, inserted {} links for {} - {}", deleteCount, insertCount, view, joinView);
     }
 
@@ -191,85 +247,76 @@ public class ViewStoreClient implements AutoCloseable {
                 insert.executeUpdate();
                 log.debug("Inserted label '{}' for {} (type {})", label, id, type);
             }
+            labelCache.invalidate(id, type, label);
         }
     }
 
-    public int updateRows(String view, List<Map<String, Object>> rows, boolean bulkInsert) throws SQLException {
-        var viewTable = configuration.viewTables.get(view);
-        var config = configuration.viewConfig.get(view);
-        // Find the columns for which there are values in the rows
-        var columnNames = rows.stream()
-                .flatMap(row -> row.entrySet().stream()
-                        .filter(entry -> entry.getValue() != null)
-                        .map(Map.Entry::getKey))
-                .distinct()
-                .filter(columnName -> config.columns.stream().noneMatch(column ->
-                        // Skip value set columns
-                        column.name.equalsIgnoreCase(columnName) && column.type.isSet()))
-                .collect(Collectors.toList());
-        if (columnNames.isEmpty()) {
-            return 0;
-        }
-        var updateSql = "update " + viewTable.name + " set " +
-                columnNames.stream()
-                        .map(column -> column + " = ?")
-                        .collect(Collectors.joining(", ")) +
-                " where id = ?";
-        var insertSql = "insert into " + viewTable.name + " ( " +
-                String.join(", ", columnNames) + " ) values ( " +
-                columnNames.stream()
-                        .map(column -> "?")
-                        .collect(Collectors.joining(", ")) + " )";
-        try (var insert = connection.prepareStatement(insertSql);
-             var update = connection.prepareStatement(updateSql)) {
-            for (var row: rows) {
-                var values = columnNames.stream()
-                        .map(columnName -> row.getOrDefault(columnName, null))
-                        .collect(Collectors.toList());
-                var id = (String) row.get("id");
-                var exists = (!bulkInsert) && rowExists(viewTable.name, id);
-                if (exists) {
-                    for (var i = 0; i < values.size(); i++) {
-                        var value = values.get(i);
-                        setQueryValue(update, i + 1, value);
-                    }
-                    update.setString(values.size() + 1, id);
-                    update.addBatch();
-                } else {
-                    for (var i = 0; i < values.size(); i++) {
-                        var value = values.get(i);
-                        setQueryValue(insert, i + 1, value);
-                    }
-                    insert.addBatch();
+    /**
+     * Adds labels of terms which don't have a label yet, with a multi-row insert.
+     *
+     * @param labels (type, label) pairs by term IRI
+     */
+    public void addLabels(Map<String, Pair<String, String>> labels) throws SQLException {
+        var entries = new ArrayList<>(labels.entrySet());
+        for (var chunk : Lists.partition(entries, MAX_PARAMETERS / 3)) {
+            var insertSql = "insert into label (id, type, label) values " +
+                    String.join(", ", Collections.nCopies(chunk.size(), "(?, ?, ?)")) +
+                    " on conflict do nothing";
+            try (var insert = connection.prepareStatement(insertSql)) {
+                var i = 0;
+                for (var entry : chunk) {
+                    insert.setString(++i, entry.getKey());
+                    insert.setString(++i, entry.getValue().getLeft());
+                    insert.setString(++i, entry.getValue().getRight());
                 }
+                var insertCount = insert.executeUpdate();
+                log.debug("Inserted {} labels", insertCount);
             }
-            var insertCount = Arrays.stream(insert.executeBatch()).sum();
-            if (insertCount > 0) {
-                log.debug("Inserted {} rows into view {}", insertCount, view);
-            }
-            var updateCount = Arrays.stream(update.executeBatch()).sum();
-            if (updateCount > 0) {
-                log.debug("Updated {} rows of view {}", updateCount, view);
-            }
-            return insertCount + updateCount;
         }
+        labels.forEach((id, label) -> labelCache.invalidate(id, label.getLeft(), label.getRight()));
     }
 
-    public void truncateViewTables(String view) throws SQLException {
-        var tables = new ArrayList<Table>();
-        tables.add(configuration.viewTables.get(view));
-        tables.addAll(configuration.propertyTables.getOrDefault(view, Collections.emptyMap()).values());
-        var joins = configuration.viewConfig.get(view).join;
-        if (joins != null) {
-            joins.stream().filter(joinView -> !joinView.reverse)
-                    .forEach(joinView -> tables.add(configuration.joinTables.get(view).get(joinView.view)));
+    /**
+     * Inserts or updates view rows with multi-row upserts, without checking which rows exist.
+     * Every column of the view table is written, so columns without a value in a row are set to null,
+     * and values which were removed from a subject don't survive in the view.
+     * The rows are expected to use the lower case column names of the view table.
+     */
+    public int upsertRows(String view, Collection<Map<String, Object>> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return 0;
         }
-        log.debug("Truncating tables for view {}: {}", view, tables.stream().map(Table::getName).collect(Collectors.toList()));
-        for (var table: tables) {
-            var query = "truncate table " + table.name;
-            try (var statement = connection.prepareStatement(query)) {
-                statement.executeUpdate();
+        var viewTable = configuration.viewTables.get(view);
+        // The view table contains the id, label, collection (if applicable) and all non-set columns
+        var columnNames = viewTable.columns.stream()
+                .map(Table.ColumnDefinition::getName)
+                .collect(Collectors.toList());
+        var tuple = "( " + placeholders(columnNames.size()) + " )";
+        var otherColumns = columnNames.stream()
+                .filter(column -> !column.equalsIgnoreCase("id"))
+                .collect(Collectors.toList());
+        // H2 doesn't support ON CONFLICT DO UPDATE, but has MERGE with a key instead
+        var prefix = (H2_DATABASE ? "merge into " : "insert into ") + viewTable.name +
+                " ( " + String.join(", ", columnNames) + " ) " + (H2_DATABASE ? "key ( id ) " : "") + "values ";
+        var suffix = H2_DATABASE ? "" : otherColumns.isEmpty()
+                ? " on conflict ( id ) do nothing"
+                : " on conflict ( id ) do update set " + otherColumns.stream()
+                        .map(column -> column + " = excluded." + column)
+                        .collect(Collectors.joining(", "));
+        var upsertCount = 0;
+        for (var chunk : Lists.partition(new ArrayList<>(rows), Math.max(1, MAX_PARAMETERS / columnNames.size()))) {
+            var upsertSql = prefix + String.join(", ", Collections.nCopies(chunk.size(), tuple)) + suffix;
+            try (var upsert = connection.prepareStatement(upsertSql)) {
+                var i = 0;
+                for (var row : chunk) {
+                    for (var columnName : columnNames) {
+                        setQueryValue(upsert, ++i, row.get(columnName));
+                    }
+                }
+                upsertCount += upsert.executeUpdate();
             }
         }
+        log.debug("Upserted {} rows of view {}", upsertCount, view);
+        return upsertCount;
     }
 }
@@ -12,6 +12,7 @@ import lombok.extern.slf4j.*;
 import javax.sql.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.*;
 
 import static io.fairspace.saturn.services.views.Table.idColumn;
@@ -20,9 +21,115 @@ import static io.fairspace.saturn.services.views.Table.valueColumn;
 @Slf4j
 public class ViewStoreClientFactory {
     public static boolean H2_DATABASE = false;
+    static final String SHADOW_SUFFIX = "_next";
+    private static final String OLD_SUFFIX = "_old";
+    private static final String INDEX_SUFFIX = "_idx";
+    private static final String TRIGRAM_INDEX_SUFFIX = "_trgm_idx";
 
     public ViewStoreClient build() throws SQLException {
-        return new ViewStoreClient(getConnection(), configuration);
+        return new ViewStoreClient(getConnection(), configuration, labelCache, countCache);
+    }
+
+    /**
+     * @return a client writing to the shadow tables, see {@link #createShadowTables()}
+     */
+    public ViewStoreClient buildShadow() throws SQLException {
+        return new ViewStoreClient(getConnection(), configuration.withTableSuffix(SHADOW_SUFFIX), labelCache, countCache);
+    }
+
+    /**
+     * Creates empty shadow tables (with suffix _next) for all view, property and join tables,
+     * replacing the shadow tables of an interrupted rebuild.
+     * Subjects updated from now on are tracked, see {@link #swapShadowTables()}.
+     */
+    public void createShadowTables() throws SQLException {
+        configuration.updatedDuringRebuild = ConcurrentHashMap.newKeySet();
+        try (var connection = getConnection()) {
+            for (var table : configuration.withTableSuffix(SHADOW_SUFFIX).allTables()) {
+                try (var statement = connection.createStatement()) {
+                    statement.execute("drop table if exists " + table.name);
+                    statement.execute(createTableCommand(table));
+                }
+            }
+            connection.commit();
+        }
+        log.info("Shadow tables created");
+    }
+
+    /**
+     * Creates the secondary indexes of the filled shadow tables and replaces the live tables
+     * with the shadow tables with renames in a single transaction, so readers see either the old or the new index.
+     * Updated subjects are not tracked anymore afterwards. If the swap fails, the shadow tables are dropped.
+     *
+     * @return the subjects updated in the live tables since the shadow tables were created.
+     * Their changes may be missing in the new tables.
+     */
+    public Set<String> swapShadowTables() throws SQLException {
+        Set<String> updated;
+        try {
+            // Indexes are built after loading, which is faster than updating them for every row
+            ensureIndexesExist(configuration.withTableSuffix(SHADOW_SUFFIX).allTables());
+            try (var connection = getConnection()) {
+                for (var table : configuration.allTables()) {
+                    try (var statement = connection.createStatement()) {
+                        statement.execute("alter table " + table.name + " rename to " + table.name + OLD_SUFFIX);
+                        statement.execute("alter table " + table.name + SHADOW_SUFFIX + " rename to " + table.name);
+                        statement.execute("drop table " + table.name + OLD_SUFFIX);
+                        if (!H2_DATABASE) {
+                            // Keep the name of the primary key index free for the next rebuild
+                            statement.execute("alter index " + table.name + SHADOW_SUFFIX + "_pkey rename to " + table.name + "_pkey");
+                        }
+                        // Likewise the names of the secondary indexes
+                        var shadowTable = Table.builder().name(table.name + SHADOW_SUFFIX).columns(table.columns).build();
+                        var indexNames = new ArrayList<>(indexCommands(table).keySet());
+                        var shadowIndexNames = new ArrayList<>(indexCommands(shadowTable).keySet());
+                        for (var i = 0; i < indexNames.size(); i++) {
+                            statement.execute("alter index if exists " + shadowIndexNames.get(i) + " rename to " + indexNames.get(i));
+                        }
+                    }
+                }
+                connection.commit();
+            }
+        } catch (SQLException | RuntimeException e) {
+            // The uncommitted renames are rolled back when the connection is closed
+            try {
+                dropShadowTables();
+            } catch (SQLException dropError) {
+                e.addSuppressed(dropError);
+            }
+            throw e;
+        } finally {
+            updated = stopTrackingUpdates();
+        }
+        countCache.invalidateAll();
+        log.info("Shadow tables swapped in");
+        return updated;
+    }
+
+    /**
+     * Drops the shadow tables of a failed rebuild, together with their indexes.
+     */
+    public void dropShadowTables() throws SQLException {
+        try (var connection = getConnection()) {
+            for (var table : configuration.withTableSuffix(SHADOW_SUFFIX).allTables()) {
+                try (var statement = connection.createStatement()) {
+                    statement.execute("drop table if exists " + table.name);
+                }
+            }
+            connection.commit();
+        }
+        log.info("Shadow tables dropped");
+    }
+
+    /**
+     * Stops tracking updated subjects, e.g. after a failed rebuild.
+     *
+     * @return the subjects updated since the shadow tables were created
+     */
+    public Set<String> stopTrackingUpdates() {
+        var updated = configuration.updatedDuringRebuild;
+        configuration.updatedDuringRebuild = null;
+        return updated == null ? Set.of() : updated;
     }
 
     public static String databaseTypeForColumnType(ColumnType type) {
@@ -41,10 +148,20 @@ public class ViewStoreClientFactory {
             FS.FILE_URI);
 
     final ViewStoreClient.ViewStoreConfiguration configuration;
+    public final ViewsConfig viewsConfig;
     public final DataSource dataSource;
+    public final Config.ViewDatabase viewDatabase;
+    final LabelCache labelCache;
+    final CountCache countCache;
+    // Whether the pg_trgm extension is available for indexes supporting (i)like filters
+    private final boolean trigramIndexes;
 
     public ViewStoreClientFactory(ViewsConfig viewsConfig, Config.ViewDatabase viewDatabase) throws SQLException {
         log.debug("Initializing the database connection");
+        this.viewsConfig = viewsConfig;
+        this.viewDatabase = viewDatabase;
+        this.labelCache = new LabelCache(viewDatabase.labelCacheSize);
+        this.countCache = new CountCache(viewDatabase.countCacheSize);
         var databaseConfig = new HikariConfig();
         databaseConfig.setJdbcUrl(viewDatabase.url);
         databaseConfig.setUsername(viewDatabase.username);
@@ -68,10 +185,21 @@ public class ViewStoreClientFactory {
                 ))
                 .build());
 
+        // State of the view database as a whole, e.g. the number of applied transactions
+        ensureTableExists(Table.builder()
+                .name(ViewStoreClient.METADATA_TABLE)
+                .columns(List.of(
+                        idColumn(),
+                        valueColumn("content", ColumnType.Text)
+                ))
+                .build());
+
         configuration = new ViewStoreClient.ViewStoreConfiguration(viewsConfig);
         for (View view: viewsConfig.views) {
             ensureViewExists(view);
         }
+        trigramIndexes = ensureTrigramExtensionExists();
+        ensureIndexesExist(configuration.allTables());
     }
 
     public Connection getConnection() throws SQLException {
@@ -95,6 +223,19 @@ public class ViewStoreClientFactory {
         return result;
     }
 
+    private static String createTableCommand(Table table) {
+        var columnSpecification =
+                table.columns.stream()
+                        .filter(column -> !column.type.isSet())
+                        .map(column -> String.format("%s %s", column.name, databaseTypeForColumnType(column.type))
+                        ).collect(Collectors.joining(", "));
+        var keys = table.columns.stream()
+                .filter(column -> column.type == ColumnType.Identifier)
+                .map(column -> column.name)
+                .collect(Collectors.joining(", "));
+        return String.format("create table %s ( %s, primary key ( %s ) )", table.name, columnSpecification, keys);
+    }
+
     void ensureTableExists(Table table) throws SQLException {
         try (var connection = getConnection()) {
             log.debug("Check if table {} exists ...", table.name);
@@ -103,16 +244,7 @@ public class ViewStoreClientFactory {
             if (!tableExists) {
                 // Create new table
                 connection.setAutoCommit(true);
-                var columnSpecification =
-                        table.columns.stream()
-                                .filter(column -> !column.type.isSet())
-                                .map(column -> String.format("%s %s", column.name, databaseTypeForColumnType(column.type))
-                                ).collect(Collectors.joining(", "));
-                var keys = table.columns.stream()
-                        .filter(column -> column.type == ColumnType.Identifier)
-                        .map(column -> column.name)
-                        .collect(Collectors.joining(", "));
-                var command = String.format("create table %s ( %s, primary key ( %s ) )", table.name, columnSpecification, keys);
+                var command = createTableCommand(table);
                 log.debug(command);
                 connection.createStatement().execute(command);
                 connection.setAutoCommit(false);
@@ -143,6 +275,86 @@ public class ViewStoreClientFactory {
         }
     }
 
+    private boolean ensureTrigramExtensionExists() {
+        if (H2_DATABASE) {
+            return false;
+        }
+        try (var connection = getConnection();
+             var statement = connection.createStatement()) {
+            statement.execute("create extension if not exists pg_trgm");
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            log.warn("Could not enable the pg_trgm extension, text columns will not be indexed: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Derives the secondary indexes of a view, property or join table from its columns:
+     * <ul>
+     *     <li>a B-tree index on every Term, Link, Number and Date column of a view table, for value and range filters;</li>
+     *     <li>a pg_trgm GIN index on every Text column of a view table, including the label, for prefix filters
+     *     and file search (ilike). Text values may be too long for a B-tree index;</li>
+     *     <li>a reverse index on the identifier columns of a property or join table, for filters on the values
+     *     and joins from the other side. The primary key only covers lookups by the first column.</li>
+     * </ul>
+     *
+     * @return the create index commands by index name
+     */
+    Map<String, String> indexCommands(Table table) {
+        var commands = new LinkedHashMap<String, String>();
+        var identifiers = table.columns.stream()
+                .filter(column -> column.type == ColumnType.Identifier)
+                .map(column -> column.name)
+                .collect(Collectors.toList());
+        if (identifiers.size() == 2) {
+            var name = table.name + "_reverse" + INDEX_SUFFIX;
+            commands.put(name, String.format("create index if not exists %s on %s ( %s, %s )",
+                    name, table.name, identifiers.get(1), identifiers.get(0)));
+            return commands;
+        }
+        for (var column : table.columns) {
+            switch (column.type) {
+                case Term, Link, Number, Date -> {
+                    var name = table.name + "_" + column.name + INDEX_SUFFIX;
+                    commands.put(name, String.format("create index if not exists %s on %s ( %s )",
+                            name, table.name, column.name));
+                }
+                case Text -> {
+                    if (trigramIndexes) {
+                        var name = table.name + "_" + column.name + TRIGRAM_INDEX_SUFFIX;
+                        commands.put(name, String.format("create index if not exists %s on %s using gin ( %s gin_trgm_ops )",
+                                name, table.name, column.name));
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        return commands;
+    }
+
+    /**
+     * Creates the missing secondary indexes of the tables, see {@link #indexCommands(Table)}.
+     * Also adds the indexes of new columns and to existing databases.
+     */
+    void ensureIndexesExist(Collection<Table> tables) throws SQLException {
+        try (var connection = getConnection()) {
+            connection.setAutoCommit(true);
+            for (var table : tables) {
+                for (var command : indexCommands(table).values()) {
+                    log.debug(command);
+                    try (var statement = connection.createStatement()) {
+                        statement.execute(command);
+                    }
+                }
+            }
+            connection.setAutoCommit(false);
+        }
+        log.info("Indexes of {} tables checked.", tables.size());
+    }
+
     void validateViewConfig(ViewsConfig.View view) {
         if (view.columns.stream().anyMatch(column ->
                 column.name.equalsIgnoreCase("id"))) {
@@ -1,5 +1,8 @@
 package io.fairspace.saturn.services.views;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
 import io.fairspace.saturn.config.*;
 import io.fairspace.saturn.config.ViewsConfig.*;
 import io.fairspace.saturn.services.search.FileSearchRequest;
@@ -18,6 +21,7 @@ import java.util.stream.*;
 import static io.fairspace.saturn.config.ViewsConfig.ColumnType.Date;
 import static io.fairspace.saturn.config.ViewsConfig.ColumnType.Boolean;
 import static io.fairspace.saturn.services.views.Table.idColumn;
+import static io.fairspace.saturn.services.views.ViewStoreClient.placeholders;
 
 /**
  * Executes SQL queries via JDBC on the view database
@@ -29,39 +33,40 @@ import static io.fairspace.saturn.services.views.Table.idColumn;
  */
 @Slf4j
 public class ViewStoreReader implements AutoCloseable {
+    private static final int MAX_IDS_PER_QUERY = 1000;
+
     final Config.Search searchConfig;
     final ViewStoreClient.ViewStoreConfiguration configuration;
     final Connection connection;
+    final LabelCache labelCache;
 
     public ViewStoreReader(Config.Search searchConfig, ViewStoreClientFactory viewStoreClientFactory) throws SQLException {
         this.searchConfig = searchConfig;
         this.configuration = viewStoreClientFactory.configuration;
         this.connection = viewStoreClientFactory.getConnection();
+        this.labelCache = viewStoreClientFactory.labelCache;
     }
 
-    String label(String id) throws SQLException {
-        try (var query = connection.prepareStatement(
-                "select label from label where id = ?")) {
-            query.setString(1, id);
-            var result = query.executeQuery();
-            if (result.next()) {
-                return result.getString("label");
+    /**
+     * Resolves the IRIs of the values of Term columns, left unresolved by {@link #transformRow(View, ResultSet)},
+     * with a single cache lookup per column.
+     */
+    void resolveTermIris(View viewConfig, Collection<Map<String, Set<ValueDTO>>> rows) throws SQLException {
+        for (var viewColumn : viewConfig.columns) {
+            if (viewColumn.type != ColumnType.Term) {
+                continue;
             }
-        }
-        return null;
-    }
-
-    String iriForLabel(String type, String label) throws SQLException {
-        try (var query = connection.prepareStatement(
-                "select id from label where type = ? and label = ?")) {
-            query.setString(1, type);
-            query.setString(2, label);
-            var result = query.executeQuery();
-            if (result.next()) {
-                return result.getString("id");
+            var columnName = viewConfig.name + "_" + viewColumn.name;
+            var labels = rows.stream()
+                    .map(row -> row.get(columnName).iterator().next().getLabel())
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toSet());
+            var iris = labelCache.iris(connection, viewColumn.rdfType, labels);
+            for (var row : rows) {
+                var label = row.get(columnName).iterator().next().getLabel();
+                row.put(columnName, Collections.singleton(new ValueDTO(label, label == null ? null : iris.get(label))));
             }
         }
-        return null;
     }
 
     Map<String, Set<ValueDTO>> transformRow(View viewConfig, ResultSet result) throws SQLException {
@@ -92,7 +97,8 @@ public class ViewStoreReader implements AutoCloseable {
             } else {
                 var value = result.getString(column.name);
                 if (viewColumn.type == ColumnType.Term) {
-                    row.put(columnName, Collections.singleton(new ValueDTO(value, iriForLabel(viewColumn.rdfType, value))));
+                    // The IRI is resolved for all rows at once, see resolveTermIris
+                    row.put(columnName, Collections.singleton(new ValueDTO(value, null)));
                 } else {
                     row.put(columnName, Collections.singleton(new ValueDTO(value, value)));
                 }
@@ -132,6 +138,15 @@ public class ViewStoreReader implements AutoCloseable {
     }
 
     void prepareFilters(List<ViewFilter> filters) throws SQLException {
+        var termIds = new ArrayList<String>();
+        for (var filter : filters) {
+            var column = filter.getField().equalsIgnoreCase("location") ? null : checkField(filter.getField());
+            if (column != null && filter.values != null && EnumSet.of(ColumnType.Term, ColumnType.TermSet).contains(column.type)) {
+                filter.values.forEach(value -> termIds.add(value.toString()));
+            }
+        }
+        // Look up the labels of all term filter values at once
+        var labels = labelCache.labels(connection, termIds);
         for (var filter : filters) {
             if (filter.getField().equalsIgnoreCase("location")) {
                 filter.setField("Resource");
@@ -145,7 +160,7 @@ public class ViewStoreReader implements AutoCloseable {
             if (EnumSet.of(ColumnType.Term, ColumnType.TermSet).contains(column.type)) {
                 var values = new ArrayList<>();
                 for (var value : filter.values) {
-                    var label = label(value.toString());
+                    var label = labels.get(value.toString());
                     if (label == null) {
                         log.error("No label found for value " + value.toString());
                         // throw new IllegalStateException("No label found for value " + value.toString());
@@ -256,9 +271,25 @@ public class ViewStoreReader implements AutoCloseable {
     }
 
     PreparedStatement query(String view, String projection, List<ViewFilter> filters, String scope) throws SQLException {
+        return query(view, projection, filters, null, scope);
+    }
+
+    /**
+     * @param after if not null, only rows with a greater id are selected (keyset pagination)
+     */
+    PreparedStatement query(String view, String projection, List<ViewFilter> filters, String after, String scope) throws SQLException {
+        return query(view, projection, filters, after, scope, false);
+    }
+
+    private PreparedStatement query(String view, String projection, List<ViewFilter> filters, String after, String scope, boolean explain) throws SQLException {
         if (filters == null) {
             filters = Collections.emptyList();
         }
+        // Filters are prepared in place, so prepare copies to allow using the same filters in several queries
+        filters = filters.stream()
+                .map(filter -> new ViewFilter(filter.field, filter.values, filter.min, filter.max,
+                        filter.booleanValue, filter.prefix, filter.prefixes))
+                .collect(Collectors.toList());
         prepareFilters(filters);
         var filtersByView = filters.stream().collect(Collectors.groupingBy(
                 filter -> filter.getField().split("_")[0]
@@ -281,14 +312,21 @@ public class ViewStoreReader implements AutoCloseable {
                             ")";
                 })
                 .collect(Collectors.toList());
+        String seekConstraint = null;
+        if (after != null) {
+            // Uses the primary key index, like the ordering by id
+            seekConstraint = "v.id > ?";
+            values.add(after);
+        }
         constraints = Stream.concat(
                 Stream.of(constraints),
-                subqueries.stream())
+                Stream.concat(subqueries.stream(), Stream.of(seekConstraint)))
                 .filter(constraint -> constraint != null && !constraint.isBlank())
                 .collect(Collectors.joining(" and "));
 
         var viewTable = configuration.viewTables.get(view);
         var query = connection.prepareStatement(
+                (explain ? "explain (format json) " : "") +
                 "select " + projection +
                         " from " + viewTable.name + " v " +
                         (constraints.isBlank() ? "" : " where " + constraints) +
@@ -308,36 +346,52 @@ public class ViewStoreReader implements AutoCloseable {
         return query;
     }
 
-    Map<String, PreparedStatement> prepareValueSetQueries(String view, List<String> properties) throws SQLException {
-        var valueSetQueries = new LinkedHashMap<String, PreparedStatement>();
+    /**
+     * Adds the values of the value set columns to the rows, with one query per column
+     * for every {@link #MAX_IDS_PER_QUERY} rows.
+     *
+     * @param rowsById the rows by the id of the view resource
+     */
+    void addValueSetValues(String view, Map<String, Map<String, Set<ValueDTO>>> rowsById, List<String> properties) throws SQLException {
+        if (rowsById.isEmpty()) {
+            return;
+        }
+        var idColumn = idColumn(view).name;
         for (var propertyName : properties) {
             var propertyTable = configuration.propertyTables.get(view).get(propertyName);
-            var valueSetQuery = connection.prepareStatement(
-                    "select " + propertyName.toLowerCase() +
-                            " from " + propertyTable.name + " p " +
-                            " where p." + idColumn(view).name + " = ?");
-            valueSetQueries.put(propertyName, valueSetQuery);
+            var valueColumn = propertyName.toLowerCase();
+            var columnName = view + "_" + propertyName;
+            for (var row : rowsById.values()) {
+                row.put(columnName, new LinkedHashSet<>());
+            }
+            for (var chunk : Lists.partition(new ArrayList<>(rowsById.keySet()), MAX_IDS_PER_QUERY)) {
+                try (var valueSetQuery = connection.prepareStatement(
+                        "select " + idColumn + ", " + valueColumn +
+                                " from " + propertyTable.name +
+                                " where " + idColumn + " in ( " + placeholders(chunk.size()) + " )")) {
+                    setIds(valueSetQuery, chunk);
+                    var valueSetResult = valueSetQuery.executeQuery();
+                    while (valueSetResult.next()) {
+                        var label = valueSetResult.getString(valueColumn);
+                        rowsById.get(valueSetResult.getString(idColumn)).get(columnName).add(new ValueDTO(label, label));
+                    }
+                }
+            }
         }
-        return valueSetQueries;
     }
 
-    void addValueSetValues(String view, Map<String, Set<ValueDTO>> row, List<String> properties, Map<String, PreparedStatement> valueSetQueries) throws SQLException {
-        var rowId = (String) row.get(view).stream().findFirst().orElseThrow().getValue();
-        for (var propertyName : properties) {
-            var valueSetQuery = valueSetQueries.get(propertyName);
-            valueSetQuery.setString(1, rowId);
-            var valueSetResult = valueSetQuery.executeQuery();
-            var values = new LinkedHashSet<ValueDTO>();
-            while (valueSetResult.next()) {
-                var label = valueSetResult.getString(propertyName.toLowerCase());
-                values.add(new ValueDTO(label, label));
-            }
-            row.put(view + "_" + propertyName, values);
+    private static void setIds(PreparedStatement query, List<String> ids) throws SQLException {
+        for (var i = 0; i < ids.size(); i++) {
+            query.setString(i + 1, ids.get(i));
         }
     }
 
+    static String rowId(String view, Map<String, Set<ValueDTO>> row) {
+        return (String) row.get(view).stream().findFirst().orElseThrow().getValue();
+    }
+
     List<Map<String, Set<ValueDTO>>> retrieveViewTableRows(
-            String view, List<ViewFilter> filters, int offset, int limit) throws SQLException {
+            String view, List<ViewFilter> filters, String after, int offset, int limit) throws SQLException {
         var viewConfig = configuration.viewConfig.get(view);
         if (viewConfig == null) {
             throw new IllegalArgumentException("View not supported: " + view);
@@ -346,32 +400,37 @@ public class ViewStoreReader implements AutoCloseable {
                 .filter(column -> column.type.isSet())
                 .map(column -> column.name)
                 .collect(Collectors.toList());
-        var valueSetQueries = prepareValueSetQueries(view, valueSetProperties);
         var start = new Date().getTime();
-        try (var query = query(view, "*", filters,
+        try (var query = query(view, "*", filters, after,
                 String.format("order by id %s limit %d", offset > 0 ? String.format("offset %d", offset) : "", limit))) {
             query.setQueryTimeout((int) searchConfig.pageRequestTimeout);
             var result = query.executeQuery();
             log.debug("Query took {} ms", new Date().getTime() - start);
             var mid = new Date().getTime();
-            List<Map<String, Set<ValueDTO>>> rows = new ArrayList<>();
+            var rowsById = new LinkedHashMap<String, Map<String, Set<ValueDTO>>>();
             while (result.next()) {
                 var row = transformRow(viewConfig, result);
-                addValueSetValues(view, row, valueSetProperties, valueSetQueries);
-                rows.add(row);
+                rowsById.put(rowId(view, row), row);
             }
+            resolveTermIris(viewConfig, rowsById.values());
+            addValueSetValues(view, rowsById, valueSetProperties);
             log.debug("Processing rows + querying value sets took {} ms", new Date().getTime() - mid);
-            return rows;
+            return new ArrayList<>(rowsById.values());
         } finally {
-            for (var q : valueSetQueries.values()) {
-                q.close();
-            }
             log.debug("Complete process took {} ms", new Date().getTime() - start);
         }
     }
 
-    List<Map<String, Set<ValueDTO>>> retrieveJoinTableRows(
-            String view, View.JoinView joinView, String id) throws SQLException {
+    /**
+     * Retrieves the rows of a joined view linked to any of the specified rows of a view,
+     * with one query for every {@link #MAX_IDS_PER_QUERY} rows.
+     * A joined row linked to several rows is retrieved once.
+     *
+     * @param ids the ids of the rows of the view
+     * @return the joined rows by the id of the row they are linked to
+     */
+    Map<String, List<Map<String, Set<ValueDTO>>>> retrieveJoinTableRows(
+            String view, View.JoinView joinView, List<String> ids) throws SQLException {
         var joinedTable = configuration.viewTables.get(joinView.view);
         var joinViewConfig = configuration.viewConfig.get(joinView.view);
         var valueSetProperties = joinViewConfig.columns.stream()
@@ -379,57 +438,65 @@ public class ViewStoreReader implements AutoCloseable {
                 .map(column -> column.name)
                 .filter(joinView.include::contains)
                 .collect(Collectors.toList());
-        var valueSetQueries = prepareValueSetQueries(joinView.view, valueSetProperties);
         var joinTable = configuration.joinTables.get(view).get(joinView.view);
         var projectionColumns = Stream.concat(
                 Stream.of("id", "label"),
                 joinView.include.stream()
                         .filter(column -> !valueSetProperties.contains(column)))
                 .collect(Collectors.toList());
-        var query = connection.prepareStatement(
-                "select " + projectionColumns.stream().map(String::toLowerCase).collect(Collectors.joining(", ")) +
-                        " from " + joinedTable.name + " j " +
-                        " where exists (" +
-                        "   select * from " + joinTable.name + " jt " +
-                        "   where jt." + idColumn(joinView.view).name + " = j.id" +
-                        "   and jt." + idColumn(view).name + " = ? )"
-        );
-        query.setString(1, id);
-        var result = query.executeQuery();
-        List<Map<String, Set<ValueDTO>>> rows = new ArrayList<>();
-        while (result.next()) {
-            Map<String, Set<ValueDTO>> row = new HashMap<>();
-            row.put(joinView.view, Collections.singleton(new ValueDTO(result.getString("label"), result.getString("id"))));
-            for (var column : projectionColumns) {
-                var columnName = joinView.view + "_" + column;
-                var columnDefinition = configuration.viewTables.get(joinView.view).getColumns().stream()
-                        .filter(c -> c.getName().equalsIgnoreCase(column))
-                        .findFirst().orElseThrow(() -> {
-                            throw new NoSuchElementException("Cannot find column " + column);
-                        });
-                if (columnDefinition.type == ColumnType.Number) {
-                    var value = result.getBigDecimal(columnDefinition.name);
-                    if (value != null) {
-                        row.put(columnName, Collections.singleton(new ValueDTO(value.toString(), value)));
-                    }
-                } else if (columnDefinition.type == Date) {
-                    var value = result.getTimestamp(columnDefinition.name);
-                    if (value != null) {
-                        row.put(columnName, Collections.singleton(new ValueDTO(value.toInstant().toString(), value.toString())));
+        var idColumn = idColumn(view).name;
+        var joinedRowsById = new HashMap<String, Map<String, Set<ValueDTO>>>();
+        var rowsById = new HashMap<String, List<Map<String, Set<ValueDTO>>>>();
+        for (var chunk : Lists.partition(ids, MAX_IDS_PER_QUERY)) {
+            try (var query = connection.prepareStatement(
+                    "select jt." + idColumn + ", " +
+                            projectionColumns.stream().map(column -> "j." + column.toLowerCase()).collect(Collectors.joining(", ")) +
+                            " from " + joinTable.name + " jt " +
+                            " join " + joinedTable.name + " j " +
+                            " on j.id = jt." + idColumn(joinView.view).name +
+                            " where jt." + idColumn + " in ( " + placeholders(chunk.size()) + " )")) {
+                setIds(query, chunk);
+                var result = query.executeQuery();
+                while (result.next()) {
+                    var row = joinedRowsById.get(result.getString("id"));
+                    if (row == null) {
+                        row = transformJoinRow(joinView, projectionColumns, result);
+                        joinedRowsById.put(result.getString("id"), row);
                     }
-                } else {
-                    var label = result.getString(columnDefinition.name);
-                    row.put(columnName, Collections.singleton(new ValueDTO(label, label)));
+                    rowsById.computeIfAbsent(result.getString(idColumn), id -> new ArrayList<>()).add(row);
                 }
             }
-            addValueSetValues(joinView.view, row, valueSetProperties, valueSetQueries);
-            rows.add(row);
         }
-        for (var q : valueSetQueries.values()) {
-            q.close();
+        addValueSetValues(joinView.view, joinedRowsById, valueSetProperties);
+        return rowsById;
+    }
+
+    private Map<String, Set<ValueDTO>> transformJoinRow(View.JoinView joinView, List<String> projectionColumns, ResultSet result) throws SQLException {
+        Map<String, Set<ValueDTO>> row = new HashMap<>();
+        row.put(joinView.view, Collections.singleton(new ValueDTO(result.getString("label"), result.getString("id"))));
+        for (var column : projectionColumns) {
+            var columnName = joinView.view + "_" + column;
+            var columnDefinition = configuration.viewTables.get(joinView.view).getColumns().stream()
+                    .filter(c -> c.getName().equalsIgnoreCase(column))
+                    .findFirst().orElseThrow(() -> {
+                        throw new NoSuchElementException("Cannot find column " + column);
+                    });
+            if (columnDefinition.type == ColumnType.Number) {
+                var value = result.getBigDecimal(columnDefinition.name);
+                if (value != null) {
+                    row.put(columnName, Collections.singleton(new ValueDTO(value.toString(), value)));
+                }
+            } else if (columnDefinition.type == Date) {
+                var value = result.getTimestamp(columnDefinition.name);
+                if (value != null) {
+                    row.put(columnName, Collections.singleton(new ValueDTO(value.toInstant().toString(), value.toString())));
+                }
+            } else {
+                var label = result.getString(columnDefinition.name);
+                row.put(columnName, Collections.singleton(new ValueDTO(label, label)));
+            }
         }
-        query.close();
-        return rows;
+        return row;
     }
 
     /**
@@ -483,6 +550,7 @@ public class ViewStoreReader implements AutoCloseable {
      *
      * @param view               the name of the view.
      * @param filters            the filters to apply.
+     * @param after              if not null, only rows after the row with this id are included (keyset pagination).
      * @param offset             the index (zero-based) of the first row to include (for pagination)
      * @param limit              the maximum number of results to return.
      * @param includeJoinedViews if true, include joined views in the resulting rows.
@@ -491,6 +559,7 @@ public class ViewStoreReader implements AutoCloseable {
      */
     public List<Map<String, Set<ValueDTO>>> retrieveRows(
             String view, List<ViewFilter> filters,
+            String after,
             int offset,
             int limit,
             boolean includeJoinedViews
@@ -501,13 +570,14 @@ public class ViewStoreReader implements AutoCloseable {
                 throw new IllegalArgumentException("View not supported: " + view);
             }
             // Fetch rows with columns from the view table
-            var rows = this.retrieveViewTableRows(view, filters, offset, limit);
+            var rows = this.retrieveViewTableRows(view, filters, after, offset, limit);
             // Add items from join tables
-            if (includeJoinedViews) {
+            if (includeJoinedViews && !rows.isEmpty()) {
+                var ids = rows.stream().map(row -> rowId(view, row)).collect(Collectors.toList());
                 for (var joinView : viewConfig.join) {
+                    var joinTableRows = this.retrieveJoinTableRows(view, joinView, ids);
                     for (var row : rows) {
-                        var id = (String) row.get(view).stream().findFirst().orElseThrow().getValue();
-                        for (var joinTableRow : this.retrieveJoinTableRows(view, joinView, id)) {
+                        for (var joinTableRow : joinTableRows.getOrDefault(rowId(view, row), Collections.emptyList())) {
                             joinTableRow.forEach((key, values) -> {
                                 if (!row.containsKey(key)) {
                                     row.put(key, new LinkedHashSet<>());
@@ -539,12 +609,41 @@ public class ViewStoreReader implements AutoCloseable {
             result.next();
             return result.getLong("rowCount");
         } catch (SQLTimeoutException e) {
+            // The timeout aborts the transaction, roll back to allow further queries
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackException) {
+                log.error("Error rolling back after a timeout", rollbackException);
+            }
             throw e;
         } catch (SQLException e) {
             throw new QueryException("Error counting rows", e);
         }
     }
 
+    /**
+     * Estimates the number of rows of a view after applying the specified filters,
+     * using the row estimate of the PostgreSQL query planner, based on the table statistics.
+     * Doesn't read the rows, so it takes the same time for any size of the view.
+     *
+     * @return the estimate, or null if the database doesn't support estimates (H2)
+     */
+    public Long estimateRows(String view, List<ViewFilter> filters) {
+        if (ViewStoreClientFactory.H2_DATABASE) {
+            return null;
+        }
+        try (var q = query(view, "v.id", filters, null, null, true)) {
+            var result = q.executeQuery();
+            result.next();
+            var plan = new ObjectMapper().readTree(result.getString(1));
+            return plan.get(0).get("Plan").get("Plan Rows").asLong();
+        } catch (SQLException e) {
+            throw new QueryException("Error estimating the number of rows", e);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unexpected query plan", e);
+        }
+    }
+
     public List<SearchResultDTO> searchFiles(FileSearchRequest request, List<String> userCollections) {
         if (userCollections == null || userCollections.isEmpty()) {
             return Collections.emptyList();
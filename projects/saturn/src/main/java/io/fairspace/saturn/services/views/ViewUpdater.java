@@ -21,7 +21,6 @@ import java.util.concurrent.atomic.*;
 import java.util.stream.*;
 
 import static io.fairspace.saturn.config.ConfigLoader.CONFIG;
-import static io.fairspace.saturn.config.ConfigLoader.VIEWS_CONFIG;
 import static io.fairspace.saturn.services.views.Table.idColumn;
 import static io.fairspace.saturn.services.views.Table.valueColumn;
 import static io.fairspace.saturn.services.views.ViewStoreClientFactory.protectedResources;
@@ -31,6 +30,8 @@ public class ViewUpdater implements AutoCloseable {
     private final ViewStoreClient viewStoreClient;
     private final DatasetGraph dsg;
     private final Graph graph;
+    // Labels collected while updating a batch of subjects, added at once at the end
+    private Map<String, Pair<String, String>> pendingLabels;
 
     public ViewUpdater(ViewStoreClient viewStoreClient, DatasetGraph dsg) {
         this.viewStoreClient = viewStoreClient;
@@ -90,7 +91,7 @@ public class ViewUpdater implements AutoCloseable {
             }
             case Term, TermSet -> {
                 var label = getLabel(graph, node);
-                viewStoreClient.addLabel(node.getURI(), column.rdfType, label);
+                addLabel(node.getURI(), column.rdfType, label);
                 yield label;
             }
             default -> {
@@ -103,6 +104,14 @@ public class ViewUpdater implements AutoCloseable {
         };
     }
 
+    private void addLabel(String id, String type, String label) throws SQLException {
+        if (pendingLabels != null) {
+            pendingLabels.putIfAbsent(id, Pair.of(type, label));
+        } else {
+            viewStoreClient.addLabel(id, type, label);
+        }
+    }
+
     /**
      * If the subject is a protected resource, add the collection name to the row.
      * @param type The type IRI
@@ -124,115 +133,113 @@ public class ViewUpdater implements AutoCloseable {
         }
     }
 
-    public void updateSubject(Node subject) {
-        if (!subject.isURI()) {
-            return;
-        }
-        var typeNode = graph.find(subject, RDF.type.asNode(), Node.ANY).nextOptional();
-        if (typeNode.isEmpty()) {
-            log.debug("Subject {} has no type!", subject.getURI());
-            return;
-        }
+    /**
+     * Updates the views of a number of subjects at once.
+     * The rows, value sets and links of all subjects are computed first and then written with a few statements per view:
+     * a multi-row upsert of the rows, set-based deletes of the old value set and link rows followed by a bulk insert
+     * (COPY on PostgreSQL) of the current ones, and a single insert of all term labels.
+     * A failure is thrown rather than logged, so the caller doesn't record the subjects as indexed and retries them.
+     */
+    public void updateSubjects(Iterable<Node> subjects) throws SQLException {
         var start = new Date().getTime();
-        var type = typeNode.get().getObject();
-        log.debug("Subject {} of type {}", subject.getURI(), type.getLocalName());
-        VIEWS_CONFIG.views.stream().filter(view -> view.types.contains(type.getURI())).forEach(view -> {
-            if (graph.find(subject, FS.dateDeleted.asNode(), Node.ANY).hasNext()) {
-                log.debug("Deleting entity {} of type {} from view {}", subject.getURI(), type.getLocalName(), view.name);
-                try {
-                    viewStoreClient.deleteRow(view.name, subject.getURI());
-                } catch (SQLException e) {
-                    log.error("Failed to delete row from view", e);
+        var updated = new LinkedHashMap<ViewsConfig.View, Map<Node, String>>();
+        var deleted = new LinkedHashMap<ViewsConfig.View, List<String>>();
+        var ids = new ArrayList<String>();
+        var count = 0;
+        for (var subject: subjects) {
+            if (!subject.isURI()) {
+                continue;
+            }
+            ids.add(subject.getURI());
+            var typeNode = graph.find(subject, RDF.type.asNode(), Node.ANY).nextOptional();
+            if (typeNode.isEmpty()) {
+                log.debug("Subject {} has no type!", subject.getURI());
+                continue;
+            }
+            var type = typeNode.get().getObject().getURI();
+            var isDeleted = graph.find(subject, FS.dateDeleted.asNode(), Node.ANY).hasNext();
+            for (var view: viewStoreClient.configuration.viewConfig.values()) {
+                if (!view.types.contains(type)) {
+                    continue;
                 }
-            } else {
-                log.debug("Updating entity {} of type {} in view {}", subject.getURI(), type.getLocalName(), view.name);
-                var row = new HashMap<String, Object>();
-                row.put("id", subject.getURI());
-                row.put("label", getLabel(graph, subject));
-                addCollectionToProtectedResourceRow(type.getURI(), subject, row);
-                // Update subject value columns
-                try {
-                    for (var column: view.columns) {
-                        var objects = retrieveValues(graph, subject, column.source);
-                        if (objects.isEmpty()) {
-                            continue;
-                        }
-                        row.put(column.name, getValue(column, objects.get(0)));
-                    }
-                    viewStoreClient.updateRows(view.name, List.of(row), false);
-                } catch (SQLException e) {
-                    log.error("Failed to update view row", e);
+                if (isDeleted) {
+                    deleted.computeIfAbsent(view, v -> new ArrayList<>()).add(subject.getURI());
+                } else {
+                    updated.computeIfAbsent(view, v -> new LinkedHashMap<>()).put(subject, type);
                 }
-                // Update subject value sets
-                for (ViewsConfig.View.Column column: view.columns) {
-                    if (!column.type.isSet()) {
-                        continue;
-                    }
-                    var objects = retrieveValues(graph, subject, column.source);
-                    if (objects.isEmpty()) {
-                        // continue;
-                    }
-                    try {
-                        var values = new HashSet<String>();
-                        for (var term: objects) {
-                            if (column.type == ViewsConfig.ColumnType.TermSet) {
-                                var label = getLabel(graph, term);
-                                viewStoreClient.addLabel(term.getURI(), column.rdfType, label);
-                                values.add(label);
-                            } else {
-                                values.add(term.getLiteralValue().toString());
-                            }
+            }
+            count++;
+        }
+        viewStoreClient.trackUpdates(ids);
+        for (var entry: deleted.entrySet()) {
+            viewStoreClient.deleteRows(entry.getKey().name, entry.getValue());
+        }
+        pendingLabels = new LinkedHashMap<>();
+        try {
+            for (var entry: updated.entrySet()) {
+                updateView(entry.getKey(), entry.getValue());
+            }
+            viewStoreClient.addLabels(pendingLabels);
+        } finally {
+            pendingLabels = null;
+        }
+        log.debug("Updating {} subjects took {}ms", count, new Date().getTime() - start);
+    }
+
+    /**
+     * @param subjects the types of the subjects to update by subject
+     */
+    private void updateView(ViewsConfig.View view, Map<Node, String> subjects) throws SQLException {
+        var rows = new ArrayList<Map<String, Object>>();
+        var values = new HashMap<String, List<Pair<String, String>>>();
+        var links = new HashMap<String, List<Pair<String, String>>>();
+        for (var entry: subjects.entrySet()) {
+            var subject = entry.getKey();
+            var row = new HashMap<String, Object>();
+            row.put("id", subject.getURI());
+            row.put("label", getLabel(graph, subject));
+            addCollectionToProtectedResourceRow(entry.getValue(), subject, row);
+            for (var column: view.columns) {
+                var objects = retrieveValues(graph, subject, column.source);
+                if (column.type.isSet()) {
+                    var subjectValues = new LinkedHashSet<String>();
+                    for (var term: objects) {
+                        if (column.type == ViewsConfig.ColumnType.TermSet) {
+                            var label = getLabel(graph, term);
+                            addLabel(term.getURI(), column.rdfType, label);
+                            subjectValues.add(label);
+                        } else {
+                            subjectValues.add(term.getLiteralValue().toString());
                         }
-                        viewStoreClient.updateValues(
-                                view.name,
-                                subject.getURI(),
-                                column.name,
-                                values);
-                    } catch (SQLException e) {
-                        log.error("Failed to update view value sets", e);
                     }
+                    var columnValues = values.computeIfAbsent(column.name, c -> new ArrayList<>());
+                    subjectValues.forEach(value -> columnValues.add(Pair.of(subject.getURI(), value)));
+                } else if (!objects.isEmpty()) {
+                    row.put(column.name.toLowerCase(), getValue(column, objects.get(0)));
                 }
-                // Update subject links
-                if (view.join != null) {
-                    for (var joinView: view.join) {
-                        var relation = NodeFactory.createURI(joinView.on);
-                        var objects = joinView.reverse ?
-                                graph.find(Node.ANY, relation, subject).mapWith(Triple::getSubject).toList() :
-                                graph.find(subject, relation, Node.ANY).mapWith(Triple::getObject).toList();
-                        if (objects.isEmpty()) {
-                            continue;
-                        }
-                        try {
-                            viewStoreClient.updateLinks(
-                                    view.name,
-                                    subject.getURI(),
-                                    joinView.view,
-                                    objects.stream().map(Node::getURI).collect(Collectors.toSet()));
-                        } catch (SQLException e) {
-                            log.error("Failed to update view links", e);
-                        }
-                    }
+            }
+            rows.add(row);
+            if (view.join != null) {
+                for (var joinView: view.join) {
+                    var relation = NodeFactory.createURI(joinView.on);
+                    var objects = joinView.reverse ?
+                            graph.find(Node.ANY, relation, subject).mapWith(Triple::getSubject).toSet() :
+                            graph.find(subject, relation, Node.ANY).mapWith(Triple::getObject).toSet();
+                    var joinLinks = links.computeIfAbsent(joinView.view, v -> new ArrayList<>());
+                    objects.forEach(object -> joinLinks.add(Pair.of(subject.getURI(), object.getURI())));
                 }
             }
-        });
-        log.debug("Updating subject of type {} took {}ms", type.getLocalName(), new Date().getTime() - start);
-    }
-
-    public void recreateIndexForView(ViewStoreClient viewStoreClient, ViewsConfig.View view) throws SQLException {
-        // Clear database tables for view
-        viewStoreClient.truncateViewTables(view.name);
-        for (String type : view.types) {
-            copyValuesForType(view, type);
-            var valueSetColumns = view.columns.stream()
-                    .filter(column -> column.type.isSet())
-                    .collect(Collectors.toList());
-            for (var valueSetColumn: valueSetColumns) {
-                copyValueSetsForColumn(view, type, valueSetColumn);
+        }
+        viewStoreClient.upsertRows(view.name, rows);
+        var ids = subjects.keySet().stream().map(Node::getURI).collect(Collectors.toList());
+        for (var column: view.columns) {
+            if (column.type.isSet()) {
+                viewStoreClient.replaceValues(view.name, column.name, ids, values.getOrDefault(column.name, List.of()));
             }
-            for (var join: view.join) {
-                if (!join.reverse) {
-                    copyLinks(view, type, join);
-                }
+        }
+        if (view.join != null) {
+            for (var joinView: view.join) {
+                viewStoreClient.replaceLinks(view.name, joinView.view, ids, links.getOrDefault(joinView.view, List.of()));
             }
         }
     }
@@ -253,16 +260,55 @@ public class ViewUpdater implements AutoCloseable {
         return values;
     }
 
+    @FunctionalInterface
+    private interface RowMapper {
+        List<?> map(QuerySolution solution) throws SQLException;
+    }
+
+    /**
+     * Streams the results of a query into a table with a {@link TableLoader}.
+     * Term labels are collected meanwhile and added afterwards, as the connection is busy while copying.
+     *
+     * @return the number of inserted rows
+     */
+    private int load(String table, List<String> columns, String query, RowMapper mapper) throws SQLException {
+        var error = new AtomicReference<SQLException>();
+        pendingLabels = new LinkedHashMap<>();
+        try (var loader = TableLoader.open(viewStoreClient.connection, table, columns)) {
+            try {
+                SparqlUtils.querySelect(dsg, query, (QuerySolution q) -> {
+                    try {
+                        loader.add(mapper.map(q));
+                    } catch (SQLException e) {
+                        error.set(e);
+                        throw new RuntimeException("Failed to bulk insert rows", e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                if (error.get() != null) {
+                    throw error.get();
+                }
+                throw e;
+            }
+            var count = loader.finish();
+            viewStoreClient.addLabels(pendingLabels);
+            return count;
+        } finally {
+            pendingLabels = null;
+        }
+    }
+
     /**
      * Copy rows of values for a specified type to the view database in bulk.
      *
-     * All simple values (no value sets) for the type are queried and the rows are inserted
-     * into the view database in batches of 1000 rows.
+     * All simple values (no value sets) for the type are queried and the rows are streamed
+     * into the view database (with COPY on PostgreSQL).
      *
      * @param view The view for which to update the values.
      * @param type The subject type (for when the view includes multiple types)
+     * @return the number of inserted rows
      */
-    public void copyValuesForType(ViewsConfig.View view, String type) throws SQLException {
+    public int copyValuesForType(ViewsConfig.View view, String type) throws SQLException {
         var columns = view.columns.stream()
                 .filter(column -> !column.type.isSet())
                 .collect(Collectors.toList());
@@ -283,42 +329,35 @@ public class ViewUpdater implements AutoCloseable {
                     }
                 """.formatted(RDFS.getURI(), attributeNames, type, attributes);
 
-        var rows = new ArrayList<Map<String, Object>>();
-        var error = new AtomicReference<SQLException>();
-        final int[] updateCount = new int[1];
-        SparqlUtils.querySelect(dsg, query, (QuerySolution q) -> {
-            // read query results
-            try {
-                rows.add(transformResult(type, columns, q));
-                // copy in chunks to the view database
-                if (rows.size() == 1000) {
-                    updateCount[0] += viewStoreClient.updateRows(view.name, rows, true);
-                    rows.clear();
-                }
-            } catch (SQLException e) {
-                error.set(e);
-                throw new RuntimeException("Failed to bulk insert rows", e);
-            }
-        });
-        if (error.get() != null) {
-            throw error.get();
+        var columnNames = new ArrayList<String>();
+        columnNames.add("id");
+        columnNames.add("label");
+        if (protectedResources.contains(type)) {
+            columnNames.add("collection");
         }
-        // copy any remaining items to the view database
-        updateCount[0] += viewStoreClient.updateRows(view.name, rows, true);
-        log.debug("Inserted {} rows for view {}", updateCount[0], view.name);
+        columns.forEach(column -> columnNames.add(column.name.toLowerCase()));
+
+        var table = viewStoreClient.configuration.viewTables.get(view.name);
+        var count = load(table.name, columnNames, query, q -> {
+            var row = transformResult(type, columns, q);
+            return columnNames.stream().map(row::get).collect(Collectors.toList());
+        });
+        log.debug("Inserted {} rows for view {}", count, view.name);
+        return count;
     }
 
     /**
      * Copy value sets for a specified type and property to the view database in bulk.
      *
-     * All values for the type and property are queried and the (subject, value) tuples are inserted
-     * into the view database in batches of 1000 tuples.
+     * All values for the type and property are queried and the (subject, value) tuples are streamed
+     * into the view database (with COPY on PostgreSQL).
      *
      * @param view The view for which to update the value set property.
      * @param type The subject type (for when the view includes multiple types)
      * @param column The view column of value set property.
+     * @return the number of inserted rows
      */
-    public void copyValueSetsForColumn(ViewsConfig.View view, String type, ViewsConfig.View.Column column) throws SQLException {
+    public int copyValueSetsForColumn(ViewsConfig.View view, String type, ViewsConfig.View.Column column) throws SQLException {
         var property = column.name;
         var propertyTable = viewStoreClient.configuration.propertyTables.get(view.name).get(property);
         var idColumn = idColumn(view.name);
@@ -332,45 +371,25 @@ public class ViewUpdater implements AutoCloseable {
                         ?id %s ?%s .
                     }
                 """.formatted(property, type, predicate, property);
-        var rows = new ArrayList<Pair<String, String>>();
-        var error = new AtomicReference<SQLException>();
-        final int[] updateCount = new int[1];
-        SparqlUtils.querySelect(dsg, query, (QuerySolution q) -> {
-            // read query results
-            try {
-                rows.add(Pair.of(
-                        q.getResource("id").getURI(),
-                        getValue(column, q.get(column.name).asNode()).toString())
-                );
-                // copy in chunks to the view database
-                if (rows.size() == 1000) {
-                    updateCount[0] += viewStoreClient.insertValues(propertyTable, idColumn, propertyColumn, rows);
-                    rows.clear();
-                }
-            } catch (SQLException e) {
-                error.set(e);
-                throw new RuntimeException("Failed to bulk insert rows", e);
-            }
-        });
-        if (error.get() != null) {
-            throw error.get();
-        }
-        // copy any remaining items to the view database
-        updateCount[0] += viewStoreClient.insertValues(propertyTable, idColumn, propertyColumn, rows);
-        log.debug("Inserted {} rows for property {} of view {}", updateCount[0], column.name, view.name);
+        var count = load(propertyTable.name, List.of(idColumn.name, propertyColumn.name), query, q -> List.of(
+                q.getResource("id").getURI(),
+                getValue(column, q.get(column.name).asNode()).toString()));
+        log.debug("Inserted {} rows for property {} of view {}", count, column.name, view.name);
+        return count;
     }
 
     /**
      * Copy view join links for a specified type and join relation to the view database in bulk.
      *
-     * All join links for the type and join relation are queried and the (source, target) tuples are inserted
-     * into the view database in batches of 1000 tuples.
+     * All join links for the type and join relation are queried and the (source, target) tuples are streamed
+     * into the view database (with COPY on PostgreSQL).
      *
      * @param view The view for which to update the join links.
      * @param type The subject type (for when the view includes multiple types)
      * @param join The join relation.
+     * @return the number of inserted rows
      */
-    public void copyLinks(ViewsConfig.View view, String type, ViewsConfig.View.JoinView join) throws SQLException {
+    public int copyLinks(ViewsConfig.View view, String type, ViewsConfig.View.JoinView join) throws SQLException {
         var joinTable = viewStoreClient.configuration.joinTables.get(view.name).get(join.view);
         var idColumn = idColumn(view.name);
         var joinColumn = idColumn(join.view);
@@ -383,31 +402,10 @@ public class ViewUpdater implements AutoCloseable {
                         ?source %s ?target .
                     }
                 """.formatted(type, predicate);
-        var rows = new ArrayList<Pair<String, String>>();
-        var error = new AtomicReference<SQLException>();
-        final int[] updateCount = new int[1];
-        SparqlUtils.querySelect(dsg, query, (QuerySolution q) -> {
-            // read query results
-            try {
-                rows.add(Pair.of(
-                        q.getResource("source").getURI(),
-                        q.getResource("target").getURI()
-                ));
-                // copy in chunks to the view database
-                if (rows.size() == 1000) {
-                    updateCount[0] += viewStoreClient.insertValues(joinTable, idColumn, joinColumn, rows);
-                    rows.clear();
-                }
-            } catch (SQLException e) {
-                error.set(e);
-                throw new RuntimeException("Failed to bulk insert rows", e);
-            }
-        });
-        if (error.get() != null) {
-            throw error.get();
-        }
-        // copy any remaining items to the view database
-        updateCount[0] += viewStoreClient.insertValues(joinTable, idColumn, joinColumn, rows);
-        log.debug("Inserted {} rows for join of view {} with view {}", updateCount[0], view.name, join.view);
+        var count = load(joinTable.name, List.of(idColumn.name, joinColumn.name), query, q -> List.of(
+                q.getResource("source").getURI(),
+                q.getResource("target").getURI()));
+        log.debug("Inserted {} rows for join of view {} with view {}", count, view.name, join.view);
+        return count;
     }
 }
@@ -1,6 +1,7 @@
 package io.fairspace.saturn.webdav;
 
 import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.rdf.transactions.WritePriority;
 import io.milton.http.Handler;
 import io.milton.http.HttpManager;
 import io.milton.http.Request;
@@ -30,12 +31,20 @@ class TransactionalHandlerWrapper implements Handler {
     @SneakyThrows
     public void process(HttpManager httpManager, Request request, Response response) throws ConflictException, NotAuthorizedException, BadRequestException, NotFoundException {
         if (request.getMethod().isWrite) {
-            txn.executeWrite(ds -> wrapped.process(httpManager, request, response));
+            txn.executeWrite(priority(request), ds -> wrapped.process(httpManager, request, response));
         } else {
             txn.executeRead(ds -> wrapped.process(httpManager, request, response));
         }
     }
 
+    // Uploads shouldn't delay small interactive changes
+    private static WritePriority priority(Request request) {
+        var action = request.getParams() == null ? null : request.getParams().get("action");
+        return "upload_files".equals(action) || "upload_metadata".equals(action)
+                ? WritePriority.BULK
+                : WritePriority.INTERACTIVE;
+    }
+
     @Override
     public boolean isCompatible(Resource res) {
         return wrapped.isCompatible(res);
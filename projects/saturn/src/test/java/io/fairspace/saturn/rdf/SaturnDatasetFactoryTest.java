@@ -42,4 +42,12 @@ public class SaturnDatasetFactoryTest {
         new File(datasetPath, "lost+found").mkdirs();
         assertTrue(SaturnDatasetFactory.isRestoreNeeded(datasetPath));
     }
+
+    @Test
+    public void testIsRestoreNeededIfRestoreWasInterrupted() throws IOException {
+        File datasetPath = testFolder.newFolder();
+        new File(datasetPath, "Data-0001").mkdirs();
+        new File(datasetPath, "restore.progress").createNewFile();
+        assertTrue(SaturnDatasetFactory.isRestoreNeeded(datasetPath));
+    }
 }
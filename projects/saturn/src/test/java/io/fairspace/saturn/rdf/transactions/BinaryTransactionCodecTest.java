@@ -0,0 +1,89 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.apache.jena.graph.NodeFactory.*;
+import static org.mockito.Mockito.*;
+
+public class BinaryTransactionCodecTest {
+    private static final String LONG_TEXT = "Lorem ipsum ".repeat(10_000);
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        var codec = new BinaryTransactionCodec();
+        var out = new ByteArrayOutputStream();
+        var writeListener = codec.write(out);
+
+        writeListener.onBegin();
+        writeListener.onMetadata("userId", "userName", 123L);
+        writeListener.onAdd(createURI("http://example.com/graph"), createURI("http://example.com/subject"), createURI("http://example.com/predicate"), createURI("http://example.com/object"));
+        writeListener.onDelete(createURI("http://example.com/graph"), createURI("http://example.com/subject"), createURI("http://example.com/predicate"), createURI("http://example.com/object"));
+        var blank = createBlankNode();
+        writeListener.onAdd(createURI("http://example.com/graph"), createURI("http://example.com/subject"), createURI("http://example.com/predicate"), blank);
+        writeListener.onAdd(createURI("http://example.com/graph"), blank, createURI("http://example.com/predicate"), createLiteral("text", "en"));
+        writeListener.onAdd(createURI("http://example.com/graph"), blank, createURI("http://example.com/predicate"), createLiteral("42", XSDDatatype.XSDinteger));
+        writeListener.onAdd(createURI("http://example.com/graph"), blank, createURI("http://example.com/predicate"), createLiteral(LONG_TEXT));
+        writeListener.onCommit();
+
+        var readListener = mock(TransactionListener.class);
+        codec.read(new ByteArrayInputStream(out.toByteArray()), readListener);
+
+        verify(readListener).onBegin();
+        verify(readListener).onMetadata("userId", "userName", 123L);
+        verify(readListener).onAdd(createURI("http://example.com/graph"), createURI("http://example.com/subject"), createURI("http://example.com/predicate"), createURI("http://example.com/object"));
+        verify(readListener).onDelete(createURI("http://example.com/graph"), createURI("http://example.com/subject"), createURI("http://example.com/predicate"), createURI("http://example.com/object"));
+        verify(readListener).onAdd(createURI("http://example.com/graph"), createURI("http://example.com/subject"), createURI("http://example.com/predicate"), blank);
+        verify(readListener).onAdd(createURI("http://example.com/graph"), blank, createURI("http://example.com/predicate"), createLiteral("text", "en"));
+        verify(readListener).onAdd(createURI("http://example.com/graph"), blank, createURI("http://example.com/predicate"), createLiteral("42", XSDDatatype.XSDinteger));
+        verify(readListener).onAdd(createURI("http://example.com/graph"), blank, createURI("http://example.com/predicate"), createLiteral(LONG_TEXT));
+        verify(readListener).onCommit();
+        verifyNoMoreInteractions(readListener);
+    }
+
+    @Test
+    public void testNoMeta() throws IOException {
+        var codec = new BinaryTransactionCodec();
+        var out = new ByteArrayOutputStream();
+        var writeListener = codec.write(out);
+
+        writeListener.onBegin();
+        writeListener.onMetadata(null, null, 123L);
+        writeListener.onAbort();
+
+        var readListener = mock(TransactionListener.class);
+        codec.read(new ByteArrayInputStream(out.toByteArray()), readListener);
+
+        verify(readListener).onBegin();
+        verify(readListener).onMetadata(null, null, 123L);
+        verify(readListener).onAbort();
+        verifyNoMoreInteractions(readListener);
+    }
+
+    @Test
+    public void formatIsDetectedOnRead() throws IOException {
+        var codec = new FormatDetectingTransactionCodec(new BinaryTransactionCodec());
+
+        for (var writeCodec : new TransactionCodec[]{new SparqlTransactionCodec(), new BinaryTransactionCodec()}) {
+            var out = new ByteArrayOutputStream();
+            var writeListener = writeCodec.write(out);
+            writeListener.onBegin();
+            writeListener.onMetadata("userId", "userName", 123L);
+            writeListener.onAdd(createURI("http://example.com/graph"), createURI("http://example.com/subject"), createURI("http://example.com/predicate"), createURI("http://example.com/object"));
+            writeListener.onCommit();
+
+            var readListener = mock(TransactionListener.class);
+            codec.read(new ByteArrayInputStream(out.toByteArray()), readListener);
+
+            verify(readListener).onBegin();
+            verify(readListener).onMetadata("userId", "userName", 123L);
+            verify(readListener).onAdd(createURI("http://example.com/graph"), createURI("http://example.com/subject"), createURI("http://example.com/predicate"), createURI("http://example.com/object"));
+            verify(readListener).onCommit();
+            verifyNoMoreInteractions(readListener);
+        }
+    }
+}
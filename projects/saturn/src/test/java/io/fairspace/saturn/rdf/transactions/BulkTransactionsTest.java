@@ -1,16 +1,25 @@
 package io.fairspace.saturn.rdf.transactions;
 
 import com.pivovarit.function.ThrowingFunction;
+import io.fairspace.saturn.config.Config;
+import io.fairspace.saturn.rdf.AbstractChangesAwareDatasetGraph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.DatasetFactory;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.sparql.JenaTransactionException;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.DatasetGraphWrapper;
 import org.apache.jena.vocabulary.RDFS;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.apache.jena.query.DatasetFactory.createTxnMem;
 import static org.apache.jena.rdf.model.ResourceFactory.createResource;
@@ -78,6 +87,143 @@ public class BulkTransactionsTest {
 
     }
 
+    @Test
+    public void failedTasksAreRolledBackToTheirSavepoints() {
+        txn = new BulkTransactions(DatasetFactory.wrap(new AbstractChangesAwareDatasetGraph(DatasetGraphFactory.createTxnMem()) {
+        }));
+        var executions = new AtomicInteger();
+
+        batch(
+                m -> {
+                    executions.incrementAndGet();
+                    return m.add(RESOURCE, RDFS.label, "success");
+                },
+                m -> {
+                    m.add(RESOURCE, RDFS.label, "failed");
+                    m.remove(RESOURCE, RDFS.label, m.createLiteral("success"));
+                    throw new RuntimeException();
+                },
+                m -> {
+                    executions.incrementAndGet();
+                    return m.add(RESOURCE, RDFS.label, "another success");
+                }
+        );
+
+        txn.executeRead(model -> {
+            assertTrue(model.contains(RESOURCE, RDFS.label, "success"));
+            assertFalse(model.contains(RESOURCE, RDFS.label, "failed"));
+            assertTrue(model.contains(RESOURCE, RDFS.label, "another success"));
+        });
+        assertEquals(2, executions.get());
+        assertEquals(0L, txn.getStats().getRetries());
+        assertEquals(1L, txn.getStats().getFailedTasks());
+    }
+
+    @Test
+    public void failedCommitsAreBisected() throws Exception {
+        var poison = createResource("http://example.com/poison");
+        var dsg = new DatasetGraphWrapper(DatasetGraphFactory.createTxnMem()) {
+            @Override
+            public void commit() {
+                if (contains(Node.ANY, poison.asNode(), Node.ANY, Node.ANY)) {
+                    throw new IllegalStateException("Cannot commit");
+                }
+                super.commit();
+            }
+        };
+        txn = new BulkTransactions(DatasetFactory.wrap(dsg));
+
+        batch(
+                m -> m.add(RESOURCE, RDFS.label, "first"),
+                m -> m.add(RESOURCE, RDFS.label, "second"),
+                m -> m.add(poison, RDFS.label, "poison"),
+                m -> m.add(RESOURCE, RDFS.label, "third")
+        );
+
+        txn.executeRead(model -> {
+            assertTrue(model.contains(RESOURCE, RDFS.label, "first"));
+            assertTrue(model.contains(RESOURCE, RDFS.label, "second"));
+            assertFalse(model.contains(poison, null));
+            assertTrue(model.contains(RESOURCE, RDFS.label, "third"));
+        });
+        var stats = txn.getStats();
+        assertEquals(1L, stats.getFailedTasks());
+        assertTrue(stats.getBisections() > 0);
+        assertTrue(stats.getRetries() > 0);
+    }
+
+    @Test
+    public void batchSizeIsLimited() {
+        var batches = new Config.Jena.BulkTransactionBatches();
+        batches.maxSize = 2;
+        txn = new BulkTransactions(createTxnMem(), batches);
+
+        batch(
+                m -> m.add(RESOURCE, RDFS.label, "1"),
+                m -> m.add(RESOURCE, RDFS.label, "2"),
+                m -> m.add(RESOURCE, RDFS.label, "3"),
+                m -> m.add(RESOURCE, RDFS.label, "4"),
+                m -> m.add(RESOURCE, RDFS.label, "5")
+        );
+
+        txn.executeRead(model -> assertEquals(5, model.listObjectsOfProperty(RESOURCE, RDFS.label).toList().size()));
+        assertTrue(txn.getStats().getMaxBatchSize() <= 2);
+    }
+
+    @Test
+    public void interactiveTasksOvertakeBulkTasks() throws Exception {
+        var batches = new Config.Jena.BulkTransactionBatches();
+        batches.maxSize = 1;
+        txn = new BulkTransactions(createTxnMem(), batches);
+        var order = new CopyOnWriteArrayList<String>();
+
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var threads = new ArrayList<Thread>();
+        threads.add(submit(WritePriority.MAINTENANCE, m -> {
+            started.countDown();
+            release.await();
+            return null;
+        }));
+        started.await();
+        for (var i = 0; i < 3; i++) {
+            var name = "bulk" + i;
+            threads.add(submit(WritePriority.BULK, m -> order.add(name)));
+        }
+        awaitQueued("bulk", 3);
+        threads.add(submit(WritePriority.INTERACTIVE, m -> order.add("interactive")));
+        awaitQueued("interactive", 1);
+
+        release.countDown();
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        assertEquals("interactive", order.get(0));
+        var stats = txn.getStats().getLanes();
+        assertEquals(1L, stats.get("interactive").getCompletedTasks());
+        assertEquals(3L, stats.get("bulk").getCompletedTasks());
+        assertEquals(1L, stats.get("maintenance").getCompletedTasks());
+    }
+
+    private Thread submit(WritePriority priority, ThrowingFunction<Model, ?, ?> job) {
+        var thread = new Thread(() -> {
+            try {
+                txn.calculateWrite(priority, job);
+            } catch (Exception ignore) {
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void awaitQueued(String lane, long count) throws InterruptedException {
+        for (var i = 0; i < 500 && txn.getStats().getLanes().get(lane).getQueued() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, txn.getStats().getLanes().get(lane).getQueued());
+    }
+
     // executes actions in one batch
     private void batch(ThrowingFunction<Model, ?, ?>... jobs) {
         try {
@@ -0,0 +1,127 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import io.fairspace.saturn.config.Config;
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static io.fairspace.saturn.TestUtils.setupRequestContext;
+import static java.util.UUID.randomUUID;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.getTempDirectory;
+import static org.apache.jena.graph.NodeFactory.createBlankNode;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.apache.jena.sparql.core.DatasetGraphFactory.createTxnMem;
+import static org.junit.Assert.*;
+
+public class CheckpointsTest {
+    private File root;
+    private Config.Jena config;
+    private SegmentedTransactionLog txnLog;
+    private TxnLogDatasetGraph dsg;
+
+    @Before
+    public void before() throws IOException {
+        setupRequestContext();
+        root = new File(getTempDirectory(), randomUUID().toString());
+        config = new Config.Jena();
+        config.datasetPath = new File(root, "db");
+        config.transactionLogPath = new File(root, "log");
+        config.transactionLogSegments.segmentSize = 256;
+        config.checkpoints.path = new File(root, "checkpoints");
+        config.checkpoints.archivePath = new File(root, "archive");
+        config.checkpoints.retain = 1;
+        txnLog = new SegmentedTransactionLog(config.transactionLogPath, new BinaryTransactionCodec(), config.transactionLogSegments);
+        dsg = new TxnLogDatasetGraph(createTxnMem(), txnLog);
+    }
+
+    @After
+    public void after() throws IOException {
+        dsg.close();
+        deleteDirectory(root);
+    }
+
+    @Test
+    public void restoreStartsFromTheLatestCheckpoint() throws IOException {
+        var blank = createBlankNode();
+        Txn.executeWrite(dsg, () -> dsg.add(quad(createURI("http://example.com/s"), blank)));
+        for (var i = 0; i < 20; i++) {
+            var index = i;
+            Txn.executeWrite(dsg, () -> dsg.add(quad(blank, createURI("http://example.com/o" + index))));
+        }
+
+        var checkpoints = new Checkpoints(config.checkpoints);
+        checkpoints.create(dsg, txnLog);
+        assertEquals(21L, checkpoints.latest());
+
+        Txn.executeWrite(dsg, () -> dsg.add(quad(blank, createURI("http://example.com/last"))));
+
+        var restored = createTxnMem();
+        config.datasetPath.mkdirs();
+        Restore.restore(restored, txnLog, config);
+
+        Txn.executeRead(restored, () -> {
+            assertTrue(restored.contains(quad(createURI("http://example.com/s"), blank)));
+            assertTrue(restored.contains(quad(blank, createURI("http://example.com/o19"))));
+            assertTrue(restored.contains(quad(blank, createURI("http://example.com/last"))));
+        });
+    }
+
+    @Test
+    public void retentionDeletesOldCheckpointsAndArchivesCoveredSegments() throws IOException {
+        var checkpoints = new Checkpoints(config.checkpoints);
+        for (var i = 0; i < 20; i++) {
+            var index = i;
+            Txn.executeWrite(dsg, () -> dsg.add(quad(createURI("http://example.com/s"), createURI("http://example.com/o" + index))));
+            if (i == 9) {
+                checkpoints.create(dsg, txnLog);
+            }
+        }
+        checkpoints.create(dsg, txnLog);
+
+        assertEquals(20L, checkpoints.latest());
+        assertEquals(1, config.checkpoints.path.list().length);
+        assertTrue(config.checkpoints.archivePath.list().length > 0);
+        assertEquals(20L, txnLog.size());
+
+        var listener = new TransactionListener() {};
+        try {
+            txnLog.read(0, listener);
+            fail();
+        } catch (IOException expected) {
+        }
+        txnLog.read(19, listener);
+    }
+
+    @Test
+    public void checkpointsAreTaggedWithTheTransactionsTheyContain() throws Exception {
+        var checkpoints = new Checkpoints(config.checkpoints);
+        var writer = new Thread(() -> {
+            for (var i = 0; i < 200; i++) {
+                var index = i;
+                Txn.executeWrite(dsg, () -> dsg.add(quad(createURI("http://example.com/s"), createURI("http://example.com/o" + index))));
+            }
+        });
+        writer.start();
+        while (checkpoints.latest() < 200) {
+            checkpoints.create(dsg, txnLog);
+
+            // Every transaction adds a single quad
+            var restored = createTxnMem();
+            var transactions = checkpoints.restore(restored);
+            assertEquals(transactions, (long) Txn.calculateRead(restored, () -> Iter.count(restored.find())));
+        }
+        writer.join();
+    }
+
+    private static Quad quad(Node subject, Node object) {
+        return new Quad(Quad.defaultGraphIRI, subject, createURI("http://example.com/p"), object);
+    }
+}
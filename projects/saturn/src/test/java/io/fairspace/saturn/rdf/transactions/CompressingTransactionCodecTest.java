@@ -0,0 +1,81 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static java.util.UUID.randomUUID;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.getTempDirectory;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CompressingTransactionCodecTest {
+    private File logDir;
+
+    @Before
+    public void before() {
+        logDir = new File(getTempDirectory(), randomUUID().toString());
+    }
+
+    @After
+    public void after() throws IOException {
+        deleteDirectory(logDir);
+    }
+
+    @Test
+    public void compressedTransactionsAreDetectedOnRead() throws IOException {
+        var out = new ByteArrayOutputStream();
+        write(new CompressingTransactionCodec(new SparqlTransactionCodec()).write(out), 1);
+
+        assertTrue(CompressingTransactionCodec.isCompressed(out.toByteArray()));
+        verifyTransaction(new FormatDetectingTransactionCodec(new SparqlTransactionCodec()), out.toByteArray(), 1);
+    }
+
+    @Test
+    public void completedChaptersAreCompressed() throws IOException {
+        var log = new LocalTransactionLog(logDir, new FormatDetectingTransactionCodec(new SparqlTransactionCodec()));
+        for (var i = 0; i < 1001; i++) {
+            write(log, i);
+        }
+
+        assertEquals(1000L, log.compressChapters());
+        assertEquals(0L, log.compressChapters());
+
+        var chapter1 = new File(new File(logDir, "volume-1"), "chapter-1");
+        var chapter2 = new File(new File(logDir, "volume-1"), "chapter-2");
+        assertTrue(CompressingTransactionCodec.isCompressed(Files.readAllBytes(new File(chapter1, "tx-1").toPath())));
+        assertFalse(CompressingTransactionCodec.isCompressed(Files.readAllBytes(new File(chapter2, "tx-1001").toPath())));
+
+        var reopened = new LocalTransactionLog(logDir, new FormatDetectingTransactionCodec(new SparqlTransactionCodec()));
+        assertEquals(1001L, reopened.size());
+        for (var i : new int[]{0, 999, 1000}) {
+            var listener = mock(TransactionListener.class);
+            reopened.read(i, listener);
+            verify(listener).onMetadata("user", "User", i);
+            verify(listener).onAdd(createURI("http://example.com/g"), createURI("http://example.com/s" + i), createURI("http://example.com/p"), createURI("http://example.com/o"));
+        }
+    }
+
+    private static void write(TransactionListener listener, long timestamp) throws IOException {
+        listener.onBegin();
+        listener.onMetadata("user", "User", timestamp);
+        listener.onAdd(createURI("http://example.com/g"), createURI("http://example.com/s" + timestamp), createURI("http://example.com/p"), createURI("http://example.com/o"));
+        listener.onCommit();
+    }
+
+    private static void verifyTransaction(TransactionCodec codec, byte[] data, long timestamp) throws IOException {
+        var listener = mock(TransactionListener.class);
+        codec.read(new ByteArrayInputStream(data), listener);
+        verify(listener).onMetadata("user", "User", timestamp);
+        verify(listener).onAdd(createURI("http://example.com/g"), createURI("http://example.com/s" + timestamp), createURI("http://example.com/p"), createURI("http://example.com/o"));
+        verify(listener).onCommit();
+    }
+}
@@ -0,0 +1,90 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitTest {
+    private GroupCommit groupCommit;
+
+    @After
+    public void after() {
+        groupCommit.close();
+    }
+
+    @Test(timeout = 10_000)
+    public void singleWriterDoesNotWaitForTheWindow() throws IOException {
+        var syncs = new AtomicInteger();
+        groupCommit = new GroupCommit(syncs::incrementAndGet, 60_000);
+
+        groupCommit.begun();
+        groupCommit.await(groupCommit.committed());
+
+        assertEquals(1, syncs.get());
+    }
+
+    @Test(timeout = 10_000)
+    public void concurrentWritersShareSyncs() throws Exception {
+        var syncStarted = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        groupCommit = new GroupCommit(() -> {
+            syncStarted.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }, 60_000);
+
+        var writers = 10;
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < writers; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    groupCommit.begun();
+                    groupCommit.await(groupCommit.committed());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+
+        // The first commit is synced immediately, the others are written while its sync is running
+        threads.get(0).start();
+        syncStarted.await();
+        threads.subList(1, writers).forEach(Thread::start);
+        while (groupCommit.getStats().getPendingCommits() < writers) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        var stats = groupCommit.getStats();
+        assertEquals(writers, stats.getSyncedCommits());
+        assertEquals(0L, stats.getPendingCommits());
+        assertEquals(2L, stats.getSyncs());
+        assertEquals(writers - 1, stats.getMaxCommitsPerSync());
+    }
+
+    @Test(timeout = 10_000)
+    public void abortedRecordDoesNotDelayTheSync() throws IOException {
+        var syncs = new AtomicInteger();
+        groupCommit = new GroupCommit(syncs::incrementAndGet, 60_000);
+
+        groupCommit.begun();
+        var commit = groupCommit.committed();
+        groupCommit.begun();
+        groupCommit.aborted();
+        groupCommit.await(commit);
+
+        assertEquals(1, syncs.get());
+    }
+}
@@ -0,0 +1,159 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+
+import static java.util.UUID.randomUUID;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.getTempDirectory;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class IndexedTransactionLogTest {
+    private File logDir;
+
+    @Before
+    public void before() {
+        logDir = new File(getTempDirectory(), randomUUID().toString());
+    }
+
+    @After
+    public void after() throws IOException {
+        deleteDirectory(logDir);
+    }
+
+    @Test
+    public void transactionsAreFoundByTimeAndUser() throws IOException {
+        try (var log = new IndexedTransactionLog(new LocalTransactionLog(logDir, new SparqlTransactionCodec()), logDir)) {
+            write(log, "user1", 1000, 2);
+            write(log, "user2", 2000, 1);
+            write(log, "user1", 3000, 3);
+
+            var all = log.find(null, null, null, 10);
+            assertEquals(3, all.size());
+            assertEquals(1L, all.get(1).getIndex());
+            assertEquals("user2", all.get(1).getUserId());
+            assertEquals("User user2", all.get(1).getUserName());
+            assertEquals(Instant.ofEpochMilli(2000), all.get(1).getTimestamp());
+            assertEquals(1, all.get(1).getAdded());
+            assertEquals(1, all.get(1).getDeleted());
+
+            var byUser = log.find(null, null, "user1", 10);
+            assertEquals(2, byUser.size());
+            assertEquals(0L, byUser.get(0).getIndex());
+            assertEquals(2L, byUser.get(1).getIndex());
+
+            var byTime = log.find(Instant.ofEpochMilli(2000), Instant.ofEpochMilli(3000), null, 10);
+            assertEquals(1, byTime.size());
+            assertEquals(1L, byTime.get(0).getIndex());
+
+            assertEquals(1, log.find(null, null, null, 1).size());
+        }
+    }
+
+    @Test
+    public void timeRangesAreFoundInLongLogs() throws IOException {
+        try (var log = new IndexedTransactionLog(new LocalTransactionLog(logDir, new SparqlTransactionCodec()), logDir)) {
+            for (var i = 0; i < 100; i++) {
+                // Every timestamp is used twice
+                write(log, i % 3 == 0 ? "user1" : "user2", 1000 + (i / 2) * 10, 1);
+            }
+
+            var byTime = log.find(Instant.ofEpochMilli(1200), Instant.ofEpochMilli(1300), null, 100);
+            assertEquals(20, byTime.size());
+            assertEquals(40L, byTime.get(0).getIndex());
+            assertEquals(59L, byTime.get(19).getIndex());
+
+            var byTimeAndUser = log.find(Instant.ofEpochMilli(1200), Instant.ofEpochMilli(1300), "user1", 100);
+            assertEquals(6, byTimeAndUser.size());
+            assertEquals(42L, byTimeAndUser.get(0).getIndex());
+
+            assertEquals(100, log.find(Instant.ofEpochMilli(0), null, null, 1000).size());
+            assertEquals(0, log.find(Instant.ofEpochMilli(1500), null, null, 100).size());
+            assertEquals(2, log.find(Instant.ofEpochMilli(1490), null, null, 100).size());
+            assertEquals(0, log.find(Instant.ofEpochMilli(1205), Instant.ofEpochMilli(1210), null, 100).size());
+        }
+    }
+
+    @Test
+    public void missingEntriesAreIndexedOnStartup() throws Exception {
+        var unindexed = new LocalTransactionLog(logDir, new SparqlTransactionCodec());
+        write(unindexed, "user1", 1000, 1);
+        write(unindexed, "user2", 2000, 1);
+
+        try (var log = new IndexedTransactionLog(new LocalTransactionLog(logDir, new SparqlTransactionCodec()), logDir)) {
+            write(log, "user1", 3000, 1);
+            for (var i = 0; i < 500 && log.find(null, null, null, 10).size() < 3; i++) {
+                Thread.sleep(10);
+            }
+
+            var byUser = log.find(null, null, "user1", 10);
+            assertEquals(2, byUser.size());
+            assertEquals(0L, byUser.get(0).getIndex());
+            assertEquals(2L, byUser.get(1).getIndex());
+        }
+
+        try (var log = new IndexedTransactionLog(new LocalTransactionLog(logDir, new SparqlTransactionCodec()), logDir)) {
+            var byUser = log.find(null, null, "user2", 10);
+            assertEquals(1, byUser.size());
+            assertEquals("User user2", byUser.get(0).getUserName());
+        }
+    }
+
+    @Test
+    public void batchedTransactionsAreFoundByEveryUser() throws Exception {
+        try (var log = new IndexedTransactionLog(new LocalTransactionLog(logDir, new SparqlTransactionCodec()), logDir)) {
+            write(log, "user1", 1000, 1);
+            log.onBegin();
+            for (var user : new String[]{"user2", "user3", "user2"}) {
+                log.onMetadata(user, "User " + user, 2000);
+                log.onAdd(createURI("http://example.com/g"), createURI("http://example.com/" + user), createURI("http://example.com/p"), createURI("http://example.com/o"));
+            }
+            log.onCommit();
+
+            assertEquals("user2", log.find(null, null, null, 10).get(1).getUserId());
+            assertEquals(1, log.find(null, null, "user2", 10).size());
+            var byOtherUser = log.find(null, null, "user3", 10);
+            assertEquals(1, byOtherUser.size());
+            assertEquals(1L, byOtherUser.get(0).getIndex());
+            assertEquals("User user3", byOtherUser.get(0).getUserName());
+        }
+
+        // The backfill finds the other users as well
+        deleteDirectory(new File(logDir, "index"));
+        try (var log = new IndexedTransactionLog(new LocalTransactionLog(logDir, new SparqlTransactionCodec()), logDir)) {
+            for (var i = 0; i < 500 && log.find(null, null, null, 10).size() < 2; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, log.find(null, null, "user3", 10).size());
+            assertEquals(1, log.find(null, null, "user1", 10).size());
+        }
+    }
+
+    @Test
+    public void indexedTransactionsCanBeRead() throws IOException {
+        try (var log = new IndexedTransactionLog(new LocalTransactionLog(logDir, new SparqlTransactionCodec()), logDir)) {
+            write(log, "user1", 1000, 1);
+
+            var listener = mock(TransactionListener.class);
+            log.read(log.find(null, null, "user1", 1).get(0).getIndex(), listener);
+            verify(listener).onMetadata("user1", "User user1", 1000);
+        }
+    }
+
+    private static void write(TransactionListener listener, String user, long timestamp, int added) throws IOException {
+        listener.onBegin();
+        listener.onMetadata(user, "User " + user, timestamp);
+        for (var i = 0; i < added; i++) {
+            listener.onAdd(createURI("http://example.com/g"), createURI("http://example.com/s" + i), createURI("http://example.com/p"), createURI("http://example.com/o"));
+        }
+        listener.onDelete(createURI("http://example.com/g"), createURI("http://example.com/s"), createURI("http://example.com/p"), createURI("http://example.com/o"));
+        listener.onCommit();
+    }
+}
@@ -0,0 +1,140 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import io.fairspace.saturn.config.Config;
+import io.fairspace.saturn.services.NotAvailableException;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import static java.util.UUID.randomUUID;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.getTempDirectory;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.apache.jena.sparql.core.DatasetGraphFactory.createTxnMem;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class LogFollowerTest {
+    private File root;
+    private Config.Jena config;
+    private LocalTransactionLog primaryLog;
+    private DatasetGraph dsg;
+    private LogFollower follower;
+
+    @Before
+    public void before() {
+        root = new File(getTempDirectory(), randomUUID().toString());
+        config = new Config.Jena();
+        config.datasetPath = new File(root, "db");
+        config.datasetPath.mkdirs();
+        config.checkpoints.path = new File(root, "checkpoints");
+        config.follower.enabled = true;
+        config.follower.primaryLogPath = new File(root, "log");
+        config.follower.pollIntervalMillis = 10;
+        primaryLog = new LocalTransactionLog(config.follower.primaryLogPath, new SparqlTransactionCodec());
+        dsg = createTxnMem();
+        follower = new LogFollower(dsg, config);
+    }
+
+    @After
+    public void after() throws IOException {
+        follower.close();
+        deleteDirectory(root);
+    }
+
+    @Test
+    public void followerAppliesNewTransactions() throws Exception {
+        write(quad(1), true);
+        follower.start();
+        awaitApplied(1);
+
+        write(quad(2), true);
+        write(quad(1), false);
+        awaitApplied(3);
+
+        Txn.executeRead(dsg, () -> {
+            assertFalse(dsg.contains(quad(1)));
+            assertTrue(dsg.contains(quad(2)));
+        });
+        for (var i = 0; i < 500 && follower.getStats().getLagMillis() != 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0L, follower.getStats().getLagMillis());
+    }
+
+    @Test
+    public void followerContinuesAfterRestart() throws Exception {
+        write(quad(1), true);
+        follower.start();
+        awaitApplied(1);
+        follower.close();
+
+        write(quad(2), true);
+        follower = new LogFollower(dsg, config);
+        follower.start();
+        assertEquals(1L, follower.getStats().getAppliedTransactions());
+        awaitApplied(2);
+    }
+
+    @Test
+    public void followerStopsIfTheNextTransactionIsArchived() throws Exception {
+        write(quad(1), true);
+        write(quad(2), true);
+        // The first transaction is gone, but the primary's log is longer than that
+        assertTrue(new File(config.follower.primaryLogPath, "volume-1/chapter-1/tx-1").delete());
+        follower.start();
+        Thread.sleep(200);
+
+        write(quad(3), true);
+        Thread.sleep(200);
+        assertEquals(0L, follower.getStats().getAppliedTransactions());
+        assertNotEquals(0L, follower.getStats().getLagMillis());
+    }
+
+    @Test
+    public void followerIsClosedWithTheDataset() throws IOException {
+        var readOnly = new ReadOnlyDatasetGraph(dsg);
+        var dependent = mock(Closeable.class);
+        readOnly.closeOnClose(dependent);
+
+        readOnly.close();
+
+        verify(dependent).close();
+    }
+
+    @Test(expected = NotAvailableException.class)
+    public void followerRejectsWrites() {
+        new ReadOnlyDatasetGraph(dsg).begin(ReadWrite.WRITE);
+    }
+
+    private void awaitApplied(long count) throws InterruptedException {
+        for (var i = 0; i < 500 && follower.getStats().getAppliedTransactions() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, follower.getStats().getAppliedTransactions());
+    }
+
+    private void write(Quad quad, boolean add) throws IOException {
+        primaryLog.onBegin();
+        primaryLog.onMetadata("user", "User", System.currentTimeMillis());
+        if (add) {
+            primaryLog.onAdd(quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject());
+        } else {
+            primaryLog.onDelete(quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject());
+        }
+        primaryLog.onCommit();
+    }
+
+    private static Quad quad(int i) {
+        return new Quad(Quad.defaultGraphIRI, createURI("http://example.com/s" + i), createURI("http://example.com/p"), createURI("http://example.com/o"));
+    }
+}
@@ -0,0 +1,83 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.apache.jena.graph.NodeFactory.*;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+public class NdjsonTransactionCodecTest {
+    @Test
+    public void testWriteAndRead() throws IOException {
+        var codec = new NdjsonTransactionCodec();
+        var out = new ByteArrayOutputStream();
+        var writeListener = codec.write(out);
+
+        var blank = createBlankNode();
+        writeListener.onBegin();
+        writeListener.onMetadata("userId", "userName", 123L);
+        writeListener.onAdd(createURI("http://example.com/graph"), createURI("http://example.com/subject"), createURI("http://example.com/predicate"), blank);
+        writeListener.onDelete(createURI("http://example.com/graph"), blank, createURI("http://example.com/predicate"), createLiteral("text\nwith \"quotes\"", "en"));
+        writeListener.onCommit();
+
+        writeListener.onBegin();
+        writeListener.onMetadata(null, null, 456L);
+        writeListener.onAdd(createURI("http://example.com/graph"), blank, createURI("http://example.com/predicate"), createLiteral("42", XSDDatatype.XSDinteger));
+        writeListener.onCommit();
+
+        writeListener.onBegin();
+        writeListener.onMetadata(null, null, 789L);
+        writeListener.onAbort();
+
+        assertEquals(2, out.toString().lines().count());
+
+        var in = new ByteArrayInputStream(out.toByteArray());
+        var readListener = mock(TransactionListener.class);
+        codec.read(in, readListener);
+        codec.read(in, readListener);
+
+        verify(readListener, times(2)).onBegin();
+        verify(readListener).onMetadata("userId", "userName", 123L);
+        verify(readListener).onAdd(createURI("http://example.com/graph"), createURI("http://example.com/subject"), createURI("http://example.com/predicate"), blank);
+        verify(readListener).onDelete(createURI("http://example.com/graph"), blank, createURI("http://example.com/predicate"), createLiteral("text\nwith \"quotes\"", "en"));
+        verify(readListener).onMetadata(null, null, 456L);
+        verify(readListener).onAdd(createURI("http://example.com/graph"), blank, createURI("http://example.com/predicate"), createLiteral("42", XSDDatatype.XSDinteger));
+        verify(readListener, times(2)).onCommit();
+        verifyNoMoreInteractions(readListener);
+    }
+
+    @Test
+    public void everyChangeGroupKeepsItsMetadata() throws IOException {
+        var codec = new NdjsonTransactionCodec();
+        var out = new ByteArrayOutputStream();
+        var writeListener = codec.write(out);
+
+        writeListener.onBegin();
+        writeListener.onMetadata("user1", "User 1", 123L);
+        writeListener.onAdd(createURI("http://example.com/graph"), createURI("http://example.com/s1"), createURI("http://example.com/predicate"), createURI("http://example.com/o"));
+        writeListener.onMetadata(null, null, 456L);
+        writeListener.onAdd(createURI("http://example.com/graph"), createURI("http://example.com/s2"), createURI("http://example.com/predicate"), createURI("http://example.com/o"));
+        writeListener.onMetadata("user2", "User 2", 789L);
+        writeListener.onDelete(createURI("http://example.com/graph"), createURI("http://example.com/s1"), createURI("http://example.com/predicate"), createURI("http://example.com/o"));
+        writeListener.onCommit();
+
+        var readListener = mock(TransactionListener.class);
+        codec.read(new ByteArrayInputStream(out.toByteArray()), readListener);
+
+        var inOrder = inOrder(readListener);
+        inOrder.verify(readListener).onBegin();
+        inOrder.verify(readListener).onMetadata("user1", "User 1", 123L);
+        inOrder.verify(readListener).onAdd(createURI("http://example.com/graph"), createURI("http://example.com/s1"), createURI("http://example.com/predicate"), createURI("http://example.com/o"));
+        inOrder.verify(readListener).onMetadata(null, null, 456L);
+        inOrder.verify(readListener).onAdd(createURI("http://example.com/graph"), createURI("http://example.com/s2"), createURI("http://example.com/predicate"), createURI("http://example.com/o"));
+        inOrder.verify(readListener).onMetadata("user2", "User 2", 789L);
+        inOrder.verify(readListener).onDelete(createURI("http://example.com/graph"), createURI("http://example.com/s1"), createURI("http://example.com/predicate"), createURI("http://example.com/o"));
+        inOrder.verify(readListener).onCommit();
+        verifyNoMoreInteractions(readListener);
+    }
+}
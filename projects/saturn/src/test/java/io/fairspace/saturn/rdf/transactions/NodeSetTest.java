@@ -0,0 +1,35 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import org.apache.jena.graph.Node;
+import org.junit.Test;
+
+import java.util.HashSet;
+
+import static org.apache.jena.graph.NodeFactory.createBlankNode;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.*;
+
+public class NodeSetTest {
+    @Test
+    public void nodesAreAddedOnce() {
+        var set = new NodeSet();
+        var expected = new HashSet<Node>();
+        for (var i = 0; i < 1000; i++) {
+            var node = createURI("http://example.com/" + i);
+            assertTrue(set.add(node));
+            assertFalse(set.add(createURI("http://example.com/" + i)));
+            expected.add(node);
+        }
+        var blank = createBlankNode();
+        assertTrue(set.add(blank));
+        expected.add(blank);
+
+        assertEquals(1001, set.size());
+        assertTrue(set.contains(createURI("http://example.com/500")));
+        assertFalse(set.contains(createURI("http://example.com/1000")));
+
+        var actual = new HashSet<Node>();
+        set.forEach(actual::add);
+        assertEquals(expected, actual);
+    }
+}
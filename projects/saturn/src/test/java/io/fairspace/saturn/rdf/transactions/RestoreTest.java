@@ -3,6 +3,8 @@ package io.fairspace.saturn.rdf.transactions;
 import io.fairspace.saturn.config.Config;
 import io.fairspace.saturn.rdf.SaturnDatasetFactory;
 import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Quad;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -10,9 +12,12 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.UUID.randomUUID;
 import static org.apache.commons.io.FileUtils.deleteDirectory;
 import static org.apache.commons.io.FileUtils.getTempDirectory;
+import static org.apache.commons.io.FileUtils.writeStringToFile;
+import static org.apache.jena.graph.NodeFactory.createURI;
 import static org.apache.jena.rdf.model.ResourceFactory.*;
 import static org.junit.Assert.*;
 
@@ -76,6 +81,98 @@ public class RestoreTest {
         }
     }
 
+    @Test
+    public void restoreCommitsPeriodically() throws Exception {
+        config.restore.threads = 2;
+        config.restore.prefetch = 1;
+        config.restore.commitInterval = 2;
+        var txnLog = new LocalTransactionLog(config.transactionLogPath, new SparqlTransactionCodec());
+        for (var i = 0; i < 5; i++) {
+            write(txnLog, quad(i));
+        }
+        config.datasetPath.mkdirs();
+
+        var dsg = DatasetGraphFactory.createTxnMem();
+        Restore.restore(dsg, txnLog, config);
+
+        for (var i = 0; i < 5; i++) {
+            assertTrue(dsg.contains(quad(i)));
+        }
+        assertFalse(Restore.isRestoreInterrupted(config.datasetPath));
+    }
+
+    @Test
+    public void interruptedRestoreIsResumed() throws Exception {
+        var txnLog = new LocalTransactionLog(config.transactionLogPath, new SparqlTransactionCodec());
+        write(txnLog, quad(1));
+        write(txnLog, quad(2));
+        config.datasetPath.mkdirs();
+        writeStringToFile(new File(config.datasetPath, Restore.PROGRESS_FILE), "1", UTF_8);
+        assertTrue(Restore.isRestoreInterrupted(config.datasetPath));
+
+        var dsg = DatasetGraphFactory.createTxnMem();
+        Restore.restore(dsg, txnLog, config);
+
+        assertFalse(dsg.contains(quad(1)));
+        assertTrue(dsg.contains(quad(2)));
+        assertFalse(Restore.isRestoreInterrupted(config.datasetPath));
+    }
+
+    @Test
+    public void interruptedRestoreIsOnlyResumedToTheSameTransaction() throws Exception {
+        var txnLog = new LocalTransactionLog(config.transactionLogPath, new SparqlTransactionCodec());
+        for (var i = 0; i < 3; i++) {
+            write(txnLog, quad(i));
+        }
+        config.datasetPath.mkdirs();
+        writeStringToFile(new File(config.datasetPath, Restore.PROGRESS_FILE), "1 2", UTF_8);
+
+        assertThrows(IllegalStateException.class, () -> Restore.restore(DatasetGraphFactory.createTxnMem(), txnLog, config));
+
+        var dsg = DatasetGraphFactory.createTxnMem();
+        Restore.restore(dsg, txnLog, config, 2);
+        assertFalse(dsg.contains(quad(0)));
+        assertTrue(dsg.contains(quad(1)));
+        assertFalse(dsg.contains(quad(2)));
+        assertFalse(Restore.isRestoreInterrupted(config.datasetPath));
+    }
+
+    @Test
+    public void restoreStopsAtTheGivenTransaction() throws Exception {
+        var txnLog = new LocalTransactionLog(config.transactionLogPath, new SparqlTransactionCodec());
+        for (var i = 0; i < 5; i++) {
+            write(txnLog, quad(i), 1000L * i);
+        }
+        config.datasetPath.mkdirs();
+
+        assertEquals(0L, Restore.countTransactionsUntil(txnLog, -1));
+        assertEquals(3L, Restore.countTransactionsUntil(txnLog, 2500));
+        assertEquals(3L, Restore.countTransactionsUntil(txnLog, 2000));
+        assertEquals(5L, Restore.countTransactionsUntil(txnLog, 10000));
+
+        var dsg = DatasetGraphFactory.createTxnMem();
+        Restore.restore(dsg, txnLog, config, 3);
+
+        for (var i = 0; i < 5; i++) {
+            assertEquals(i < 3, dsg.contains(quad(i)));
+        }
+    }
+
+    private static Quad quad(int i) {
+        return new Quad(Quad.defaultGraphIRI, createURI("http://example.com/s" + i), createURI("http://example.com/p"), createURI("http://example.com/o"));
+    }
+
+    private static void write(TransactionLog txnLog, Quad quad) throws IOException {
+        write(txnLog, quad, 0L);
+    }
+
+    private static void write(TransactionLog txnLog, Quad quad, long timestamp) throws IOException {
+        txnLog.onBegin();
+        txnLog.onMetadata("user", "User", timestamp);
+        txnLog.onAdd(quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject());
+        txnLog.onCommit();
+    }
+
     private Transactions newDataset() throws IOException {
         return new BulkTransactions(SaturnDatasetFactory.connect(config, null));
     }
@@ -0,0 +1,206 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import io.fairspace.saturn.config.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import static java.util.UUID.randomUUID;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.getTempDirectory;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SegmentedTransactionLogTest {
+    private static final long SEGMENT_SIZE = 1024;
+
+    private final TransactionCodec codec = new BinaryTransactionCodec();
+    private File logDir;
+    private SegmentedTransactionLog log;
+
+    @Before
+    public void before() throws IOException {
+        logDir = new File(getTempDirectory(), randomUUID().toString());
+        log = new SegmentedTransactionLog(logDir, codec, config());
+    }
+
+    @After
+    public void after() throws IOException {
+        log.close();
+        deleteDirectory(logDir);
+    }
+
+    @Test
+    public void logContinuesNumbering() throws IOException {
+        write(log, 1);
+        log.close();
+        log = new SegmentedTransactionLog(logDir, codec, config());
+        write(log, 2);
+
+        assertEquals(2L, log.size());
+        verifyTransaction(0, 1);
+        verifyTransaction(1, 2);
+    }
+
+    @Test
+    public void logIsSplitIntoSegments() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            write(log, i);
+        }
+        log.close();
+        log = new SegmentedTransactionLog(logDir, codec, config());
+
+        assertEquals(100L, log.size());
+        assertTrue(logDir.list((dir, name) -> name.endsWith(".log")).length > 1);
+        for (int i = 0; i < 100; i++) {
+            verifyTransaction(i, i);
+        }
+    }
+
+    @Test
+    public void archivedTransactionsAreReported() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            write(log, i);
+        }
+        log.archive(100, new File(logDir, "archive"));
+
+        assertTrue(log.isArchived(0));
+        assertFalse(log.isArchived(99));
+        assertThrows(FileNotFoundException.class, () -> log.read(0, mock(TransactionListener.class)));
+        verifyTransaction(99, 99);
+    }
+
+    @Test
+    public void doesNotLogAbortedTransactions() throws IOException {
+        log.onBegin();
+        log.onMetadata(null, null, 0);
+        log.onAbort();
+        write(log, 1);
+
+        assertEquals(1L, log.size());
+        verifyTransaction(0, 1);
+    }
+
+    @Test
+    public void incompleteTransactionsAreDroppedOnStartup() throws IOException {
+        write(log, 1);
+        write(log, 2);
+        log.close();
+
+        // Simulate a crash after writing the index entry, but before the record's data reached the disk
+        try (var index = new RandomAccessFile(new File(logDir, "segment-00000000000000000000.idx"), "rw")) {
+            index.seek(index.length());
+            index.writeLong(SEGMENT_SIZE / 2);
+        }
+
+        log = new SegmentedTransactionLog(logDir, codec, config());
+        assertEquals(2L, log.size());
+        write(log, 3);
+        verifyTransaction(2, 3);
+    }
+
+    @Test
+    public void readOnlyLogDoesNotModifyFiles() throws IOException {
+        write(log, 1);
+        write(log, 2);
+        var indexFile = new File(logDir, "segment-00000000000000000000.idx");
+        // A record which is still being written
+        try (var index = new RandomAccessFile(indexFile, "rw")) {
+            index.seek(index.length());
+            index.writeLong(SEGMENT_SIZE / 2);
+        }
+        var indexLength = indexFile.length();
+
+        try (var readOnly = SegmentedTransactionLog.openReadOnly(logDir, codec)) {
+            assertEquals(2L, readOnly.size());
+            var listener = mock(TransactionListener.class);
+            readOnly.read(1, listener);
+            verify(listener).onMetadata("user", "User", 2);
+            assertThrows(IllegalStateException.class, readOnly::onBegin);
+        }
+        assertEquals(indexLength, indexFile.length());
+    }
+
+    @Test
+    public void volumesAndChaptersCanBeMigrated() throws IOException {
+        var sourceDir = new File(getTempDirectory(), randomUUID().toString());
+        try {
+            var source = new LocalTransactionLog(sourceDir, new SparqlTransactionCodec());
+            for (int i = 0; i < 10; i++) {
+                write(source, i);
+            }
+            log.close();
+
+            TransactionLogMigration.migrate(sourceDir, logDir, config());
+
+            log = new SegmentedTransactionLog(logDir, new FormatDetectingTransactionCodec(codec), config());
+            assertEquals(10L, log.size());
+            for (int i = 0; i < 10; i++) {
+                verifyTransaction(i, i);
+            }
+        } finally {
+            deleteDirectory(sourceDir);
+        }
+    }
+
+    @Test
+    public void concurrentCommitsShareSyncs() throws Exception {
+        log.close();
+        var config = config();
+        config.groupCommit = true;
+        config.groupCommitWindowMillis = 50;
+        log = new SegmentedTransactionLog(logDir, codec, config);
+
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < 10; i++) {
+            var timestamp = i;
+            threads.add(new Thread(() -> {
+                try {
+                    synchronized (log) {
+                        write(log, timestamp);
+                    }
+                    log.awaitDurability();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        var stats = log.getGroupCommitStats();
+        assertEquals(10L, stats.getSyncedCommits());
+        assertEquals(0L, stats.getPendingCommits());
+        assertTrue(stats.getSyncs() < 10);
+    }
+
+    private static Config.Jena.TransactionLogSegments config() {
+        var config = new Config.Jena.TransactionLogSegments();
+        config.segmentSize = SEGMENT_SIZE;
+        return config;
+    }
+
+    private static void write(TransactionLog log, long timestamp) throws IOException {
+        log.onBegin();
+        log.onMetadata("user", "User", timestamp);
+        log.onAdd(createURI("http://example.com/g"), createURI("http://example.com/s" + timestamp), createURI("http://example.com/p"), createURI("http://example.com/o"));
+        log.onCommit();
+    }
+
+    private void verifyTransaction(long index, long timestamp) throws IOException {
+        var listener = mock(TransactionListener.class);
+        log.read(index, listener);
+        verify(listener).onMetadata("user", "User", timestamp);
+        verify(listener).onAdd(createURI("http://example.com/g"), createURI("http://example.com/s" + timestamp), createURI("http://example.com/p"), createURI("http://example.com/o"));
+        verify(listener).onCommit();
+    }
+}
@@ -1,7 +1,9 @@
 package io.fairspace.saturn.rdf.transactions;
 
+import com.pivovarit.function.ThrowingFunction;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.Statement;
 import org.junit.Before;
 import org.junit.Test;
@@ -10,11 +12,16 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static io.fairspace.saturn.TestUtils.setupRequestContext;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
 import static org.apache.jena.rdf.model.ResourceFactory.*;
 import static org.apache.jena.sparql.core.DatasetGraphFactory.createTxnMem;
 import static org.apache.jena.sparql.core.Quad.defaultGraphNodeGenerated;
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -31,6 +38,8 @@ public class TxnLogDatasetGraphTest {
     public void before() {
         setupRequestContext();
         ds = DatasetFactory.wrap(new TxnLogDatasetGraph(createTxnMem(), log));
+        // The log's size is read on construction
+        clearInvocations(log);
         txn = new BulkTransactions(ds);
     }
 
@@ -46,9 +55,43 @@ public class TxnLogDatasetGraphTest {
         verify(log).onAdd(defaultGraphNodeGenerated, statement.getSubject().asNode(), statement.getPredicate().asNode(), statement.getObject().asNode());
         verify(log).onDelete(defaultGraphNodeGenerated, statement.getSubject().asNode(), statement.getPredicate().asNode(), statement.getObject().asNode());
         verify(log).onCommit();
+        verify(log).awaitDurability();
         verifyNoMoreInteractions(log);
     }
 
+    @Test
+    public void shouldWaitForDurabilityBeforeCommitting() throws IOException {
+        var dsg = (TxnLogDatasetGraph) ds.asDatasetGraph();
+        var committedWhileSyncing = new AtomicLong(-1);
+        var visibleWhileSyncing = new AtomicBoolean(true);
+        // Failures in the log are fatal, so the answer only records what it sees
+        doAnswer(invocation -> {
+            committedWhileSyncing.set(dsg.getCommittedTransactions());
+            visibleWhileSyncing.set(supplyAsync(() -> new SimpleTransactions(ds).calculateRead(m -> m.contains(statement))).get());
+            return null;
+        }).when(log).awaitDurability();
+
+        txn.executeWrite(m -> m.add(statement));
+
+        var inOrder = inOrder(log);
+        inOrder.verify(log).onCommit();
+        inOrder.verify(log).awaitDurability();
+        assertEquals(0, committedWhileSyncing.get());
+        assertFalse(visibleWhileSyncing.get());
+        assertEquals(1, dsg.getCommittedTransactions());
+        assertTrue(txn.calculateRead(m -> m.contains(statement)));
+    }
+
+    @Test
+    public void shouldTrackTheLastWriteOfEveryUser() {
+        var dsg = (TxnLogDatasetGraph) ds.asDatasetGraph();
+        txn.executeWrite(m -> m.add(statement));
+        txn.executeRead(m -> m.listStatements().toList());
+
+        assertEquals(1, dsg.getLastWrite("userid"));
+        assertEquals(0, dsg.getLastWrite("other"));
+    }
+
     @Test
     public void shouldHandleAbortedTransactions() throws IOException {
         txn.executeWrite(m -> {
@@ -73,6 +116,54 @@ public class TxnLogDatasetGraphTest {
         verifyNoMoreInteractions(log);
     }
 
+    @Test
+    public void failedTasksInABatchAreRolledBackOnBehalfOfTheirUser() throws Exception {
+        var other = createStatement(createResource("http://example.com/s2"), createProperty("http://example.com/p1"), createPlainLiteral("blah"));
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var blocker = submit(m -> {
+            started.countDown();
+            release.await();
+            return null;
+        });
+        started.await();
+        // Queued while the worker is busy, so both tasks end up in the same batch
+        var succeeded = submit(m -> m.add(statement));
+        var failed = submit(m -> {
+            m.add(other);
+            throw new RuntimeException("Invalid");
+        });
+        while (txn.getStats().getQueueDepth() < 3) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        blocker.join();
+        succeeded.join();
+        failed.join();
+
+        txn.calculateRead(m -> {
+            assertTrue(m.contains(statement));
+            assertFalse(m.contains(other));
+            return null;
+        });
+        // The compensating change is logged, the server keeps running
+        verify(log).onDelete(defaultGraphNodeGenerated, other.getSubject().asNode(), other.getPredicate().asNode(), other.getObject().asNode());
+        verify(log, atLeastOnce()).onCommit();
+        verify(log, never()).onMetadata(isNull(), isNull(), anyLong());
+    }
+
+    private Thread submit(ThrowingFunction<Model, ?, ?> job) {
+        var thread = new Thread(() -> {
+            setupRequestContext();
+            try {
+                txn.calculateWrite(job);
+            } catch (Exception ignore) {
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
     @Test
     public void testThatAnExceptionWithinATransactionIsHandledProperly() throws IOException {
         try {
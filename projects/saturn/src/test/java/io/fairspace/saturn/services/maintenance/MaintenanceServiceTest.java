@@ -0,0 +1,192 @@
+package io.fairspace.saturn.services.maintenance;
+
+import io.fairspace.saturn.config.Config;
+import io.fairspace.saturn.config.ViewsConfig;
+import io.fairspace.saturn.services.users.User;
+import io.fairspace.saturn.services.users.UserService;
+import io.fairspace.saturn.services.views.ViewStoreClientFactory;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.system.Txn;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.UUID.randomUUID;
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.apache.jena.sparql.core.DatasetGraphFactory.createTxnMem;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MaintenanceServiceTest {
+    private static final String NS = "http://example.com/";
+
+    @Mock
+    private UserService userService;
+
+    private ViewStoreClientFactory factory;
+    private Dataset dataset;
+    private MaintenanceService maintenanceService;
+
+    @Before
+    public void before() throws SQLException {
+        var viewDatabase = new Config.ViewDatabase();
+        viewDatabase.url = "jdbc:h2:mem:" + randomUUID() + ";DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+        viewDatabase.username = "sa";
+        viewDatabase.password = "";
+        viewDatabase.reindexParallelism = 4;
+        ViewStoreClientFactory.H2_DATABASE = true;
+
+        var sample = new ViewsConfig.View();
+        sample.name = "Sample";
+        sample.title = "Samples";
+        sample.types = List.of(NS + "Sample");
+        sample.columns = List.of(
+                column("origin", ViewsConfig.ColumnType.Text),
+                column("collected", ViewsConfig.ColumnType.Date),
+                column("tags", ViewsConfig.ColumnType.Set));
+        sample.join = List.of(join("Subject", false));
+        var subject = new ViewsConfig.View();
+        subject.name = "Subject";
+        subject.title = "Subjects";
+        subject.types = List.of(NS + "Subject");
+        subject.columns = List.of(column("name", ViewsConfig.ColumnType.Text));
+        subject.join = List.of(join("Sample", true));
+        var viewsConfig = new ViewsConfig();
+        viewsConfig.views = List.of(sample, subject);
+
+        factory = new ViewStoreClientFactory(viewsConfig, viewDatabase);
+        dataset = DatasetFactory.wrap(createTxnMem());
+        maintenanceService = new MaintenanceService(userService, dataset, factory);
+
+        var admin = new User();
+        admin.setAdmin(true);
+        when(userService.currentUser()).thenReturn(admin);
+
+        Txn.executeWrite(dataset, () -> {
+            addSample("s1", "Lab", "p1", "a", "b");
+            addSample("s2", "Field", "p1", "c");
+            add(uri("p1"), RDF.type.asNode(), createURI(NS + "Subject"));
+            add(uri("p1"), RDFS.label.asNode(), createLiteral("Subject p1"));
+            add(uri("p1"), uri("name"), createLiteral("P"));
+        });
+        // A stale row, not in the dataset anymore
+        execute("insert into sample (id, label, origin) values ('http://example.com/s0', 'Sample s0', 'Lab')");
+    }
+
+    @Test
+    public void indexIsRecreatedByConcurrentJobs() throws SQLException {
+        maintenanceService.recreateIndex();
+
+        assertEquals(List.of(
+                "http://example.com/s1|Sample s1|Lab",
+                "http://example.com/s2|Sample s2|Field"), select("select id, label, origin from sample order by id"));
+        assertEquals(List.of("http://example.com/p1|Subject p1|P"), select("select id, label, name from subject order by id"));
+        assertEquals(List.of(
+                "http://example.com/s1|a",
+                "http://example.com/s1|b",
+                "http://example.com/s2|c"), select("select sample_id, tags from sample_tags order by sample_id, tags"));
+        assertEquals(List.of(
+                "http://example.com/s1|http://example.com/p1",
+                "http://example.com/s2|http://example.com/p1"), select("select sample_id, subject_id from sample_subject order by sample_id"));
+
+        var jobs = maintenanceService.getReindexProgress();
+        // The rows of both views, the tags and the links of the samples, but not the reverse links of the subjects
+        assertEquals(4, jobs.size());
+        for (var job : jobs) {
+            assertEquals(job.getName(), ReindexJob.Status.DONE, job.getStatus());
+        }
+        assertEquals(List.of("Sample|2", "Sample|3", "Sample|2", "Subject|1"),
+                jobs.stream().map(job -> job.getView() + "|" + job.getRows()).toList());
+    }
+
+    @Test
+    public void failingJobLeavesTheLiveTablesUntouched() throws SQLException {
+        Txn.executeWrite(dataset, () -> add(uri("s2"), uri("collected"), createLiteral("yesterday")));
+
+        assertThrows(RuntimeException.class, maintenanceService::recreateIndex);
+
+        assertEquals(List.of("http://example.com/s0|Sample s0|Lab"), select("select id, label, origin from sample order by id"));
+        assertEquals(List.of(), select("select id from subject order by id"));
+        assertEquals(List.of("0"), select(
+                "select count(*) from information_schema.tables where lower(table_name) like '%\\_next' escape '\\'"));
+
+        var jobs = maintenanceService.getReindexProgress();
+        var failed = jobs.stream().filter(job -> job.getStatus() == ReindexJob.Status.FAILED).toList();
+        assertEquals(1, failed.size());
+        assertEquals("Rows of type http://example.com/Sample", failed.get(0).getName());
+        assertNotNull(failed.get(0).getError());
+    }
+
+    private void addSample(String id, String origin, String subject, String... tags) {
+        var sample = uri(id);
+        add(sample, RDF.type.asNode(), createURI(NS + "Sample"));
+        add(sample, RDFS.label.asNode(), createLiteral("Sample " + id));
+        add(sample, uri("origin"), createLiteral(origin));
+        add(sample, uri("subject"), uri(subject));
+        for (var tag : tags) {
+            add(sample, uri("tags"), createLiteral(tag));
+        }
+    }
+
+    private void add(Node subject, Node predicate, Node object) {
+        dataset.asDatasetGraph().getDefaultGraph().add(subject, predicate, object);
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (var connection = factory.getConnection();
+             var statement = connection.createStatement()) {
+            statement.execute(sql);
+            connection.commit();
+        }
+    }
+
+    private List<String> select(String sql) throws SQLException {
+        try (var connection = factory.getConnection();
+             var query = connection.prepareStatement(sql);
+             var result = query.executeQuery()) {
+            var rows = new ArrayList<String>();
+            var columns = result.getMetaData().getColumnCount();
+            while (result.next()) {
+                var row = new ArrayList<String>();
+                for (var i = 1; i <= columns; i++) {
+                    row.add(result.getString(i));
+                }
+                rows.add(String.join("|", row));
+            }
+            return rows;
+        }
+    }
+
+    private static Node uri(String name) {
+        return createURI(NS + name);
+    }
+
+    private static ViewsConfig.View.Column column(String name, ViewsConfig.ColumnType type) {
+        var column = new ViewsConfig.View.Column();
+        column.name = name;
+        column.title = name;
+        column.type = type;
+        column.source = NS + name;
+        return column;
+    }
+
+    private static ViewsConfig.View.JoinView join(String view, boolean reverse) {
+        var join = new ViewsConfig.View.JoinView();
+        join.view = view;
+        join.on = NS + "subject";
+        join.reverse = reverse;
+        return join;
+    }
+}
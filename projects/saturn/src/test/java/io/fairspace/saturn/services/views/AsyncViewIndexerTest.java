@@ -0,0 +1,179 @@
+package io.fairspace.saturn.services.views;
+
+import io.fairspace.saturn.config.Config;
+import io.fairspace.saturn.config.ConfigLoader;
+import io.fairspace.saturn.rdf.transactions.LocalTransactionLog;
+import io.fairspace.saturn.rdf.transactions.SparqlTransactionCodec;
+import io.fairspace.saturn.rdf.transactions.TxnLogDatasetGraph;
+import org.apache.jena.system.Txn;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static io.fairspace.saturn.TestUtils.setupRequestContext;
+import static java.util.UUID.randomUUID;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.getTempDirectory;
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.apache.jena.sparql.core.DatasetGraphFactory.createTxnMem;
+import static org.junit.Assert.*;
+
+public class AsyncViewIndexerTest {
+    // A view of views.yaml
+    private static final String DEPARTMENT = "https://sils.uva.nl/ontology#Department";
+    private static final String DESCRIPTION = "https://sils.uva.nl/ontology#departmentDescription";
+
+    private File dir;
+    private ViewStoreClientFactory viewStoreClientFactory;
+    private TxnLogDatasetGraph dsg;
+    private int written;
+
+    @Before
+    public void before() throws SQLException {
+        setupRequestContext();
+        dir = new File(getTempDirectory(), randomUUID().toString());
+        dir.mkdirs();
+
+        var viewDatabase = new Config.ViewDatabase();
+        viewDatabase.url = "jdbc:h2:mem:" + randomUUID() + ";DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+        viewDatabase.username = "sa";
+        viewDatabase.password = "";
+        viewDatabase.indexingBatchSize = 2;
+        ViewStoreClientFactory.H2_DATABASE = true;
+        viewStoreClientFactory = new ViewStoreClientFactory(ConfigLoader.VIEWS_CONFIG, viewDatabase);
+
+        dsg = new TxnLogDatasetGraph(createTxnMem(), new LocalTransactionLog(new File(dir, "log"), new SparqlTransactionCodec()));
+    }
+
+    @After
+    public void after() throws IOException {
+        deleteDirectory(dir);
+    }
+
+    @Test
+    public void committedTransactionsAreIndexed() throws Exception {
+        write(1);
+
+        try (var indexer = new AsyncViewIndexer(dsg, viewStoreClientFactory)) {
+            // Transactions committed before the first start are considered indexed
+            assertEquals(1, indexer.getStats().getIndexedTransactions());
+
+            write(5);
+
+            assertTrue(indexer.awaitIndexed(6, 10_000));
+            var stats = indexer.getStats();
+            assertEquals(6, stats.getIndexedTransactions());
+            assertEquals(6, stats.getCommittedTransactions());
+            assertEquals(0, stats.getLagTransactions());
+            try (var viewStoreClient = viewStoreClientFactory.build()) {
+                assertEquals(Long.valueOf(6), viewStoreClient.getAppliedTransactions());
+            }
+            assertNull(description(0));
+            for (var i = 1; i <= 5; i++) {
+                assertEquals("Department " + i, description(i));
+            }
+        }
+    }
+
+    @Test
+    public void failedBatchesAreRetried() throws Exception {
+        try (var indexer = new AsyncViewIndexer(dsg, viewStoreClientFactory)) {
+            execute("alter table departments rename to departments_away");
+            write(1);
+            for (var i = 0; i < 500 && indexer.getStats().getFailedAttempts() == 0; i++) {
+                Thread.sleep(10);
+            }
+            var stats = indexer.getStats();
+            assertTrue(stats.getFailedAttempts() > 0);
+            assertNotNull(stats.getLastError());
+            assertEquals(0, stats.getIndexedTransactions());
+            assertEquals(1, stats.getLagTransactions());
+
+            execute("alter table departments_away rename to departments");
+            assertTrue(indexer.awaitIndexed(1, 10_000));
+            assertEquals(0, indexer.getStats().getFailedAttempts());
+            assertNull(indexer.getStats().getLastError());
+            assertEquals("Department 0", description(0));
+        }
+    }
+
+    @Test
+    public void indexingResumesFromThePosition() throws Exception {
+        new AsyncViewIndexer(dsg, viewStoreClientFactory).close();
+        write(3);
+
+        try (var indexer = new AsyncViewIndexer(dsg, viewStoreClientFactory)) {
+            assertTrue(indexer.awaitIndexed(3, 10_000));
+            assertFalse(indexer.awaitIndexed(4, 10));
+        }
+    }
+
+    @Test
+    public void catchUpAppliesMissingTransactions() throws Exception {
+        write(5);
+        try (var viewStoreClient = viewStoreClientFactory.build()) {
+            viewStoreClient.setAppliedTransactions(2);
+            // A row indexed before the department was changed after the stored position
+            viewStoreClient.upsertRows("Departments", List.of(Map.of("id", uri(3), "label", "Old", "department", "Old")));
+            viewStoreClient.commit();
+        }
+
+        ViewIndexCatchUp.catchUp(dsg, dsg.getTransactionLog(), viewStoreClientFactory);
+
+        try (var viewStoreClient = viewStoreClientFactory.build()) {
+            assertEquals(Long.valueOf(5), viewStoreClient.getAppliedTransactions());
+        }
+        assertNull(description(1));
+        assertEquals("Department 2", description(2));
+        assertEquals("Department 3", description(3));
+        assertEquals("Department 4", description(4));
+        assertEquals(2, ViewIndexCatchUp.changedSubjects(dsg.getTransactionLog(), 1, 3).size());
+    }
+
+    /**
+     * Writes a department per transaction
+     */
+    private void write(int transactions) {
+        for (var i = 0; i < transactions; i++) {
+            var subject = createURI(uri(written));
+            var n = written++;
+            Txn.executeWrite(dsg, () -> {
+                var graph = dsg.getDefaultGraph();
+                graph.add(subject, RDF.type.asNode(), createURI(DEPARTMENT));
+                graph.add(subject, RDFS.label.asNode(), createLiteral("D" + n));
+                graph.add(subject, createURI(DESCRIPTION), createLiteral("Department " + n));
+            });
+        }
+    }
+
+    private String description(int n) throws SQLException {
+        try (var viewStoreClient = viewStoreClientFactory.build();
+             var query = viewStoreClient.connection.prepareStatement("select department from departments where id = ?")) {
+            query.setString(1, uri(n));
+            try (var result = query.executeQuery()) {
+                return result.next() ? result.getString(1) : null;
+            }
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (var viewStoreClient = viewStoreClientFactory.build();
+             var statement = viewStoreClient.connection.createStatement()) {
+            statement.execute(sql);
+            viewStoreClient.commit();
+        }
+    }
+
+    private static String uri(int n) {
+        return "http://example.com/d" + n;
+    }
+}
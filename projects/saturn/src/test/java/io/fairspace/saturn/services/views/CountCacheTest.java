@@ -0,0 +1,39 @@
+package io.fairspace.saturn.services.views;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CountCacheTest {
+    private final CountCache cache = new CountCache(10);
+
+    @Test
+    public void keyIsIndependentOfTheOrderOfFiltersAndValues() {
+        var nature = ViewFilter.builder().field("Sample_nature").values(List.of("a", "b")).build();
+        var origin = ViewFilter.builder().field("Sample_origin").prefix("x").build();
+
+        assertEquals(CountCache.key("Sample", List.of(nature, origin)),
+                CountCache.key("Sample", List.of(origin, ViewFilter.builder().field("Sample_nature").values(List.of("b", "a")).build())));
+        assertNotEquals(CountCache.key("Sample", List.of(nature)), CountCache.key("Sample", List.of(origin)));
+        assertNotEquals(CountCache.key("Sample", List.of()), CountCache.key("Subject", List.of()));
+    }
+
+    @Test
+    public void countsAreInvalidated() {
+        cache.put("Sample", cache.generation(), 5);
+        assertEquals(Long.valueOf(5), cache.get("Sample"));
+
+        cache.invalidateAll();
+        assertNull(cache.get("Sample"));
+    }
+
+    @Test
+    public void countsStartedBeforeAnInvalidationAreNotStored() {
+        var generation = cache.generation();
+        cache.invalidateAll();
+        cache.put("Sample", generation, 5);
+        assertNull(cache.get("Sample"));
+    }
+}
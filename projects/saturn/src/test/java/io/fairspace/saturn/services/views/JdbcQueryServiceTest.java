@@ -164,6 +164,24 @@ public class JdbcQueryServiceTest {
         Assert.assertEquals(45.2f, ((Number)row.get("Sample_tumorCellularity").stream().findFirst().orElseThrow().getValue()).floatValue(), 0.01);
     }
 
+    @Test
+    public void testRetrieveSamplePagesUsingContinuationToken() {
+        var request = new ViewRequest();
+        request.setView("Sample");
+        request.setSize(1);
+        var first = queryService.retrieveViewPage(request);
+        Assert.assertEquals(1, first.getRows().size());
+        Assert.assertTrue(first.isHasNext());
+        Assert.assertNotNull(first.getContinuationToken());
+
+        request.setContinuationToken(first.getContinuationToken());
+        var second = queryService.retrieveViewPage(request);
+        Assert.assertEquals(1, second.getRows().size());
+        Assert.assertFalse(second.isHasNext());
+        Assert.assertNull(second.getContinuationToken());
+        Assert.assertNotEquals(first.getRows().get(0).get("Sample"), second.getRows().get(0).get("Sample"));
+    }
+
     @Test
     public void testRetrieveSamplePageUsingSampleFilter() {
         var request = new ViewRequest();
@@ -43,6 +43,7 @@ import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
 import static io.fairspace.saturn.config.Services.FS_ROOT;
 import static io.fairspace.saturn.config.Services.METADATA_PERMISSIONS;
 import static io.fairspace.saturn.vocabulary.Vocabularies.VOCABULARY;
+import static java.util.stream.Collectors.toList;
 import static org.apache.jena.query.DatasetFactory.wrap;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -189,6 +190,21 @@ public class SparqlQueryServiceTest {
         vr.setPage(2);
         page = queryService.retrieveViewPage(vr);
         assertEquals(1, page.getRows().size());
+        // Pages by number are not ordered, so they can't be continued
+        assertNull(page.getContinuationToken());
+
+        // An empty token starts ordered pages
+        vr.setContinuationToken("");
+        var first = queryService.retrieveViewPage(vr);
+        assertEquals(2, first.getRows().size());
+        assertNotNull(first.getContinuationToken());
+        vr.setContinuationToken(first.getContinuationToken());
+        var second = queryService.retrieveViewPage(vr);
+        assertEquals(1, second.getRows().size());
+        assertFalse(second.isHasNext());
+        assertNull(second.getContinuationToken());
+        var firstIds = first.getRows().stream().map(row -> row.get("Resource").iterator().next().getValue()).collect(toList());
+        assertFalse(firstIds.contains(second.getRows().get(0).get("Resource").iterator().next().getValue()));
     }
 
     @Test
@@ -0,0 +1,88 @@
+package io.fairspace.saturn.services.views;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.*;
+
+public class TableLoaderTest {
+    private Connection connection;
+
+    @Before
+    public void before() throws SQLException {
+        ViewStoreClientFactory.H2_DATABASE = true;
+        connection = DriverManager.getConnection("jdbc:h2:mem:" + randomUUID() + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE", "sa", "");
+        connection.setAutoCommit(false);
+        try (var statement = connection.createStatement()) {
+            statement.execute("create table sample ( id varchar not null, label text, primary key ( id ) )");
+        }
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void rowsAreInsertedInBatches() throws SQLException {
+        try (var loader = TableLoader.open(connection, "sample", List.of("id", "label"))) {
+            for (var i = 0; i < TableLoader.BATCH_SIZE; i++) {
+                loader.add(List.of("http://example.com/s" + i, "Sample " + i));
+            }
+            // A full batch is inserted right away
+            assertEquals(TableLoader.BATCH_SIZE, count());
+
+            loader.add(Arrays.asList("http://example.com/last", null));
+            assertEquals(TableLoader.BATCH_SIZE, count());
+
+            assertEquals(TableLoader.BATCH_SIZE + 1, loader.finish());
+        }
+        assertEquals(TableLoader.BATCH_SIZE + 1, count());
+    }
+
+    @Test
+    public void closingWithoutFinishingDiscardsThePendingBatch() throws SQLException {
+        try (var loader = TableLoader.open(connection, "sample", List.of("id", "label"))) {
+            loader.add(List.of("http://example.com/s1", "Sample 1"));
+            loader.add(List.of("http://example.com/s2", "Sample 2"));
+        }
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void valuesAreQuotedInCsvRows() {
+        assertEquals("\"a\",,\"\",\"say \"\"hi\"\"\",\"two\nlines\",\"1.5\"\n",
+                TableLoader.csvRow(Arrays.asList("a", null, "", "say \"hi\"", "two\nlines", 1.5)));
+        assertEquals("\n", TableLoader.csvRow(List.of()));
+    }
+
+    @Test
+    public void instantsAreFormattedAsLocalTimestampsInCsvRows() {
+        var timeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Amsterdam"));
+        try {
+            assertEquals("\"2021-01-02 04:04:05.123\"\n",
+                    TableLoader.csvRow(List.of(Instant.parse("2021-01-02T03:04:05.123Z"))));
+        } finally {
+            TimeZone.setDefault(timeZone);
+        }
+    }
+
+    private int count() throws SQLException {
+        try (var query = connection.prepareStatement("select count(*) from sample");
+             var result = query.executeQuery()) {
+            result.next();
+            return result.getInt(1);
+        }
+    }
+}
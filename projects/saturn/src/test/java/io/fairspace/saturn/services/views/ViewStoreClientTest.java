@@ -0,0 +1,225 @@
+package io.fairspace.saturn.services.views;
+
+import io.fairspace.saturn.config.Config;
+import io.fairspace.saturn.config.ViewsConfig;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.*;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.*;
+
+public class ViewStoreClientTest {
+    private ViewStoreClientFactory factory;
+    private ViewStoreClient client;
+
+    @Before
+    public void before() throws SQLException {
+        var viewDatabase = new Config.ViewDatabase();
+        viewDatabase.url = "jdbc:h2:mem:" + randomUUID() + ";DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+        viewDatabase.username = "sa";
+        viewDatabase.password = "";
+        ViewStoreClientFactory.H2_DATABASE = true;
+
+        var view = new ViewsConfig.View();
+        view.name = "Sample";
+        view.title = "Samples";
+        view.types = List.of("http://example.com/Sample");
+        view.columns = List.of(
+                column("origin", ViewsConfig.ColumnType.Text),
+                column("tags", ViewsConfig.ColumnType.Set));
+        var viewsConfig = new ViewsConfig();
+        viewsConfig.views = List.of(view);
+
+        factory = new ViewStoreClientFactory(viewsConfig, viewDatabase);
+        client = factory.build();
+    }
+
+    @After
+    public void after() throws SQLException {
+        client.close();
+    }
+
+    @Test
+    public void rowsAreUpserted() throws SQLException {
+        client.upsertRows("Sample", List.of(
+                row("http://example.com/s1", "Sample 1", "Lab"),
+                row("http://example.com/s2", "Sample 2", "Field")));
+        client.upsertRows("Sample", List.of(
+                row("http://example.com/s1", "Sample one", null),
+                row("http://example.com/s3", "Sample 3", "Lab")));
+        // No row of the batch has an origin, a removed origin is cleared anyway
+        client.upsertRows("Sample", List.of(
+                row("http://example.com/s3", "Sample three", null)));
+
+        assertEquals(List.of(
+                "http://example.com/s1|Sample one|null",
+                "http://example.com/s2|Sample 2|Field",
+                "http://example.com/s3|Sample three|null"), rows());
+
+        client.deleteRows("Sample", List.of("http://example.com/s1", "http://example.com/s3"));
+        assertEquals(List.of("http://example.com/s2|Sample 2|Field"), rows());
+    }
+
+    @Test
+    public void valuesAreReplaced() throws SQLException {
+        var ids = List.of("http://example.com/s1", "http://example.com/s2");
+        client.replaceValues("Sample", "tags", ids, List.of(
+                Pair.of("http://example.com/s1", "a"),
+                Pair.of("http://example.com/s1", "b"),
+                Pair.of("http://example.com/s2", "c")));
+        client.replaceValues("Sample", "tags", ids, List.of(
+                Pair.of("http://example.com/s1", "b"),
+                Pair.of("http://example.com/s2", "d")));
+
+        var tags = Table.valueColumn("tags", ViewsConfig.ColumnType.Text);
+        assertEquals(Set.of("b"), client.retrieveValues("sample_tags", "Sample", "http://example.com/s1", tags));
+        assertEquals(Set.of("d"), client.retrieveValues("sample_tags", "Sample", "http://example.com/s2", tags));
+    }
+
+    @Test
+    public void existingLabelsAreKept() throws SQLException {
+        client.addLabels(Map.of("http://example.com/t1", Pair.of("http://example.com/Term", "First")));
+        client.addLabels(Map.of(
+                "http://example.com/t1", Pair.of("http://example.com/Term", "Second"),
+                "http://example.com/t2", Pair.of("http://example.com/Term", "Other")));
+
+        try (var query = client.connection.prepareStatement("select label from label order by id");
+             var result = query.executeQuery()) {
+            var labels = new ArrayList<String>();
+            while (result.next()) {
+                labels.add(result.getString(1));
+            }
+            assertEquals(List.of("First", "Other"), labels);
+        }
+    }
+
+    @Test
+    public void labelsAreCached() throws SQLException {
+        var labelCache = factory.labelCache;
+        client.addLabels(Map.of("http://example.com/t1", Pair.of("http://example.com/Term", "First")));
+
+        assertEquals(Map.of("http://example.com/t1", "First"),
+                labelCache.labels(client.connection, List.of("http://example.com/t1", "http://example.com/t2")));
+        assertEquals(Map.of("First", "http://example.com/t1"),
+                labelCache.iris(client.connection, "http://example.com/Term", List.of("First", "Other")));
+
+        client.addLabel("http://example.com/t2", "http://example.com/Term", "Other");
+        assertEquals(Map.of("First", "http://example.com/t1", "Other", "http://example.com/t2"),
+                labelCache.iris(client.connection, "http://example.com/Term", List.of("First", "Other")));
+    }
+
+    @Test
+    public void shadowTablesAreSwappedIn() throws SQLException {
+        client.upsertRows("Sample", List.of(row("http://example.com/s1", "Old", "Lab")));
+        client.commit();
+
+        factory.createShadowTables();
+        try (var shadow = factory.buildShadow()) {
+            shadow.upsertRows("Sample", List.of(row("http://example.com/s2", "New", "Field")));
+            shadow.replaceValues("Sample", "tags", List.of("http://example.com/s2"), List.of(Pair.of("http://example.com/s2", "a")));
+            shadow.commit();
+        }
+        // The live tables are in use until the swap
+        client.upsertRows("Sample", List.of(row("http://example.com/s3", "Updated", "Lab")));
+        client.replaceValues("Sample", "tags", List.of("http://example.com/s3"), List.of(Pair.of("http://example.com/s3", "b")));
+        client.trackUpdates(List.of("http://example.com/s3"));
+        client.commit();
+        assertEquals(2, rows().size());
+
+        assertEquals(Set.of("http://example.com/s3"), factory.swapShadowTables());
+
+        assertEquals(List.of("http://example.com/s2|New|Field"), rows());
+        var tags = Table.valueColumn("tags", ViewsConfig.ColumnType.Text);
+        assertEquals(Set.of("a"), client.retrieveValues("sample_tags", "Sample", "http://example.com/s2", tags));
+
+        // Another rebuild can follow
+        factory.createShadowTables();
+        factory.swapShadowTables();
+        assertEquals(List.of(), rows());
+        assertEquals(List.of("sample_tags_reverse_idx"), indexes("sample_tags"));
+    }
+
+    @Test
+    public void shadowTablesAreDroppedIfTheSwapFails() throws SQLException {
+        client.upsertRows("Sample", List.of(row("http://example.com/s1", "Old", "Lab")));
+        client.commit();
+
+        factory.createShadowTables();
+        client.trackUpdates(List.of("http://example.com/s1"));
+        // Makes the first rename fail
+        try (var statement = client.connection.createStatement()) {
+            statement.execute("create table sample_old (id varchar)");
+        }
+        client.commit();
+
+        assertThrows(SQLException.class, factory::swapShadowTables);
+
+        assertEquals(Set.of(), factory.stopTrackingUpdates());
+        assertEquals(List.of("http://example.com/s1|Old|Lab"), rows());
+        try (var query = client.connection.prepareStatement(
+                "select count(*) from information_schema.tables where lower(table_name) like '%\\_next' escape '\\'");
+             var result = query.executeQuery()) {
+            result.next();
+            assertEquals(0, result.getInt(1));
+        }
+        client.commit();
+    }
+
+    @Test
+    public void indexesAreCreated() throws SQLException {
+        assertEquals(List.of("sample_tags_reverse_idx"), indexes("sample_tags"));
+        // Creating them again has no effect
+        factory.ensureIndexesExist(factory.configuration.allTables());
+        assertEquals(List.of("sample_tags_reverse_idx"), indexes("sample_tags"));
+    }
+
+    private List<String> indexes(String table) throws SQLException {
+        try (var query = client.connection.prepareStatement(
+                "select distinct lower(index_name) from information_schema.indexes" +
+                        " where lower(table_name) = ? and lower(index_name) like '%_idx' order by 1")) {
+            query.setString(1, table);
+            var result = query.executeQuery();
+            var indexes = new ArrayList<String>();
+            while (result.next()) {
+                indexes.add(result.getString(1));
+            }
+            client.commit();
+            return indexes;
+        }
+    }
+
+    private List<String> rows() throws SQLException {
+        try (var query = client.connection.prepareStatement("select id, label, origin from sample order by id");
+             var result = query.executeQuery()) {
+            var rows = new ArrayList<String>();
+            while (result.next()) {
+                rows.add(result.getString(1) + "|" + result.getString(2) + "|" + result.getString(3));
+            }
+            // Don't hold on to the tables while they're swapped
+            client.commit();
+            return rows;
+        }
+    }
+
+    private static Map<String, Object> row(String id, String label, String origin) {
+        var row = new HashMap<String, Object>();
+        row.put("id", id);
+        row.put("label", label);
+        row.put("origin", origin);
+        return row;
+    }
+
+    private static ViewsConfig.View.Column column(String name, ViewsConfig.ColumnType type) {
+        var column = new ViewsConfig.View.Column();
+        column.name = name;
+        column.title = name;
+        column.type = type;
+        column.source = "http://example.com/" + name;
+        return column;
+    }
+}
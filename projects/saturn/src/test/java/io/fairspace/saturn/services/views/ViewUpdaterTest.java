@@ -0,0 +1,230 @@
+package io.fairspace.saturn.services.views;
+
+import io.fairspace.saturn.config.Config;
+import io.fairspace.saturn.config.ViewsConfig;
+import io.fairspace.saturn.vocabulary.FS;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.system.Txn;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.UUID.randomUUID;
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.apache.jena.sparql.core.DatasetGraphFactory.createTxnMem;
+import static org.junit.Assert.*;
+
+public class ViewUpdaterTest {
+    private static final String NS = "http://example.com/";
+    private static final Node SAMPLE_1 = createURI(NS + "s1");
+    private static final Node SAMPLE_2 = createURI(NS + "s2");
+    private static final Node SUBJECT_1 = createURI(NS + "p1");
+    private static final Node SUBJECT_2 = createURI(NS + "p2");
+    private static final Node SPECIES = createURI(NS + "t1");
+
+    private ViewStoreClientFactory factory;
+    private ViewStoreClient client;
+    private DatasetGraph dsg;
+
+    @Before
+    public void before() throws SQLException {
+        var viewDatabase = new Config.ViewDatabase();
+        viewDatabase.url = "jdbc:h2:mem:" + randomUUID() + ";DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+        viewDatabase.username = "sa";
+        viewDatabase.password = "";
+        ViewStoreClientFactory.H2_DATABASE = true;
+
+        var sample = new ViewsConfig.View();
+        sample.name = "Sample";
+        sample.title = "Samples";
+        sample.types = List.of(NS + "Sample");
+        sample.columns = List.of(
+                column("origin", ViewsConfig.ColumnType.Text),
+                column("tags", ViewsConfig.ColumnType.Set),
+                column("species", ViewsConfig.ColumnType.TermSet));
+        sample.join = List.of(join("Subject", false));
+        var subject = new ViewsConfig.View();
+        subject.name = "Subject";
+        subject.title = "Subjects";
+        subject.types = List.of(NS + "Subject");
+        subject.columns = List.of(column("name", ViewsConfig.ColumnType.Text));
+        // Shares the join table of the samples
+        subject.join = List.of(join("Sample", true));
+        var viewsConfig = new ViewsConfig();
+        viewsConfig.views = List.of(sample, subject);
+
+        factory = new ViewStoreClientFactory(viewsConfig, viewDatabase);
+        client = factory.build();
+        dsg = createTxnMem();
+    }
+
+    @After
+    public void after() throws SQLException {
+        client.close();
+    }
+
+    @Test
+    public void rowsValuesAndLinksAreWritten() throws SQLException {
+        Txn.executeWrite(dsg, () -> {
+            addSample(SAMPLE_1, "Sample 1", SUBJECT_1);
+            add(SAMPLE_1, "origin", createLiteral("Lab"));
+            add(SAMPLE_1, "tags", createLiteral("a"));
+            add(SAMPLE_1, "tags", createLiteral("b"));
+            add(SAMPLE_1, "species", SPECIES);
+            add(SPECIES, RDFS.label.asNode(), createLiteral("Homo sapiens"));
+            addSubject(SUBJECT_1, "Subject 1");
+        });
+
+        update(SAMPLE_1, SUBJECT_1);
+
+        assertEquals(List.of("http://example.com/s1|Sample 1|Lab"), select("select id, label, origin from sample order by id, label, origin"));
+        assertEquals(List.of("http://example.com/p1|Subject 1|P"), select("select id, label, name from subject order by id, label, name"));
+        assertEquals(List.of("http://example.com/s1|a", "http://example.com/s1|b"), select("select sample_id, tags from sample_tags order by sample_id, tags"));
+        assertEquals(List.of("http://example.com/s1|Homo sapiens"), select("select sample_id, species from sample_species order by sample_id, species"));
+        assertEquals(List.of("http://example.com/s1|http://example.com/p1"), select("select sample_id, subject_id from sample_subject order by sample_id, subject_id"));
+        // Labels of terms are added at the end of the batch
+        assertEquals(List.of("http://example.com/t1|http://example.com/Species|Homo sapiens"), select("select id, type, label from label order by id, type, label"));
+    }
+
+    @Test
+    public void removedValuesAndLinksAreCleared() throws SQLException {
+        Txn.executeWrite(dsg, () -> {
+            addSample(SAMPLE_1, "Sample 1", SUBJECT_1);
+            add(SAMPLE_1, "origin", createLiteral("Lab"));
+            add(SAMPLE_1, "tags", createLiteral("a"));
+            add(SAMPLE_1, "species", SPECIES);
+            add(SPECIES, RDFS.label.asNode(), createLiteral("Homo sapiens"));
+            addSubject(SUBJECT_1, "Subject 1");
+        });
+        update(SAMPLE_1, SUBJECT_1);
+
+        Txn.executeWrite(dsg, () -> {
+            dsg.getDefaultGraph().remove(SAMPLE_1, createURI(NS + "origin"), Node.ANY);
+            dsg.getDefaultGraph().remove(SAMPLE_1, createURI(NS + "tags"), Node.ANY);
+            dsg.getDefaultGraph().remove(SAMPLE_1, createURI(NS + "species"), Node.ANY);
+            dsg.getDefaultGraph().remove(SAMPLE_1, createURI(NS + "subject"), Node.ANY);
+        });
+        update(SAMPLE_1);
+
+        assertEquals(List.of("http://example.com/s1|Sample 1|null"), select("select id, label, origin from sample order by id, label, origin"));
+        assertEquals(List.of(), select("select sample_id, tags from sample_tags order by sample_id, tags"));
+        assertEquals(List.of(), select("select sample_id, species from sample_species order by sample_id, species"));
+        assertEquals(List.of(), select("select sample_id, subject_id from sample_subject order by sample_id, subject_id"));
+        assertEquals(List.of("http://example.com/p1|Subject 1|P"), select("select id, label, name from subject order by id, label, name"));
+    }
+
+    @Test
+    public void reverseJoinsAreWrittenToTheSharedJoinTable() throws SQLException {
+        Txn.executeWrite(dsg, () -> {
+            addSample(SAMPLE_1, "Sample 1", SUBJECT_1);
+            addSample(SAMPLE_2, "Sample 2", SUBJECT_2);
+            addSubject(SUBJECT_1, "Subject 1");
+            addSubject(SUBJECT_2, "Subject 2");
+        });
+
+        // Only the subjects are updated, the links are found from their side
+        update(SUBJECT_1, SUBJECT_2);
+
+        assertEquals(List.of(), select("select id from sample order by id"));
+        assertEquals(List.of(
+                "http://example.com/s1|http://example.com/p1",
+                "http://example.com/s2|http://example.com/p2"), select("select sample_id, subject_id from sample_subject order by sample_id, subject_id"));
+
+        Txn.executeWrite(dsg, () -> dsg.getDefaultGraph().remove(SAMPLE_2, createURI(NS + "subject"), SUBJECT_2));
+        update(SUBJECT_2);
+
+        assertEquals(List.of("http://example.com/s1|http://example.com/p1"), select("select sample_id, subject_id from sample_subject order by sample_id, subject_id"));
+    }
+
+    @Test
+    public void deletedSubjectsAreRemoved() throws SQLException {
+        Txn.executeWrite(dsg, () -> {
+            addSample(SAMPLE_1, "Sample 1", SUBJECT_1);
+            addSample(SAMPLE_2, "Sample 2", SUBJECT_1);
+        });
+        update(SAMPLE_1, SAMPLE_2);
+
+        Txn.executeWrite(dsg, () -> add(SAMPLE_2, FS.dateDeleted.asNode(), createLiteral("2021-01-01")));
+        update(SAMPLE_2);
+
+        assertEquals(List.of("http://example.com/s1|Sample 1|null"), select("select id, label, origin from sample order by id, label, origin"));
+    }
+
+    private void update(Node... subjects) throws SQLException {
+        try (var viewUpdater = new ViewUpdater(factory.build(), dsg)) {
+            dsg.begin(ReadWrite.READ);
+            try {
+                viewUpdater.updateSubjects(List.of(subjects));
+            } finally {
+                dsg.end();
+            }
+            viewUpdater.commit();
+        }
+    }
+
+    private List<String> select(String sql) throws SQLException {
+        try (var query = client.connection.prepareStatement(sql);
+             var result = query.executeQuery()) {
+            var rows = new ArrayList<String>();
+            var columns = result.getMetaData().getColumnCount();
+            while (result.next()) {
+                var row = new ArrayList<String>();
+                for (var i = 1; i <= columns; i++) {
+                    row.add(result.getString(i));
+                }
+                rows.add(String.join("|", row));
+            }
+            client.commit();
+            return rows;
+        }
+    }
+
+    private void addSample(Node sample, String label, Node subject) {
+        add(sample, RDF.type.asNode(), createURI(NS + "Sample"));
+        add(sample, RDFS.label.asNode(), createLiteral(label));
+        add(sample, "subject", subject);
+    }
+
+    private void addSubject(Node subject, String label) {
+        add(subject, RDF.type.asNode(), createURI(NS + "Subject"));
+        add(subject, RDFS.label.asNode(), createLiteral(label));
+        add(subject, "name", createLiteral("P"));
+    }
+
+    private void add(Node subject, String property, Node object) {
+        add(subject, createURI(NS + property), object);
+    }
+
+    private void add(Node subject, Node predicate, Node object) {
+        dsg.getDefaultGraph().add(subject, predicate, object);
+    }
+
+    private static ViewsConfig.View.Column column(String name, ViewsConfig.ColumnType type) {
+        var column = new ViewsConfig.View.Column();
+        column.name = name;
+        column.title = name;
+        column.type = type;
+        column.source = NS + name;
+        if (type == ViewsConfig.ColumnType.TermSet) {
+            column.rdfType = NS + "Species";
+        }
+        return column;
+    }
+
+    private static ViewsConfig.View.JoinView join(String view, boolean reverse) {
+        var join = new ViewsConfig.View.JoinView();
+        join.view = view;
+        join.on = NS + "subject";
+        join.reverse = reverse;
+        return join;
+    }
+}